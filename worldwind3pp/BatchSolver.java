@@ -0,0 +1,628 @@
+package worldwind3pp;
+
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.math.BigInteger;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.DoubleBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * Command line batch solver, no World Wind or Swing needed so it runs on headless boxes.
+ *
+ * Usage: BatchSolver input output [--plane-normal] [--field]
+ *
+ * The input is a CSV with one triplet per line: lat1,lon1,elev1,lat2,lon2,elev2,lat3,lon3,elev3
+ * (lines that do not start with a number, like a header, are skipped), or if it ends in .bin,
+ * nine little endian doubles per triplet in the same order.
+ * The file is memory mapped a window at a time and the numbers are parsed straight from the bytes,
+ * so there are no Strings per line and memory stays bounded no matter how big the file is.
+ * The output gets one line strike,dip,dipAzimuth,quad per triplet in input order, or if it ends in .bin,
+ * a 25 byte record per triplet: strike, dip and dip azimuth as doubles then the quad code byte
+ * (Calculations.QUAD_W, QUAD_E or QUAD_ERROR). Binary files are little endian both ways, like the session file,
+ * but a .bin output is not an input, the records are a different size and hold solutions, not triplets.
+ *
+ * With --field the input is contact points instead, lat,lon,elev per line (three doubles per point in .bin).
+ * They are Delaunay triangulated into a StrikeDipField and the output has one
+ * lat,lon,strike,dip,dipAzimuth,quad line per triangle at its centroid (.bin: a 41 byte record,
+ * the centroid lat and lon doubles in front of the same 25 bytes).
+ * The points all have to be in memory for the triangulation, at 24 bytes a point.
+ *
+ */
+public class BatchSolver {
+
+	// triplets solved per block, the memory used is a fixed number of arrays this long
+	private static final int BLOCK = 1 << 16;
+
+	// bytes mapped at a time, a line can never be longer than this
+	private static final long WINDOW = 64L << 20;
+
+	// doubles per record in the binary format, a triplet or a single point in field mode
+	private final int values;
+
+	private final ParallelSolver solver;
+
+	private final double[] lat = new double[BLOCK * 3];
+	private final double[] lon = new double[BLOCK * 3];
+	private final double[] elev = new double[BLOCK * 3];
+	private final int[] p1 = new int[BLOCK], p2 = new int[BLOCK], p3 = new int[BLOCK];
+
+	private final double[] strike = new double[BLOCK];
+	private final double[] dip = new double[BLOCK];
+	private final double[] dipAz = new double[BLOCK];
+	private final byte[] quad = new byte[BLOCK];
+
+	private int count;// triplets in the current block
+	private long solved;
+	private long skipped;
+	private long solveNanos;
+
+	private ResultWriter out;
+
+	// field mode collects every point then triangulates at the end
+	private final boolean field;
+	private final Calculations calc;
+	private double[] pointLat = new double[0], pointLon = new double[0], pointElev = new double[0];
+	private int points;
+
+	public BatchSolver(Calculations calc)
+	{
+		this(calc, false);
+	}
+
+	public BatchSolver(Calculations calc, boolean field)
+	{
+		this.calc = calc;
+		this.field = field;
+		this.values = field ? 3 : 9;
+		this.solver = new ParallelSolver(ForkJoinPool.commonPool(), ParallelSolver.DEFAULT_CHUNK, calc);
+
+		// triplet k of a block is always points 3k, 3k+1, 3k+2
+		for(int k = 0; k < BLOCK; k++)
+		{
+			p1[k] = 3 * k;
+			p2[k] = 3 * k + 1;
+			p3[k] = 3 * k + 2;
+		}
+	}
+
+	public static void main(String[] args)
+	{
+		if(args.length < 2)
+		{
+			System.err.println("Usage: BatchSolver input output [--plane-normal] [--field]");
+			System.exit(1);
+		}
+
+		Calculations.Mode mode = Calculations.Mode.HAVERSINE;
+		boolean field = false;
+		for(int i = 2; i < args.length; i++)
+		{
+			if(args[i].equals("--plane-normal"))
+				mode = Calculations.Mode.PLANE_NORMAL;
+			else if(args[i].equals("--field"))
+				field = true;
+		}
+
+		try
+		{
+			long start = System.nanoTime();
+			BatchSolver batch = new BatchSolver(new Calculations(mode), field);
+			batch.run(Paths.get(args[0]), Paths.get(args[1]));
+
+			System.out.println(batch.getSolved() + " triplets solved, " + batch.getSkipped() + " lines skipped in "
+					+ (System.nanoTime() - start) / 1e9 + " s (" + batch.getSolveNanos() / 1e9 + " s solving)");
+		}
+		catch (IOException e)
+		{
+			e.printStackTrace();
+			System.exit(2);
+		}
+	}
+
+	public void run(Path input, Path output) throws IOException
+	{
+		try (FileChannel channel = FileChannel.open(input, StandardOpenOption.READ);
+				OutputStream os = new BufferedOutputStream(Files.newOutputStream(output), 1 << 20))
+		{
+			out = isBinary(output) ? new BinaryWriter(os) : new CsvWriter(os, field);
+
+			if(isBinary(input))
+				readBinary(channel);
+			else
+				readCsv(channel);
+
+			if(field)
+				solveField();
+			else
+				flushBlock();
+			out.flush();
+		}
+	}
+
+	public long getSolved() {
+		return solved;
+	}
+
+	public long getSkipped() {
+		return skipped;
+	}
+
+	public long getSolveNanos() {
+		return solveNanos;
+	}
+
+	private static boolean isBinary(Path path)
+	{
+		return path.getFileName().toString().toLowerCase().endsWith(".bin");
+	}
+
+	private void readBinary(FileChannel channel) throws IOException
+	{
+		long size = channel.size();
+		int record = values * 8;
+		long window = WINDOW - WINDOW % record;
+		double[] buffer = new double[values];
+
+		for(long pos = 0; pos + record <= size; pos += window)
+		{
+			long length = Math.min(window, size - pos);
+			length -= length % record;
+
+			MappedByteBuffer map = channel.map(FileChannel.MapMode.READ_ONLY, pos, length);
+			DoubleBuffer doubles = map.order(ByteOrder.LITTLE_ENDIAN).asDoubleBuffer();
+
+			while(doubles.remaining() >= values)
+			{
+				doubles.get(buffer);
+				add(buffer);
+			}
+		}
+	}
+
+	private void readCsv(FileChannel channel) throws IOException
+	{
+		long size = channel.size();
+		long pos = 0;
+		double[] buffer = new double[values];
+
+		while(pos < size)
+		{
+			long length = Math.min(WINDOW, size - pos);
+			MappedByteBuffer map = channel.map(FileChannel.MapMode.READ_ONLY, pos, length);
+
+			// only parse up to the last full line in the window unless this is the end of the file
+			int end = (int) length;
+			if(pos + length < size)
+			{
+				while(end > 0 && map.get(end - 1) != '\n')
+					end--;
+				if(end == 0)
+					throw new IOException("line longer than " + WINDOW + " bytes at offset " + pos);
+			}
+
+			int lineStart = 0;
+			while(lineStart < end)
+			{
+				int lineEnd = lineStart;
+				while(lineEnd < end && map.get(lineEnd) != '\n')
+					lineEnd++;
+
+				if(parseLine(map, lineStart, lineEnd, buffer))
+					add(buffer);
+				else if(lineEnd > lineStart)
+					skipped++;
+
+				lineStart = lineEnd + 1;
+			}
+
+			pos += end;
+		}
+	}
+
+	// parses values.length comma separated numbers out of [start, end), false if the line is not a record
+	private static boolean parseLine(MappedByteBuffer map, int start, int end, double[] values)
+	{
+		int p = start;
+		for(int v = 0; v < values.length; v++)
+		{
+			while(p < end && (map.get(p) == ' ' || map.get(p) == '\t'))
+				p++;
+
+			int numberEnd = p;
+			while(numberEnd < end && map.get(numberEnd) != ',' && map.get(numberEnd) != '\r')
+				numberEnd++;
+
+			// trailing spaces before the comma
+			int last = numberEnd;
+			while(last > p && (map.get(last - 1) == ' ' || map.get(last - 1) == '\t'))
+				last--;
+
+			double value = parseDouble(map, p, last);
+			if(Double.isNaN(value))
+				return false;
+			values[v] = value;
+
+			p = numberEnd + 1;
+		}
+		return true;
+	}
+
+	private static final double[] POWERS_OF_TEN = new double[23];
+	static
+	{
+		POWERS_OF_TEN[0] = 1;
+		for(int i = 1; i < POWERS_OF_TEN.length; i++)
+			POWERS_OF_TEN[i] = POWERS_OF_TEN[i - 1] * 10;
+	}
+
+	// digits kept from a number, the rest are only counted. 18 always fit in a long and a double has at most 17
+	private static final int MAX_DIGITS = 18;
+
+	// 10^e as a 128 bit mantissa rounded down with its top bit set, hi then lo, for MIN_EXP10 <= e <= MAX_EXP10
+	private static final int MIN_EXP10 = -64, MAX_EXP10 = 64;
+	private static final long[] POWERS_HI = new long[MAX_EXP10 - MIN_EXP10 + 1];
+	private static final long[] POWERS_LO = new long[POWERS_HI.length];
+	static
+	{
+		BigInteger mask = BigInteger.ONE.shiftLeft(64).subtract(BigInteger.ONE);
+		for(int e = MIN_EXP10; e <= MAX_EXP10; e++)
+		{
+			BigInteger m;
+			if(e >= 0)
+			{
+				m = BigInteger.TEN.pow(e);
+				m = m.bitLength() > 128 ? m.shiftRight(m.bitLength() - 128) : m.shiftLeft(128 - m.bitLength());
+			}
+			else
+			{
+				// 2^k / 10^-e lands between 2^127 and 2^128 when k is its bit length plus 127
+				BigInteger d = BigInteger.TEN.pow(-e);
+				m = BigInteger.ONE.shiftLeft(d.bitLength() + 127).divide(d);
+			}
+			POWERS_HI[e - MIN_EXP10] = m.shiftRight(64).longValue();
+			POWERS_LO[e - MIN_EXP10] = m.and(mask).longValue();
+		}
+	}
+
+	// parses a plain decimal number like -75.1224 or 1.5e3 from the bytes, NaN if it is not a number.
+	// While the digits fit in 53 bits they are exact in a double, and one multiply or divide by an exact power
+	// of ten rounds correctly. Longer mantissas, which is every full precision double a survey export or
+	// Double.toString writes, go through eiselLemire() with the first 18 digits. Only the rare case that cannot
+	// be rounded for sure from those, or an exponent past 10^64, falls back to the JDK.
+	static double parseDouble(MappedByteBuffer map, int start, int end)
+	{
+		if(start >= end)
+			return Double.NaN;
+
+		int p = start;
+		boolean negative = false;
+		if(map.get(p) == '-' || map.get(p) == '+')
+		{
+			negative = map.get(p) == '-';
+			p++;
+		}
+
+		long mantissa = 0;
+		int digits = 0, scale = 0;
+		boolean seenDigit = false, seenPoint = false, truncated = false;
+
+		for(; p < end; p++)
+		{
+			byte b = map.get(p);
+			if(b >= '0' && b <= '9')
+			{
+				seenDigit = true;
+				if(digits < MAX_DIGITS)
+				{
+					mantissa = mantissa * 10 + (b - '0');
+					if(mantissa != 0)
+						digits++;
+					if(seenPoint)
+						scale++;
+				}
+				else
+				{
+					truncated |= b != '0';
+					if(!seenPoint)
+						scale--;// too many digits before the point, keep the magnitude
+				}
+			}
+			else if(b == '.' && !seenPoint)
+				seenPoint = true;
+			else
+				break;
+		}
+
+		if(!seenDigit)
+			return Double.NaN;
+
+		if(p < end)
+		{
+			byte b = map.get(p);
+			if(b != 'e' && b != 'E')
+				return Double.NaN;
+
+			p++;
+			boolean negativeExponent = false;
+			if(p < end && (map.get(p) == '-' || map.get(p) == '+'))
+			{
+				negativeExponent = map.get(p) == '-';
+				p++;
+			}
+
+			int exponent = 0;
+			int exponentStart = p;
+			for(; p < end; p++)
+			{
+				b = map.get(p);
+				if(b < '0' || b > '9' || exponent > 10000)
+					return slowParse(map, start, end);
+				exponent = exponent * 10 + (b - '0');
+			}
+			if(p == exponentStart)
+				return Double.NaN;
+
+			scale -= negativeExponent ? -exponent : exponent;
+		}
+
+		if(!truncated && mantissa < (1L << 53))
+		{
+			if(scale >= 0 && scale < POWERS_OF_TEN.length)
+				return negative ? -(mantissa / POWERS_OF_TEN[scale]) : mantissa / POWERS_OF_TEN[scale];
+			else if(scale < 0 && -scale < POWERS_OF_TEN.length)
+				return negative ? -(mantissa * POWERS_OF_TEN[-scale]) : mantissa * POWERS_OF_TEN[-scale];
+		}
+
+		double value = eiselLemire(mantissa, -scale, negative);
+		// with digits dropped the value is somewhere between mantissa and mantissa + 1, both have to round the same
+		if(truncated && !Double.isNaN(value) && eiselLemire(mantissa + 1, -scale, negative) != value)
+			value = Double.NaN;
+		return Double.isNaN(value) ? slowParse(map, start, end) : value;
+	}
+
+	/**
+	 * The double nearest mantissa * 10^exp10, rounded to even, or NaN when that cannot be told from the 128 bit
+	 * power of ten or the result is subnormal or infinite. This is the Eisel-Lemire algorithm, see Lemire,
+	 * "Number Parsing at a Gigabyte per Second", Software: Practice and Experience 51(8), 2021.
+	 */
+	static double eiselLemire(long mantissa, int exp10, boolean negative)
+	{
+		if(mantissa == 0)
+			return negative ? -0.0 : 0.0;
+		if(exp10 < MIN_EXP10 || exp10 > MAX_EXP10)
+			return Double.NaN;
+
+		int clz = Long.numberOfLeadingZeros(mantissa);
+		long man = mantissa << clz;
+		long exp2 = ((217706L * exp10) >> 16) + 64 + 1023 - clz;
+
+		long powHi = POWERS_HI[exp10 - MIN_EXP10], powLo = POWERS_LO[exp10 - MIN_EXP10];
+		long xHi = multiplyHigh(man, powHi), xLo = man * powHi;
+
+		// the low bits could carry into the ones that are kept, take the rest of the power into account
+		if((xHi & 0x1FF) == 0x1FF && Long.compareUnsigned(xLo + man, man) < 0)
+		{
+			long yHi = multiplyHigh(man, powLo), yLo = man * powLo;
+			long mergedHi = xHi, mergedLo = xLo + yHi;
+			if(Long.compareUnsigned(mergedLo, xLo) < 0)
+				mergedHi++;
+			if((mergedHi & 0x1FF) == 0x1FF && mergedLo + 1 == 0 && Long.compareUnsigned(yLo + man, man) < 0)
+				return Double.NaN;
+			xHi = mergedHi;
+			xLo = mergedLo;
+		}
+
+		// down to 54 bits, then round the last one off
+		long msb = xHi >>> 63;
+		long bits = xHi >>> (msb + 9);
+		exp2 -= 1 ^ msb;
+
+		// exactly half way between two doubles as far as these bits go
+		if(xLo == 0 && (xHi & 0x1FF) == 0 && (bits & 3) == 1)
+			return Double.NaN;
+
+		bits += bits & 1;
+		bits >>>= 1;
+		if((bits >>> 53) > 0)
+		{
+			bits >>>= 1;
+			exp2++;
+		}
+
+		if(exp2 <= 0 || exp2 >= 0x7FF)
+			return Double.NaN;
+
+		long raw = exp2 << 52 | bits & 0x000FFFFFFFFFFFFFL;
+		if(negative)
+			raw |= 0x8000000000000000L;
+		return Double.longBitsToDouble(raw);
+	}
+
+	// the top 64 bits of the unsigned 128 bit product
+	private static long multiplyHigh(long a, long b)
+	{
+		long aLo = a & 0xFFFFFFFFL, aHi = a >>> 32;
+		long bLo = b & 0xFFFFFFFFL, bHi = b >>> 32;
+
+		long loLo = aLo * bLo, hiLo = aHi * bLo, loHi = aLo * bHi, hiHi = aHi * bHi;
+		long cross = (loLo >>> 32) + (hiLo & 0xFFFFFFFFL) + loHi;
+		return hiHi + (hiLo >>> 32) + (cross >>> 32);
+	}
+
+	private static double slowParse(MappedByteBuffer map, int start, int end)
+	{
+		byte[] bytes = new byte[end - start];
+		for(int i = 0; i < bytes.length; i++)
+			bytes[i] = map.get(start + i);
+
+		try
+		{
+			return Double.parseDouble(new String(bytes, StandardCharsets.US_ASCII));
+		}
+		catch (NumberFormatException e)
+		{
+			return Double.NaN;
+		}
+	}
+
+	// takes one parsed record, a triplet as lat/lon/elev of each point or a single point in field mode
+	private void add(double[] record) throws IOException
+	{
+		if(field)
+		{
+			if(points == pointLat.length)
+			{
+				int capacity = Math.max(BLOCK, points * 2);
+				pointLat = Arrays.copyOf(pointLat, capacity);
+				pointLon = Arrays.copyOf(pointLon, capacity);
+				pointElev = Arrays.copyOf(pointElev, capacity);
+			}
+			pointLat[points] = record[0];
+			pointLon[points] = record[1];
+			pointElev[points] = record[2];
+			points++;
+			return;
+		}
+
+		int i = count * 3;
+		for(int j = 0; j < 3; j++)
+		{
+			lat[i + j] = record[j * 3];
+			lon[i + j] = record[j * 3 + 1];
+			elev[i + j] = record[j * 3 + 2];
+		}
+
+		count++;
+		if(count == BLOCK)
+			flushBlock();
+	}
+
+	private void solveField() throws IOException
+	{
+		StrikeDipField result = new StrikeDipField(Arrays.copyOf(pointLat, points), Arrays.copyOf(pointLon, points),
+				Arrays.copyOf(pointElev, points), calc);
+		solveNanos += result.getTriangulateNanos() + result.getSolveNanos();
+
+		for(int t = 0; t < result.size(); t++)
+		{
+			out.write(result.getCentroidLatitude(t), result.getCentroidLongitude(t),
+					result.getStrike(t), result.getDip(t), result.getDipAzimuth(t), result.getQuadCode(t));
+		}
+
+		solved += result.size();
+	}
+
+	// solve the block on every core and write it out in order
+	private void flushBlock() throws IOException
+	{
+		if(count == 0)
+			return;
+
+		// only the last block of the file is short
+		int[] a = p1, b = p2, c = p3;
+		if(count < BLOCK)
+		{
+			a = Arrays.copyOf(p1, count);
+			b = Arrays.copyOf(p2, count);
+			c = Arrays.copyOf(p3, count);
+		}
+
+		ParallelSolver.Throughput throughput = solver.solve(lat, lon, elev, a, b, c, strike, dip, dipAz, quad);
+		solveNanos += throughput.getElapsedNanos();
+
+		for(int k = 0; k < count; k++)
+			out.write(strike[k], dip[k], dipAz[k], quad[k]);
+
+		solved += count;
+		count = 0;
+	}
+
+	private interface ResultWriter {
+		void write(double strike, double dip, double dipAz, byte quad) throws IOException;
+		// a field result located at lat, lon
+		void write(double lat, double lon, double strike, double dip, double dipAz, byte quad) throws IOException;
+		void flush() throws IOException;
+	}
+
+	private static class CsvWriter implements ResultWriter {
+
+		private final Writer writer;
+		private final StringBuilder line = new StringBuilder(64);
+
+		CsvWriter(OutputStream os, boolean field) throws IOException
+		{
+			writer = new OutputStreamWriter(os, StandardCharsets.US_ASCII);
+			writer.write(field ? "lat,lon,strike,dip,dipAzimuth,quad\n" : "strike,dip,dipAzimuth,quad\n");
+		}
+
+		public void write(double lat, double lon, double strike, double dip, double dipAz, byte quad) throws IOException
+		{
+			line.setLength(0);
+			line.append(lat).append(',').append(lon).append(',');
+			writer.append(line);
+			write(strike, dip, dipAz, quad);
+		}
+
+		public void write(double strike, double dip, double dipAz, byte quad) throws IOException
+		{
+			line.setLength(0);
+			line.append(strike).append(',').append(dip).append(',').append(dipAz).append(',')
+					.append(Calculations.quadName(quad)).append('\n');
+			writer.append(line);
+		}
+
+		public void flush() throws IOException
+		{
+			writer.flush();
+		}
+	}
+
+	private static class BinaryWriter implements ResultWriter {
+
+		private final OutputStream os;
+		private final ByteBuffer record = ByteBuffer.allocate(5 * 8 + 1).order(ByteOrder.LITTLE_ENDIAN);
+
+		BinaryWriter(OutputStream os)
+		{
+			this.os = os;
+		}
+
+		public void write(double lat, double lon, double strike, double dip, double dipAz, byte quad) throws IOException
+		{
+			record.clear();
+			record.putDouble(lat).putDouble(lon);
+			put(strike, dip, dipAz, quad);
+		}
+
+		public void write(double strike, double dip, double dipAz, byte quad) throws IOException
+		{
+			record.clear();
+			put(strike, dip, dipAz, quad);
+		}
+
+		private void put(double strike, double dip, double dipAz, byte quad) throws IOException
+		{
+			record.putDouble(strike).putDouble(dip).putDouble(dipAz).put(quad);
+			os.write(record.array(), 0, record.position());
+		}
+
+		public void flush() throws IOException
+		{
+			os.flush();
+		}
+	}
+
+}
@@ -8,6 +8,42 @@ package worldwind3pp;
  */
 public class Calculations {
 
+	// quad codes written by the batch solver, see quadName()
+	public static final byte QUAD_W = 0;
+	public static final byte QUAD_E = 1;
+	public static final byte QUAD_ERROR = 2;
+
+	// index of the high, medium and low point for each case returned by orderHighMediumLow()
+	// private so nothing outside can change them under the solver, read them through high(), medium() and low()
+	private static final int[] HIGH = { 0, 0, 1, 1, 2, 2 };
+	private static final int[] MEDIUM = { 1, 2, 0, 2, 0, 1 };
+	private static final int[] LOW = { 2, 1, 2, 0, 1, 0 };
+
+	/**
+	 * How a triplet is solved.
+	 * HAVERSINE goes through the distances, bearings and plunges from the high point like the GE solver did.
+	 * PLANE_NORMAL puts the points in local east/north/up metres and takes the pole straight from the cross
+	 * product of two edges, which is a handful of multiplies and a few trig calls instead of dozens.
+	 */
+	public enum Mode { HAVERSINE, PLANE_NORMAL }
+
+	private final Mode mode;
+
+	public Calculations()
+	{
+		this(Mode.HAVERSINE);
+	}
+
+	public Calculations(Mode mode)
+	{
+		this.mode = mode;
+	}
+
+	public Mode getMode()
+	{
+		return mode;
+	}
+
 	// //////////////////////////////////////////////////////////////////////////////////////
 	// Calculation functions
 	// Calculate the distance based on two points lat and long
@@ -15,13 +51,17 @@ public class Calculations {
 	
 	
 	public double calcDistance(double[] p1, double[] p2) {
+		return calcDistance(p1[0], p1[1], p2[0], p2[1]);
+	}
+
+	public double calcDistance(double lat1, double lon1, double lat2, double lon2) {
 
 		// haversine formula
 		double R = 6371 * 1000; // km to m
-		double x1 = toRadians(p1[0]);
-		double x2 = toRadians(p2[0]);
-		double dx = toRadians((p2[0] - p1[0]));
-		double dy = toRadians((p2[1] - p1[1]));
+		double x1 = toRadians(lat1);
+		double x2 = toRadians(lat2);
+		double dx = toRadians((lat2 - lat1));
+		double dy = toRadians((lon2 - lon1));
 
 		double a = Math.sin(dx / 2) * Math.sin(dx / 2) + Math.cos(x1)
 				* Math.cos(x2) * Math.sin(dy / 2) * Math.sin(dy / 2);
@@ -36,12 +76,17 @@ public class Calculations {
 
 	//Calculate the aziumuth between hm and hl
 	public double calcBearing(double[] p1, double[] p2)
+	{
+		return calcBearing(p1[0], p1[1], p2[0], p2[1]);
+	}
+
+	public double calcBearing(double lat1, double lon1, double lat2, double lon2)
 	{
 
-		double x1 = toRadians(p1[0]);
-		double y1 = toRadians(p1[1]);
-		double x2 = toRadians(p2[0]);
-		double y2 = toRadians(p2[1]);
+		double x1 = toRadians(lat1);
+		double y1 = toRadians(lon1);
+		double x2 = toRadians(lat2);
+		double y2 = toRadians(lon2);
 
 		double y = Math.sin(y2-y1) * Math.cos(x2);
 		double x = Math.cos(x1)*Math.sin(x2) -
@@ -53,10 +98,45 @@ public class Calculations {
 
 	}
 
+	//Distance between prepared points i and j. Uses the chord between the cached unit vectors
+	//instead of the haversine so no trig is done per pair except the final asin.
+	public double calcDistance(PreparedPoints p, int i, int j) {
+
+		double R = 6371 * 1000; // km to m
+		double dx = p.x[j] - p.x[i];
+		double dy = p.y[j] - p.y[i];
+		double dz = p.z[j] - p.z[i];
+
+		double chord = Math.sqrt(dx * dx + dy * dy + dz * dz);
+
+		return R * 2 * Math.asin(chord / 2);// distance between 2 points
+
+	}
+
+	//Bearing from prepared point i to j, sin/cos of the longitude difference come from the cached values
+	public double calcBearing(PreparedPoints p, int i, int j)
+	{
+
+		double sinDLon = p.sinLon[j] * p.cosLon[i] - p.cosLon[j] * p.sinLon[i];
+		double cosDLon = p.cosLon[j] * p.cosLon[i] + p.sinLon[j] * p.sinLon[i];
+
+		double y = sinDLon * p.cosLat[j];
+		double x = p.cosLat[i] * p.sinLat[j] -
+			p.sinLat[i] * p.cosLat[j] * cosDLon;
+
+		return toDegrees(Math.atan2(y, x)); //the azimuth aka bearing
+
+	}
+
 	//p1 is the high point, p2 is the lower point, dist is always from the lowest
 	public double calcPlunge(double[] p1,double[] p2,double dist)
 	{
-		double plunge = Math.atan((p2[2] - p1[2])/dist);
+		return calcPlunge(p1[2], p2[2], dist);
+	}
+
+	public double calcPlunge(double elev1, double elev2, double dist)
+	{
+		double plunge = Math.atan((elev2 - elev1)/dist);
 		plunge = toDegrees(plunge);
 
 		return plunge * -1;
@@ -65,13 +145,28 @@ public class Calculations {
 	
 	//Takes in 2 points + plunge and calculate the strike and dip from them
 	public StrikeDipQuad calcStrikeDip(double hmAz, double hlAz, double hmPl, double hlPl)
+	{
+		double[] strike = new double[1];
+		double[] dip = new double[1];
+		double[] dipaz = new double[1];
+		byte[] quad = new byte[1];
+
+		calcStrikeDip(hmAz, hlAz, hmPl, hlPl, strike, dip, dipaz, quad, 0);
+
+		StrikeDipQuad strikeDipQuad = new StrikeDipQuad(strike[0], dip[0], dipaz[0], quadName(quad[0]));
+		
+
+		return strikeDipQuad;
+	}
+
+	//Same as above but writes strike, dip, dip azimuth and the quad code into slot i of the output arrays
+	public void calcStrikeDip(double hmAz, double hlAz, double hmPl, double hlPl,
+			double[] strikeOut, double[] dipOut, double[] dipAzOut, byte[] quadOut, int i)
 	{
 		//Set up the variables for calculation
 		double l1Alpha, l1Beta, l1Gamma, l2Alpha, l2Beta, l2Gamma, theta;
 		double dAlpha, dBeta, dGamma, hAlpha, hBeta, hGamma;
 		double poleAzimuth, polePlunge;
-		double strike, dip, dipaz;
-		String quad;
 
 		//x,y,z linear 1
 		l1Alpha = (Math.sin(toRadians(hmAz)) * Math.sin(toRadians(90-hmPl)));
@@ -127,7 +222,16 @@ public class Calculations {
 		//calc pole plunge
 		polePlunge = 90 - toDegrees(Math.acos(hGamma));
 
+		writePole(poleAzimuth, polePlunge, strikeOut, dipOut, dipAzOut, quadOut, i);
 
+	}
+
+	//Turns the lower hemisphere pole of the plane into strike, dip, dip azimuth and quad and writes them into slot i
+	void writePole(double poleAzimuth, double polePlunge,
+			double[] strikeOut, double[] dipOut, double[] dipAzOut, byte[] quadOut, int i)
+	{
+		double strike, dip, dipaz;
+		byte quad;
 
 		//calc strike
 		if(poleAzimuth >= 0 && poleAzimuth <= 90)
@@ -158,21 +262,21 @@ public class Calculations {
 		//calc quad
 		if(poleAzimuth >= 0 && poleAzimuth <= 90)
 		{
-			quad = "W";	
+			quad = QUAD_W;	
 		}
 		else if(poleAzimuth > 90 && poleAzimuth <=180)
 		{
-			quad = "W";
+			quad = QUAD_W;
 		}
 		else if(poleAzimuth > 180 && poleAzimuth <= 270)
 		{
-			quad = "E";
+			quad = QUAD_E;
 		}
 		else if(poleAzimuth > 270 && poleAzimuth <= 360)
 		{
-			quad = "E";
+			quad = QUAD_E;
 		}
-		else quad = "ERROR";
+		else quad = QUAD_ERROR;
 
 		//calc dip azimuth
 		//TODO: this is different than GE, it seemed off so I changed the apparent dip azimuth.  the real result is still shown.
@@ -183,11 +287,253 @@ public class Calculations {
 		}
 		else dipaz = poleAzimuth - 180;
 
-		StrikeDipQuad strikeDipQuad = new StrikeDipQuad(strike, dip, dipaz, quad);
-		
+		strikeOut[i] = strike;
+		dipOut[i] = dip;
+		dipAzOut[i] = dipaz;
+		quadOut[i] = quad;
 
-		return strikeDipQuad;
+	}
+
+	public static String quadName(byte quad)
+	{
+		switch(quad){
+		case QUAD_W:
+			return "W";
+		case QUAD_E:
+			return "E";
+		default:
+			return "ERROR";
+		}
+	}
+
+	public static byte quadCode(String quad)
+	{
+		if("W".equals(quad))
+			return QUAD_W;
+		else if("E".equals(quad))
+			return QUAD_E;
+		return QUAD_ERROR;
+	}
+
+	//Works out which of the three elevations is the high, medium and low point.
+	//Returns the case to look up with high(), medium() and low(), or -1 if no case matches (e.g. NaN elevations).
+	//The cases are checked in the same order the picker has always used so ties resolve the same way.
+	public int orderHighMediumLow(double e1, double e2, double e3)
+	{
+		// sort the elevation values, same ordering as Arrays.sort without the array
+		double l = e1, m = e2, h = e3, t;
+		if(Double.compare(l, m) > 0) { t = l; l = m; m = t; }
+		if(Double.compare(m, h) > 0) { t = m; m = h; h = t; }
+		if(Double.compare(l, m) > 0) { t = l; l = m; m = t; }
+
+		if(e1 == h && e2 == m && e3 == l) return 0;
+		else if(e1 == h && e2 == l && e3 == m) return 1;
+		else if(e1 == m && e2 == h && e3 == l) return 2;
+		else if(e1 == l && e2 == h && e3 == m) return 3;
+		else if(e1 == m && e2 == l && e3 == h) return 4;
+		else if(e1 == l && e2 == m && e3 == h) return 5;
+		return -1;
+	}
+
+	//Which of the three points is the high point for a case from orderHighMediumLow(), 0, 1 or 2
+	public static int high(int order) {
+		return HIGH[order];
+	}
+
+	public static int medium(int order) {
+		return MEDIUM[order];
+	}
+
+	public static int low(int order) {
+		return LOW[order];
+	}
+
+	//Solves one three point problem for the points at a, b and c and writes the result into slot i.
+	//Returns the high to low distance, which the picker uses to scale the symbol.
+	public double solveTriplet(double[] lat, double[] lon, double[] elev, int a, int b, int c,
+			double[] strikeOut, double[] dipOut, double[] dipAzOut, byte[] quadOut, int i)
+	{
+		if(mode == Mode.PLANE_NORMAL)
+			return solveTripletPlaneNormal(lat, lon, elev, a, b, c, strikeOut, dipOut, dipAzOut, quadOut, i);
+
+		double hmAzimuth = 0, hlAzimuth = 0, hmDist, hlDist = 0, hmPlunge = 0, hlPlunge = 0;
+
+		int order = orderHighMediumLow(elev[a], elev[b], elev[c]);
+		if(order >= 0)
+		{
+			int hi = pick(HIGH[order], a, b, c);
+			int md = pick(MEDIUM[order], a, b, c);
+			int lo = pick(LOW[order], a, b, c);
+
+			hmAzimuth = calcBearing(lat[hi], lon[hi], lat[md], lon[md]);
+			hlAzimuth = calcBearing(lat[hi], lon[hi], lat[lo], lon[lo]);
+
+			hmDist = calcDistance(lat[hi], lon[hi], lat[md], lon[md]);
+			hlDist = calcDistance(lat[hi], lon[hi], lat[lo], lon[lo]);
 
+			hmPlunge = calcPlunge(elev[hi], elev[md], hmDist);
+			hlPlunge = calcPlunge(elev[hi], elev[lo], hlDist);
+		}
+
+		calcStrikeDip(hmAzimuth, hlAzimuth, hmPlunge, hlPlunge, strikeOut, dipOut, dipAzOut, quadOut, i);
+
+		return hlDist;
+	}
+
+	//Plane normal version of solveTriplet. The points are put on a flat east/north/up grid in metres around
+	//point a (fine over the few hundred metres a triplet spans) and the normal of the plane is the cross product
+	//of the two edges from a. Returns the horizontal high to low distance like solveTriplet.
+	public double solveTripletPlaneNormal(double[] lat, double[] lon, double[] elev, int a, int b, int c,
+			double[] strikeOut, double[] dipOut, double[] dipAzOut, byte[] quadOut, int i)
+	{
+		double R = 6371 * 1000; // km to m
+		double mPerLon = toRadians(1) * R * Math.cos(toRadians(lat[a]));
+		double mPerLat = toRadians(1) * R;
+
+		// edges a->b and a->c in east, north, up
+		double e1 = (lon[b] - lon[a]) * mPerLon, n1 = (lat[b] - lat[a]) * mPerLat, u1 = elev[b] - elev[a];
+		double e2 = (lon[c] - lon[a]) * mPerLon, n2 = (lat[c] - lat[a]) * mPerLat, u2 = elev[c] - elev[a];
+
+		writeNormal(n1 * u2 - u1 * n2, u1 * e2 - e1 * u2, e1 * n2 - n1 * e2, strikeOut, dipOut, dipAzOut, quadOut, i);
+
+		int order = orderHighMediumLow(elev[a], elev[b], elev[c]);
+		if(order < 0)
+			return 0;
+
+		// horizontal position of each point relative to a
+		double hiE = HIGH[order] == 0 ? 0 : HIGH[order] == 1 ? e1 : e2;
+		double hiN = HIGH[order] == 0 ? 0 : HIGH[order] == 1 ? n1 : n2;
+		double loE = LOW[order] == 0 ? 0 : LOW[order] == 1 ? e1 : e2;
+		double loN = LOW[order] == 0 ? 0 : LOW[order] == 1 ? n1 : n2;
+
+		return Math.sqrt((hiE - loE) * (hiE - loE) + (hiN - loN) * (hiN - loN));
+	}
+
+	//Takes any normal of the plane in east, north, up and writes the result for its lower hemisphere pole into slot i.
+	//A zero normal (points in a line) comes out the same as the haversine path does for parallel lines.
+	void writeNormal(double east, double north, double up,
+			double[] strikeOut, double[] dipOut, double[] dipAzOut, byte[] quadOut, int i)
+	{
+		double hAlpha = 0, hBeta = 0, hGamma = 0;
+
+		double length = Math.sqrt(east * east + north * north + up * up);
+		if(length > 0)
+		{
+			// lower hemisphere, gamma is positive down like the direction cosines in calcStrikeDip
+			double flip = up > 0 ? -1 : 1;
+			hAlpha = flip * east / length;
+			hBeta = flip * north / length;
+			hGamma = -flip * up / length;
+		}
+
+		double poleAzimuth;
+		if(hAlpha < 0 && hBeta >= 0)
+		{
+			poleAzimuth = (450 - (toDegrees(Math.atan2(hBeta, hAlpha))));
+		}
+		else
+		{
+			poleAzimuth = (90 - (toDegrees(Math.atan2(hBeta, hAlpha))));
+		}
+
+		double polePlunge = 90 - toDegrees(Math.acos(hGamma));
+
+		writePole(poleAzimuth, polePlunge, strikeOut, dipOut, dipAzOut, quadOut, i);
+	}
+
+	//Batch solver. The points are given as parallel lat/lon/elev arrays and triplet k is made of the points
+	//p1[k], p2[k], p3[k]. Results for triplets from..to-1 go into the same slot k of the output arrays.
+	//Nothing is allocated per triplet so this can be run over hundreds of thousands of triplets.
+	public void solveBatch(double[] lat, double[] lon, double[] elev, int[] p1, int[] p2, int[] p3, int from, int to,
+			double[] strikeOut, double[] dipOut, double[] dipAzOut, byte[] quadOut)
+	{
+		for(int k = from; k < to; k++)
+		{
+			solveTriplet(lat, lon, elev, p1[k], p2[k], p3[k], strikeOut, dipOut, dipAzOut, quadOut, k);
+		}
+	}
+
+	public void solveBatch(double[] lat, double[] lon, double[] elev, int[] p1, int[] p2, int[] p3,
+			double[] strikeOut, double[] dipOut, double[] dipAzOut, byte[] quadOut)
+	{
+		solveBatch(lat, lon, elev, p1, p2, p3, 0, p1.length, strikeOut, dipOut, dipAzOut, quadOut);
+	}
+
+	//solveTriplet for prepared points
+	public double solveTriplet(PreparedPoints p, int a, int b, int c,
+			double[] strikeOut, double[] dipOut, double[] dipAzOut, byte[] quadOut, int i)
+	{
+		if(mode == Mode.PLANE_NORMAL)
+			return solveTripletPlaneNormal(p, a, b, c, strikeOut, dipOut, dipAzOut, quadOut, i);
+
+		double hmAzimuth = 0, hlAzimuth = 0, hmDist, hlDist = 0, hmPlunge = 0, hlPlunge = 0;
+
+		int order = orderHighMediumLow(p.elev[a], p.elev[b], p.elev[c]);
+		if(order >= 0)
+		{
+			int hi = pick(HIGH[order], a, b, c);
+			int md = pick(MEDIUM[order], a, b, c);
+			int lo = pick(LOW[order], a, b, c);
+
+			hmAzimuth = calcBearing(p, hi, md);
+			hlAzimuth = calcBearing(p, hi, lo);
+
+			hmDist = calcDistance(p, hi, md);
+			hlDist = calcDistance(p, hi, lo);
+
+			hmPlunge = calcPlunge(p.elev[hi], p.elev[md], hmDist);
+			hlPlunge = calcPlunge(p.elev[hi], p.elev[lo], hlDist);
+		}
+
+		calcStrikeDip(hmAzimuth, hlAzimuth, hmPlunge, hlPlunge, strikeOut, dipOut, dipAzOut, quadOut, i);
+
+		return hlDist;
+	}
+
+	//solveTripletPlaneNormal for prepared points, the cached cos of latitude saves the one cos call
+	public double solveTripletPlaneNormal(PreparedPoints p, int a, int b, int c,
+			double[] strikeOut, double[] dipOut, double[] dipAzOut, byte[] quadOut, int i)
+	{
+		double R = 6371 * 1000; // km to m
+		double mPerLat = toRadians(1) * R;
+		double mPerLon = mPerLat * p.cosLat[a];
+
+		double e1 = (p.lon[b] - p.lon[a]) * mPerLon, n1 = (p.lat[b] - p.lat[a]) * mPerLat, u1 = p.elev[b] - p.elev[a];
+		double e2 = (p.lon[c] - p.lon[a]) * mPerLon, n2 = (p.lat[c] - p.lat[a]) * mPerLat, u2 = p.elev[c] - p.elev[a];
+
+		writeNormal(n1 * u2 - u1 * n2, u1 * e2 - e1 * u2, e1 * n2 - n1 * e2, strikeOut, dipOut, dipAzOut, quadOut, i);
+
+		int order = orderHighMediumLow(p.elev[a], p.elev[b], p.elev[c]);
+		if(order < 0)
+			return 0;
+
+		double hiE = HIGH[order] == 0 ? 0 : HIGH[order] == 1 ? e1 : e2;
+		double hiN = HIGH[order] == 0 ? 0 : HIGH[order] == 1 ? n1 : n2;
+		double loE = LOW[order] == 0 ? 0 : LOW[order] == 1 ? e1 : e2;
+		double loN = LOW[order] == 0 ? 0 : LOW[order] == 1 ? n1 : n2;
+
+		return Math.sqrt((hiE - loE) * (hiE - loE) + (hiN - loN) * (hiN - loN));
+	}
+
+	//Batch solver for prepared points, triplet k is p1[k], p2[k], p3[k] like the other solveBatch
+	public void solveBatch(PreparedPoints p, int[] p1, int[] p2, int[] p3, int from, int to,
+			double[] strikeOut, double[] dipOut, double[] dipAzOut, byte[] quadOut)
+	{
+		for(int k = from; k < to; k++)
+		{
+			solveTriplet(p, p1[k], p2[k], p3[k], strikeOut, dipOut, dipAzOut, quadOut, k);
+		}
+	}
+
+	public void solveBatch(PreparedPoints p, int[] p1, int[] p2, int[] p3,
+			double[] strikeOut, double[] dipOut, double[] dipAzOut, byte[] quadOut)
+	{
+		solveBatch(p, p1, p2, p3, 0, p1.length, strikeOut, dipOut, dipAzOut, quadOut);
+	}
+
+	private static int pick(int which, int a, int b, int c)
+	{
+		return which == 0 ? a : which == 1 ? b : c;
 	}
 	 
 
@@ -0,0 +1,149 @@
+package worldwind3pp;
+
+import gov.nasa.worldwind.WorldWind;
+import gov.nasa.worldwind.geom.Angle;
+import gov.nasa.worldwind.geom.LatLon;
+import gov.nasa.worldwind.geom.Position;
+import gov.nasa.worldwind.geom.Sector;
+import gov.nasa.worldwind.layers.RenderableLayer;
+import gov.nasa.worldwind.render.BasicShapeAttributes;
+import gov.nasa.worldwind.render.DrawContext;
+import gov.nasa.worldwind.render.Material;
+import gov.nasa.worldwind.render.PointPlacemark;
+import gov.nasa.worldwind.render.PointPlacemarkAttributes;
+import gov.nasa.worldwind.render.Renderable;
+import gov.nasa.worldwind.render.SurfacePolyline;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.WeakHashMap;
+
+/**
+ * Draws the solutions in a SolutionIndex clustered when the view is zoomed out.
+ * The cell level follows the eye altitude so there are only ever a few dozen cells across the screen, and each
+ * visible cell is drawn as one strike line with a dip tick for the mean orientation of the planes in it plus a
+ * "dip/dipAz (count)" label. Only the cells in the visible sector are looked at.
+ *
+ * This layer is only active above DETAIL_ALTITUDE, the full models and their labels are in the SymbolLayers
+ * which are only active below it.
+ *
+ */
+public class ClusterLayer extends RenderableLayer {
+
+	// below this eye altitude in metres the individual symbols are drawn instead
+	public static final double DETAIL_ALTITUDE = 20000;
+
+	// cells are about this fraction of the eye altitude across
+	private static final double CELL_FRACTION = 1 / 8.0;
+
+	private final SolutionIndex index;
+
+	// symbols already made for a cell, dropped with the cell once it is emptied and collected
+	private final WeakHashMap<SolutionIndex.Cell, ClusterSymbol> symbols = new WeakHashMap<SolutionIndex.Cell, ClusterSymbol>();
+
+	private final ArrayList<SolutionIndex.Cell> cells = new ArrayList<SolutionIndex.Cell>();
+	private final ArrayList<Renderable> active = new ArrayList<Renderable>();
+	private long frame = -1;
+
+	private final BasicShapeAttributes lineAttributes = new BasicShapeAttributes();
+	private final PointPlacemarkAttributes labelAttributes = new PointPlacemarkAttributes();
+
+	public ClusterLayer(SolutionIndex index)
+	{
+		this.index = index;
+		this.setName("3PP Clusters");
+		this.setMinActiveAltitude(DETAIL_ALTITUDE);
+		this.setPickEnabled(false);
+
+		lineAttributes.setOutlineMaterial(Material.YELLOW);
+		lineAttributes.setOutlineWidth(2);
+
+		labelAttributes.setUsePointAsDefaultImage(true);
+		labelAttributes.setScale(5d);
+		labelAttributes.setLineMaterial(Material.YELLOW);
+		labelAttributes.setLabelScale(0.8);
+	}
+
+	@Override
+	protected void doPreRender(DrawContext dc)
+	{
+		// the visible cells are worked out once a frame, pre-render is the first pass that sees the view
+		if(dc.getFrameTimeStamp() != frame)
+		{
+			frame = dc.getFrameTimeStamp();
+			update(dc);
+		}
+		super.doPreRender(dc);
+	}
+
+	private void update(DrawContext dc)
+	{
+		active.clear();
+		cells.clear();
+
+		if(index.size() == 0)
+			return;
+
+		double altitude = dc.getView().getEyePosition().getElevation();
+		int level = SolutionIndex.levelForCellSize(altitude * CELL_FRACTION);
+
+		Sector visible = dc.getVisibleSector();
+		if(visible == null)
+			visible = Sector.FULL_SPHERE;
+
+		index.query(level, visible.getMinLatitude().degrees, visible.getMaxLatitude().degrees,
+				visible.getMinLongitude().degrees, visible.getMaxLongitude().degrees, cells);
+
+		for(SolutionIndex.Cell cell : cells)
+		{
+			ClusterSymbol symbol = symbols.get(cell);
+			if(symbol == null || symbol.version != cell.getVersion())
+			{
+				symbol = new ClusterSymbol(cell);
+				symbols.put(cell, symbol);
+			}
+
+			active.add(symbol.line);
+			active.add(symbol.label);
+		}
+	}
+
+	@Override
+	protected Iterable<Renderable> getActiveRenderables()
+	{
+		return active;
+	}
+
+	/**
+	 * The strike line and label for one cell as it was at one version.
+	 */
+	private class ClusterSymbol {
+
+		final int version;
+		final SurfacePolyline line;
+		final PointPlacemark label;
+
+		ClusterSymbol(SolutionIndex.Cell cell)
+		{
+			version = cell.getVersion();
+
+			StrikeDipQuad mean = cell.mean();
+			LatLon centre = LatLon.fromDegrees(cell.getCentroidLatitude(), cell.getCentroidLongitude());
+
+			// strike line across a third of the cell with a short tick toward the dip direction from its middle
+			Angle half = Angle.fromDegrees(cell.getSize() / 6);
+			Angle tick = Angle.fromDegrees(cell.getSize() / 15);
+			LatLon a = LatLon.greatCircleEndPosition(centre, Angle.fromDegrees(mean.getStrike()), half);
+			LatLon b = LatLon.greatCircleEndPosition(centre, Angle.fromDegrees(mean.getStrike() + 180), half);
+			LatLon t = LatLon.greatCircleEndPosition(centre, Angle.fromDegrees(mean.getDipAzimuth()), tick);
+
+			line = new SurfacePolyline(lineAttributes, Arrays.asList(a, centre, t, centre, b));
+
+			label = new PointPlacemark(new Position(centre, 0));
+			label.setAltitudeMode(WorldWind.CLAMP_TO_GROUND);
+			label.setAttributes(labelAttributes);
+			label.setLabelText(Math.round(mean.getDip()) + "/" + Math.round(mean.getDipAzimuth()) + " (" + cell.getCount() + ")");
+		}
+	}
+
+}
@@ -0,0 +1,470 @@
+package worldwind3pp;
+
+import java.util.Arrays;
+
+/**
+ * Strike/dip profile along a traced contact line.
+ * The trace is resampled every few metres against the terrain and a window of N samples is slid along it,
+ * each window is either solved as a three point problem (first, middle and last sample) or as a best-fit plane
+ * through all N samples. One strike/dip comes out per window, located at the window's middle sample.
+ * The samples along one straight segment of the trace are in a line in plan, which does not define a plane,
+ * so a window only gets a solution if its points spread across the trace by at least MIN_SPREAD of how far
+ * they spread along it, in practice if it takes in a bend. The others are QUAD_ERROR in both modes.
+ *
+ * Editing the trace only resamples the segments next to the edited vertex and only re-solves the windows that
+ * overlap those samples, everything else is shifted over as it is. In best-fit mode the window slides by
+ * adding one sample to a PlaneFit and removing another so each step is constant time for any N. The sums are
+ * started over at every multiple of N samples, the same places whether the profile is solved whole or in part,
+ * so an edited profile comes out exactly as it would solved from scratch.
+ *
+ */
+public class ContactProfile {
+
+	/**
+	 * Where the resampled points get their elevation from, the globe's terrain in the GUI.
+	 */
+	public interface ElevationSource {
+		double getElevation(double lat, double lon);
+
+		//A whole resample at once, sources that can batch their lookups override this
+		default void getElevations(double[] lat, double[] lon, double[] out, int count) {
+			for(int i = 0; i < count; i++)
+				out[i] = getElevation(lat[i], lon[i]);
+		}
+	}
+
+	public enum Window { THREE_POINT, BEST_FIT }
+
+	// least spread across the trace for a window to be solved, see PlaneFit.getPlanSpread()
+	public static final double MIN_SPREAD = 0.05;
+
+	private final ElevationSource elevations;
+	private final Calculations calc;
+	private final double spacing;
+	private final int window;
+	private final Window mode;
+
+	// trace vertices and the index of the sample sitting on each one
+	private double[] vLat = new double[16], vLon = new double[16];
+	private int[] vSample = new int[16];
+	private int vertices;
+
+	// resampled points along the trace and their distance along it in metres
+	private double[] sLat = new double[64], sLon = new double[64], sElev = new double[64], sDist = new double[64];
+	private int samples;
+
+	// one result per window, window w covers samples w..w+window-1
+	private double[] strike = new double[64], dip = new double[64], dipAz = new double[64];
+	private byte[] quad = new byte[64];
+
+	private final PlaneFit fit = new PlaneFit();
+
+	// the three samples of a three point window, only to measure their spread
+	private final PlaneFit corners = new PlaneFit();
+
+	// scratch space for freshly resampled segments
+	private double[] tLat = new double[64], tLon = new double[64], tElev = new double[64], tDist = new double[64];
+
+	/**
+	 * @param spacing metres between resampled points
+	 * @param window samples per window, at least 3
+	 */
+	public ContactProfile(ElevationSource elevations, double spacing, int window, Window mode)
+	{
+		this(elevations, spacing, window, mode, new Calculations());
+	}
+
+	public ContactProfile(ElevationSource elevations, double spacing, int window, Window mode, Calculations calc)
+	{
+		if(!(spacing > 0))
+			throw new IllegalArgumentException("spacing must be positive");
+		if(window < 3)
+			throw new IllegalArgumentException("window must be at least 3 samples");
+
+		this.elevations = elevations;
+		this.spacing = spacing;
+		this.window = window;
+		this.mode = mode;
+		this.calc = calc;
+	}
+
+	//Replaces the whole trace, for a loaded line
+	public void setTrace(double[] lat, double[] lon)
+	{
+		clear();
+		ensureVertices(lat.length);
+		System.arraycopy(lat, 0, vLat, 0, lat.length);
+		System.arraycopy(lon, 0, vLon, 0, lon.length);
+		vertices = lat.length;
+
+		if(vertices > 0)
+			update(0, -1, vertices - 1, -1);
+	}
+
+	public void addVertex(double lat, double lon)
+	{
+		ensureVertices(vertices + 1);
+		vLat[vertices] = lat;
+		vLon[vertices] = lon;
+		vertices++;
+
+		// the old end sample becomes the start of the new last segment
+		int last = vertices - 1;
+		update(Math.max(last - 1, 0), last - 1, last, last - 1);
+	}
+
+	//Moves vertex k, only the segments either side of it are resampled
+	public void setVertex(int k, double lat, double lon)
+	{
+		if(k < 0 || k >= vertices)
+			throw new IndexOutOfBoundsException("vertex " + k + " of " + vertices);
+
+		vLat[k] = lat;
+		vLon[k] = lon;
+
+		int end = Math.min(k + 1, vertices - 1);
+		update(Math.max(k - 1, 0), end, end, vertices - 1);
+	}
+
+	public void removeLastVertex()
+	{
+		if(vertices == 0)
+			return;
+
+		if(vertices == 1)
+		{
+			clear();
+			return;
+		}
+
+		int oldLast = vertices - 1;
+		vertices--;
+		update(oldLast - 1, oldLast, oldLast - 1, oldLast);
+	}
+
+	public void clear()
+	{
+		vertices = 0;
+		samples = 0;
+	}
+
+	/*
+	 * Resamples the segments starting at vertex from up to vertex newEnd and splices them over the samples that
+	 * used to run from vertex from up to vertex oldEnd (-1 when there were none). Reaching the last vertex
+	 * (oldLast before the edit) means the end sample is included as well.
+	 * Then re-solves just the windows that touch the new samples.
+	 */
+	private void update(int from, int oldEnd, int newEnd, int oldLast)
+	{
+		int oldFrom = oldEnd < 0 ? 0 : vSample[from];
+		int oldTo = oldEnd < 0 ? 0 : (oldEnd == oldLast ? samples : vSample[oldEnd]);
+		int oldWindows = windows();
+
+		int count = resample(from, newEnd, oldFrom, from > 0 ? vertexDistance(from) : 0);
+
+		// splice the new samples in place of the old ones and move the rest along
+		int delta = count - (oldTo - oldFrom);
+		int tail = samples - oldTo;
+		ensureSamples(samples + delta);
+		System.arraycopy(sLat, oldTo, sLat, oldTo + delta, tail);
+		System.arraycopy(sLon, oldTo, sLon, oldTo + delta, tail);
+		System.arraycopy(sElev, oldTo, sElev, oldTo + delta, tail);
+		System.arraycopy(sDist, oldTo, sDist, oldTo + delta, tail);
+		System.arraycopy(tLat, 0, sLat, oldFrom, count);
+		System.arraycopy(tLon, 0, sLon, oldFrom, count);
+		System.arraycopy(tElev, 0, sElev, oldFrom, count);
+		System.arraycopy(tDist, 0, sDist, oldFrom, count);
+		samples += delta;
+
+		// the samples after the edit keep their positions but the distance along the trace changes
+		int newTo = oldTo + delta;
+		if(newTo < samples)
+		{
+			double shift = vertexDistance(newEnd) - sDist[newTo];
+			for(int s = newTo; s < samples; s++)
+			{
+				sDist[s] += shift;
+			}
+		}
+
+		for(int v = newEnd + 1; v < vertices; v++)
+		{
+			vSample[v] += delta;
+		}
+
+		// windows that start at or after the old tail are the same samples as before, just shifted
+		if(oldTo < oldWindows)
+		{
+			System.arraycopy(strike, oldTo, strike, newTo, oldWindows - oldTo);
+			System.arraycopy(dip, oldTo, dip, newTo, oldWindows - oldTo);
+			System.arraycopy(dipAz, oldTo, dipAz, newTo, oldWindows - oldTo);
+			System.arraycopy(quad, oldTo, quad, newTo, oldWindows - oldTo);
+		}
+
+		// and windows that end before the new samples are untouched
+		int solveTo = Math.min(newTo, windows());
+		if(mode == Window.BEST_FIT && solveTo < windows())
+		{
+			// a best-fit window's sums run from the restart before it, which the first windows after the edit
+			// slid over changed samples to get to, and every restart has moved unless the shift is whole windows
+			solveTo = delta % window == 0 ? Math.min((newTo + window - 1) / window * window, windows()) : windows();
+		}
+		solveWindows(Math.max(oldFrom - window + 1, 0), solveTo);
+	}
+
+	// distance along the trace to vertex v, from the sample on the vertex before it, which must be up to date
+	private double vertexDistance(int v)
+	{
+		return sDist[vSample[v - 1]] + calc.calcDistance(vLat[v - 1], vLon[v - 1], vLat[v], vLon[v]);
+	}
+
+	/*
+	 * Resamples segments from..end-1 into the scratch arrays, plus the end vertex itself when it is the last one.
+	 * Each segment gets its start vertex and then a point every spacing metres along it.
+	 * base is the index the first new sample will end up at.
+	 */
+	private int resample(int from, int end, int base, double startDist)
+	{
+		int count = 0;
+		double dist = startDist;
+
+		for(int v = from; v < end; v++)
+		{
+			double length = calc.calcDistance(vLat[v], vLon[v], vLat[v + 1], vLon[v + 1]);
+			int steps = Math.max((int) Math.ceil(length / spacing), 1);
+			ensureScratch(count + steps + 1);
+			vSample[v] = base + count;
+
+			for(int s = 0; s < steps; s++)
+			{
+				double f = (double) s / steps;
+				double lat = vLat[v] + f * (vLat[v + 1] - vLat[v]);
+				double lon = vLon[v] + f * (vLon[v + 1] - vLon[v]);
+				tLat[count] = lat;
+				tLon[count] = lon;
+				tDist[count] = dist + f * length;
+				count++;
+			}
+			dist += length;
+		}
+
+		// the end vertex's sample lands here whether it is resampled or is the start of an untouched segment
+		vSample[end] = base + count;
+
+		if(end == vertices - 1)
+		{
+			ensureScratch(count + 1);
+			tLat[count] = vLat[end];
+			tLon[count] = vLon[end];
+			tDist[count] = dist;
+			count++;
+		}
+
+		// one lookup for the lot so a loaded trace is a single pass over the terrain
+		elevations.getElevations(tLat, tLon, tElev, count);
+
+		return count;
+	}
+
+	// solves windows from..to-1
+	private void solveWindows(int from, int to)
+	{
+		if(mode == Window.THREE_POINT)
+		{
+			int middle = (window - 1) / 2;
+			for(int w = from; w < to; w++)
+			{
+				corners.clear();
+				corners.add(sLat[w], sLon[w], sElev[w]);
+				corners.add(sLat[w + middle], sLon[w + middle], sElev[w + middle]);
+				corners.add(sLat[w + window - 1], sLon[w + window - 1], sElev[w + window - 1]);
+
+				if(corners.getPlanSpread() >= MIN_SPREAD)
+					calc.solveTriplet(sLat, sLon, sElev, w, w + middle, w + window - 1, strike, dip, dipAz, quad, w);
+				else
+					unsolved(w);
+			}
+			return;
+		}
+
+		// the fit's origin (and its metres per degree) is its first point, it is started over every window length
+		// so the origin stays close by and the running sums do not lose precision, still constant time per step.
+		// The restarts are at multiples of the window so a partial solve slides over the same sums as a whole one
+		for(int w = from; w < to; w++)
+		{
+			if(w == from || w % window == 0)
+			{
+				int start = w - w % window;
+				fit.clear();
+				for(int s = start; s < start + window; s++)
+				{
+					fit.add(sLat[s], sLon[s], sElev[s]);
+				}
+				for(int s = start + 1; s <= w; s++)
+				{
+					slide(s);
+				}
+			}
+			else
+				slide(w);
+
+			if(fit.getPlanSpread() >= MIN_SPREAD && fit.fit())
+				fit.solve(strike, dip, dipAz, quad, w);
+			else
+				unsolved(w);
+		}
+	}
+
+	// moves the fit from window w-1 to window w
+	private void slide(int w)
+	{
+		fit.remove(sLat[w - 1], sLon[w - 1], sElev[w - 1]);
+		fit.add(sLat[w + window - 1], sLon[w + window - 1], sElev[w + window - 1]);
+	}
+
+	// a straight stretch of trace does not define a plane
+	private void unsolved(int w)
+	{
+		strike[w] = dip[w] = dipAz[w] = Double.NaN;
+		quad[w] = Calculations.QUAD_ERROR;
+	}
+
+	private void ensureVertices(int n)
+	{
+		if(n > vLat.length)
+		{
+			int capacity = Math.max(n, vLat.length * 2);
+			vLat = Arrays.copyOf(vLat, capacity);
+			vLon = Arrays.copyOf(vLon, capacity);
+			vSample = Arrays.copyOf(vSample, capacity);
+		}
+	}
+
+	private void ensureSamples(int n)
+	{
+		if(n > sLat.length)
+		{
+			int capacity = Math.max(n, sLat.length * 2);
+			sLat = Arrays.copyOf(sLat, capacity);
+			sLon = Arrays.copyOf(sLon, capacity);
+			sElev = Arrays.copyOf(sElev, capacity);
+			sDist = Arrays.copyOf(sDist, capacity);
+			strike = Arrays.copyOf(strike, capacity);
+			dip = Arrays.copyOf(dip, capacity);
+			dipAz = Arrays.copyOf(dipAz, capacity);
+			quad = Arrays.copyOf(quad, capacity);
+		}
+	}
+
+	private void ensureScratch(int n)
+	{
+		if(n > tLat.length)
+		{
+			int capacity = Math.max(n, tLat.length * 2);
+			tLat = Arrays.copyOf(tLat, capacity);
+			tLon = Arrays.copyOf(tLon, capacity);
+			tElev = Arrays.copyOf(tElev, capacity);
+			tDist = Arrays.copyOf(tDist, capacity);
+		}
+	}
+
+	public int getVertexCount() {
+		return vertices;
+	}
+
+	public int getSampleCount() {
+		return samples;
+	}
+
+	//Number of strike/dips in the profile
+	public int windows()
+	{
+		return Math.max(samples - window + 1, 0);
+	}
+
+	//Total length of the trace in metres
+	public double getLength()
+	{
+		return samples == 0 ? 0 : sDist[samples - 1];
+	}
+
+	public double getSampleLatitude(int s) {
+		return sLat[checkSample(s)];
+	}
+
+	public double getSampleLongitude(int s) {
+		return sLon[checkSample(s)];
+	}
+
+	public double getSampleElevation(int s) {
+		return sElev[checkSample(s)];
+	}
+
+	//Where window w sits, the distance along the trace of its middle sample in metres
+	public double getDistance(int w) {
+		return sDist[checkWindow(w) + (window - 1) / 2];
+	}
+
+	public double getLatitude(int w) {
+		return sLat[checkWindow(w) + (window - 1) / 2];
+	}
+
+	public double getLongitude(int w) {
+		return sLon[checkWindow(w) + (window - 1) / 2];
+	}
+
+	public double getStrike(int w) {
+		return strike[checkWindow(w)];
+	}
+
+	public double getDip(int w) {
+		return dip[checkWindow(w)];
+	}
+
+	public double getDipAzimuth(int w) {
+		return dipAz[checkWindow(w)];
+	}
+
+	public byte getQuadCode(int w) {
+		return quad[checkWindow(w)];
+	}
+
+	public String getQuad(int w) {
+		return Calculations.quadName(getQuadCode(w));
+	}
+
+	//The whole profile packed, see PackedResults
+	public PackedResults toPackedResults()
+	{
+		PackedResults results = new PackedResults(windows());
+		results.addAll(strike, dip, dipAz, quad, 0, windows());
+		return results;
+	}
+
+	public double getSpacing() {
+		return spacing;
+	}
+
+	public int getWindow() {
+		return window;
+	}
+
+	public Window getMode() {
+		return mode;
+	}
+
+	private int checkSample(int s)
+	{
+		if(s < 0 || s >= samples)
+			throw new IndexOutOfBoundsException("sample " + s + " of " + samples);
+		return s;
+	}
+
+	private int checkWindow(int w)
+	{
+		if(w < 0 || w >= windows())
+			throw new IndexOutOfBoundsException("window " + w + " of " + windows());
+		return w;
+	}
+
+}
@@ -0,0 +1,491 @@
+package worldwind3pp;
+
+import java.util.Arrays;
+
+/**
+ * Delaunay triangulation of a point cloud using a sweep hull.
+ * The points are sorted by distance from a small seed triangle and added one at a time outside the
+ * growing convex hull, then edges are flipped until every triangle is Delaunay again. A hash on the
+ * angle around the seed finds the visible part of the hull quickly, so the whole thing is
+ * O(n log n) and a million points take a couple of seconds.
+ *
+ * Triangles come out counter clockwise as three point indices each in getTriangles().
+ * Duplicate points are skipped and a cloud that is all in a line has no triangles.
+ *
+ */
+public class Delaunay {
+
+	private final double[] x, y;
+
+	// triangle t is triangles[3t..3t+2], halfedge e goes from point triangles[e] to the next point in its triangle
+	private int[] triangles;
+	// the halfedge going the other way in the neighbouring triangle, -1 on the hull
+	private int[] halfedges;
+	private int triangleCount;
+
+	// convex hull as a circular linked list of points, hullTri[p] is the halfedge from p to hullNext[p]
+	private final int[] hullNext, hullPrev, hullTri;
+	private final int[] hullHash;
+	private final int hashSize;
+	private double cx, cy;
+
+	private int[] stack = new int[64];
+
+	public Delaunay(double[] x, double[] y)
+	{
+		if(x.length != y.length)
+			throw new IllegalArgumentException("x and y must be the same length");
+
+		this.x = x;
+		this.y = y;
+
+		int n = x.length;
+		int maxTriangles = Math.max(2 * n - 5, 0);
+		triangles = new int[maxTriangles * 3];
+		halfedges = new int[maxTriangles * 3];
+
+		hullNext = new int[n];
+		hullPrev = new int[n];
+		hullTri = new int[n];
+		hashSize = (int) Math.ceil(Math.sqrt(n));
+		hullHash = new int[Math.max(hashSize, 1)];
+
+		triangulate();
+	}
+
+	//Triangulates lat/lon points on a local east/north grid in metres around their mean
+	public static Delaunay fromLatLon(double[] lat, double[] lon)
+	{
+		double lat0 = 0, lon0 = 0;
+		for(int i = 0; i < lat.length; i++)
+		{
+			lat0 += lat[i];
+			lon0 += lon[i];
+		}
+		lat0 /= Math.max(lat.length, 1);
+		lon0 /= Math.max(lat.length, 1);
+
+		double R = 6371 * 1000; // km to m
+		double mPerLat = Math.toRadians(1) * R;
+		double mPerLon = mPerLat * Math.cos(Math.toRadians(lat0));
+
+		double[] x = new double[lat.length];
+		double[] y = new double[lat.length];
+		for(int i = 0; i < lat.length; i++)
+		{
+			x[i] = (lon[i] - lon0) * mPerLon;
+			y[i] = (lat[i] - lat0) * mPerLat;
+		}
+
+		return new Delaunay(x, y);
+	}
+
+	public int getTriangleCount()
+	{
+		return triangleCount;
+	}
+
+	//Three point indices per triangle, counter clockwise
+	public int[] getTriangles()
+	{
+		return Arrays.copyOf(triangles, triangleCount * 3);
+	}
+
+	//The triangles split into the three index arrays the batch solvers take
+	public int[][] getTriplets()
+	{
+		int[] p1 = new int[triangleCount], p2 = new int[triangleCount], p3 = new int[triangleCount];
+		for(int t = 0; t < triangleCount; t++)
+		{
+			p1[t] = triangles[3 * t];
+			p2[t] = triangles[3 * t + 1];
+			p3[t] = triangles[3 * t + 2];
+		}
+		return new int[][] { p1, p2, p3 };
+	}
+
+	private void triangulate()
+	{
+		int n = x.length;
+		if(n < 3)
+			return;
+
+		double minX = Double.POSITIVE_INFINITY, minY = Double.POSITIVE_INFINITY;
+		double maxX = Double.NEGATIVE_INFINITY, maxY = Double.NEGATIVE_INFINITY;
+		for(int i = 0; i < n; i++)
+		{
+			minX = Math.min(minX, x[i]);
+			minY = Math.min(minY, y[i]);
+			maxX = Math.max(maxX, x[i]);
+			maxY = Math.max(maxY, y[i]);
+		}
+		double midX = (minX + maxX) / 2, midY = (minY + maxY) / 2;
+
+		// seed triangle: the point nearest the middle, its nearest neighbour,
+		// and the point that makes the smallest circumcircle with them
+		int i0 = 0, i1 = -1, i2 = -1;
+		double best = Double.POSITIVE_INFINITY;
+		for(int i = 0; i < n; i++)
+		{
+			double d = dist(midX, midY, x[i], y[i]);
+			if(d < best)
+			{
+				i0 = i;
+				best = d;
+			}
+		}
+
+		best = Double.POSITIVE_INFINITY;
+		for(int i = 0; i < n; i++)
+		{
+			double d = dist(x[i0], y[i0], x[i], y[i]);
+			if(i != i0 && d > 0 && d < best)
+			{
+				i1 = i;
+				best = d;
+			}
+		}
+		if(i1 < 0)
+			return;// every point is the same
+
+		best = Double.POSITIVE_INFINITY;
+		for(int i = 0; i < n; i++)
+		{
+			if(i == i0 || i == i1)
+				continue;
+			double r = circumradius(x[i0], y[i0], x[i1], y[i1], x[i], y[i]);
+			if(r < best)
+			{
+				i2 = i;
+				best = r;
+			}
+		}
+		if(i2 < 0 || best == Double.POSITIVE_INFINITY)
+			return;// all in a line
+
+		if(orient(i0, i1, i2) < 0)
+		{
+			int t = i1;
+			i1 = i2;
+			i2 = t;
+		}
+
+		double[] center = circumcenter(x[i0], y[i0], x[i1], y[i1], x[i2], y[i2]);
+		cx = center[0];
+		cy = center[1];
+
+		// add the rest in order of distance from the seed circumcentre
+		int[] ids = new int[n];
+		double[] dists = new double[n];
+		for(int i = 0; i < n; i++)
+		{
+			ids[i] = i;
+			dists[i] = dist(x[i], y[i], cx, cy);
+		}
+		quicksort(ids, dists, 0, n - 1);
+
+		Arrays.fill(hullHash, -1);
+		hullNext[i0] = hullPrev[i2] = i1;
+		hullNext[i1] = hullPrev[i0] = i2;
+		hullNext[i2] = hullPrev[i1] = i0;
+		hullTri[i0] = 0;
+		hullTri[i1] = 1;
+		hullTri[i2] = 2;
+		hullHash[hashKey(x[i0], y[i0])] = i0;
+		hullHash[hashKey(x[i1], y[i1])] = i1;
+		hullHash[hashKey(x[i2], y[i2])] = i2;
+
+		addTriangle(i0, i1, i2, -1, -1, -1);
+
+		double xp = Double.NaN, yp = Double.NaN;
+		for(int k = 0; k < n; k++)
+		{
+			int i = ids[k];
+			double px = x[i], py = y[i];
+
+			// skip duplicates of the last point and the seed
+			if(px == xp && py == yp)
+				continue;
+			xp = px;
+			yp = py;
+			if(i == i0 || i == i1 || i == i2)
+				continue;
+
+			// find a hull point close to this angle, then back up to the start of the visible edges
+			int start = 0;
+			int key = hashKey(px, py);
+			for(int j = 0; j < hashSize; j++)
+			{
+				start = hullHash[(key + j) % hashSize];
+				if(start != -1 && start != hullNext[start])
+					break;
+			}
+
+			start = hullPrev[start];
+			int e = start, q;
+			while(orient(e, q = hullNext[e], i) >= 0)
+			{
+				e = q;
+				if(e == start)
+				{
+					e = -1;
+					break;
+				}
+			}
+			if(e == -1)
+				continue;// inside the hull, only happens with near duplicates
+
+			// triangle on the first visible edge
+			int t = addTriangle(e, i, hullNext[e], -1, -1, hullTri[e]);
+			hullTri[i] = t + 1;
+			hullTri[e] = t;
+			legalize(t + 2);
+
+			// walk forward along the hull adding triangles while the edges are visible
+			int next = hullNext[e];
+			while(orient(next, q = hullNext[next], i) < 0)
+			{
+				t = addTriangle(next, i, q, hullTri[i], -1, hullTri[next]);
+				hullTri[i] = t + 1;
+				legalize(t + 2);
+				hullNext[next] = next;// no longer on the hull
+				next = q;
+			}
+
+			// and backwards
+			if(e == start)
+			{
+				while(orient(q = hullPrev[e], e, i) < 0)
+				{
+					t = addTriangle(q, i, e, -1, hullTri[e], hullTri[q]);
+					hullTri[q] = t;
+					legalize(t + 2);
+					hullNext[e] = e;
+					e = q;
+				}
+			}
+
+			hullPrev[i] = e;
+			hullNext[e] = i;
+			hullPrev[next] = i;
+			hullNext[i] = next;
+
+			hullHash[hashKey(px, py)] = i;
+			hullHash[hashKey(x[e], y[e])] = e;
+		}
+	}
+
+	// flips edges from the new point outwards until every triangle is Delaunay.
+	// a is a halfedge whose triangle has the new point opposite it
+	private void legalize(int a)
+	{
+		int top = 0;
+		stack[top++] = a;
+
+		while(top > 0)
+		{
+			a = stack[--top];
+			int b = halfedges[a];
+			if(b == -1)
+				continue;
+
+			int a0 = a, a1 = next(a), a2 = prev(a);
+			int b0 = b, b1 = next(b), b2 = prev(b);
+
+			int p0 = triangles[a0];
+			int p1 = triangles[a1];
+			int pl = triangles[a2];
+			int pr = triangles[b2];
+
+			if(!inCircle(p0, p1, pl, pr))
+				continue;
+
+			// flip p0-p1 over to pl-pr: (p0, p1, pl) + (p1, p0, pr) becomes (p0, pr, pl) + (p1, pl, pr)
+			int ha1 = halfedges[a1];
+			int hb1 = halfedges[b1];
+
+			triangles[a1] = pr;
+			triangles[b1] = pl;
+
+			link(a0, hb1);
+			link(b0, ha1);
+			link(a1, b1);
+
+			// the hull edges keep their points but may have moved to another halfedge
+			if(hb1 == -1)
+				hullTri[p0] = a0;
+			if(ha1 == -1)
+				hullTri[p1] = b0;
+
+			if(top + 2 > stack.length)
+				stack = Arrays.copyOf(stack, stack.length * 2);
+			stack[top++] = a0;
+			stack[top++] = b2;
+		}
+	}
+
+	private int addTriangle(int i0, int i1, int i2, int a, int b, int c)
+	{
+		int t = triangleCount * 3;
+
+		triangles[t] = i0;
+		triangles[t + 1] = i1;
+		triangles[t + 2] = i2;
+
+		link(t, a);
+		link(t + 1, b);
+		link(t + 2, c);
+
+		triangleCount++;
+		return t;
+	}
+
+	private void link(int a, int b)
+	{
+		halfedges[a] = b;
+		if(b != -1)
+			halfedges[b] = a;
+	}
+
+	private static int next(int e)
+	{
+		return e % 3 == 2 ? e - 2 : e + 1;
+	}
+
+	private static int prev(int e)
+	{
+		return e % 3 == 0 ? e + 2 : e - 1;
+	}
+
+	// positive when a, b, c are counter clockwise
+	private double orient(int a, int b, int c)
+	{
+		return (x[b] - x[a]) * (y[c] - y[a]) - (y[b] - y[a]) * (x[c] - x[a]);
+	}
+
+	// true when d is inside the circumcircle of the counter clockwise triangle a, b, c
+	private boolean inCircle(int a, int b, int c, int d)
+	{
+		double adx = x[a] - x[d], ady = y[a] - y[d];
+		double bdx = x[b] - x[d], bdy = y[b] - y[d];
+		double cdx = x[c] - x[d], cdy = y[c] - y[d];
+
+		double ad = adx * adx + ady * ady;
+		double bd = bdx * bdx + bdy * bdy;
+		double cd = cdx * cdx + cdy * cdy;
+
+		return ad * (bdx * cdy - cdx * bdy) - bd * (adx * cdy - cdx * ady) + cd * (adx * bdy - bdx * ady) > 0;
+	}
+
+	// monotonic stand in for the angle around the seed centre, 0..1
+	private int hashKey(double px, double py)
+	{
+		double dx = px - cx, dy = py - cy;
+		double p = dx / (Math.abs(dx) + Math.abs(dy));
+		double angle = (dy > 0 ? 3 - p : 1 + p) / 4;
+		if(Double.isNaN(angle))
+			angle = 0;
+		return (int) Math.floor(angle * hashSize) % hashSize;
+	}
+
+	private static double dist(double ax, double ay, double bx, double by)
+	{
+		double dx = ax - bx, dy = ay - by;
+		return dx * dx + dy * dy;
+	}
+
+	// squared circumradius, infinite when the points are in a line
+	private static double circumradius(double ax, double ay, double bx, double by, double cx, double cy)
+	{
+		double dx = bx - ax, dy = by - ay;
+		double ex = cx - ax, ey = cy - ay;
+
+		double bl = dx * dx + dy * dy;
+		double cl = ex * ex + ey * ey;
+		double d = dx * ey - dy * ex;
+		if(d == 0)
+			return Double.POSITIVE_INFINITY;
+		d = 0.5 / d;
+
+		double rx = (ey * bl - dy * cl) * d;
+		double ry = (dx * cl - ex * bl) * d;
+
+		double r = rx * rx + ry * ry;
+		return Double.isNaN(r) ? Double.POSITIVE_INFINITY : r;
+	}
+
+	private static double[] circumcenter(double ax, double ay, double bx, double by, double cx, double cy)
+	{
+		double dx = bx - ax, dy = by - ay;
+		double ex = cx - ax, ey = cy - ay;
+
+		double bl = dx * dx + dy * dy;
+		double cl = ex * ex + ey * ey;
+		double d = 0.5 / (dx * ey - dy * ex);
+
+		return new double[] { ax + (ey * bl - dy * cl) * d, ay + (dx * cl - ex * bl) * d };
+	}
+
+	// sorts ids by dists, both arrays are reordered together
+	private static void quicksort(int[] ids, double[] dists, int left, int right)
+	{
+		while(right - left > 20)
+		{
+			int median = (left + right) >>> 1;
+			int i = left + 1;
+			int j = right;
+			swap(ids, dists, median, i);
+			if(dists[left] > dists[right]) swap(ids, dists, left, right);
+			if(dists[i] > dists[right]) swap(ids, dists, i, right);
+			if(dists[left] > dists[i]) swap(ids, dists, left, i);
+
+			double pivot = dists[i];
+			while(true)
+			{
+				do i++; while(dists[i] < pivot);
+				do j--; while(dists[j] > pivot);
+				if(j < i) break;
+				swap(ids, dists, i, j);
+			}
+			swap(ids, dists, left + 1, j);
+
+			// recurse into the smaller side, loop on the bigger one
+			if(j - left < right - j)
+			{
+				quicksort(ids, dists, left, j - 1);
+				left = j + 1;
+			}
+			else
+			{
+				quicksort(ids, dists, j + 1, right);
+				right = j - 1;
+			}
+		}
+
+		for(int i = left + 1; i <= right; i++)
+		{
+			int id = ids[i];
+			double d = dists[i];
+			int j = i - 1;
+			while(j >= left && dists[j] > d)
+			{
+				ids[j + 1] = ids[j];
+				dists[j + 1] = dists[j];
+				j--;
+			}
+			ids[j + 1] = id;
+			dists[j + 1] = d;
+		}
+	}
+
+	private static void swap(int[] ids, double[] dists, int i, int j)
+	{
+		int id = ids[i];
+		ids[i] = ids[j];
+		ids[j] = id;
+		double d = dists[i];
+		dists[i] = dists[j];
+		dists[j] = d;
+	}
+
+}
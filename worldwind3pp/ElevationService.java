@@ -0,0 +1,289 @@
+package worldwind3pp;
+
+import gov.nasa.worldwind.geom.Angle;
+import gov.nasa.worldwind.geom.LatLon;
+import gov.nasa.worldwind.geom.Sector;
+import gov.nasa.worldwind.globes.ElevationModel;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Elevations for picks from the elevation model itself instead of the terrain that happened to be drawn.
+ * wwd.getCurrentPosition().elevation is only as good as the tiles loaded for the current zoom, zoomed out
+ * it can be off by tens of metres and that goes straight into the plunge of every pair.
+ *
+ * Queries go through small grids of posts at the model's best resolution. A grid is fetched once with a
+ * single call for all the points that need it and kept in an LRU cache, and a point is bilinear between its
+ * grid's posts the same way World Wind interpolates its own tiles. A batch of points asks the model once for
+ * every grid it is missing, so an imported line or a whole file of picks is one pass.
+ *
+ * With wait the missing grids are composed at the best resolution even if the model has to fetch tiles,
+ * only do that off the event thread. Without it the model gives what it has in memory now, and grids
+ * that are not at the best resolution yet are not cached so they are asked for again next time.
+ * A point the model has nothing for at all keeps whatever value was already in the output array.
+ *
+ */
+public class ElevationService implements ContactProfile.ElevationSource {
+
+	// posts across a grid, and how many grids are kept
+	private static final int POSTS = 32;
+	private static final int MAX_GRIDS = 256;
+
+	private final ElevationModel model;
+
+	private final LinkedHashMap<GridKey, Grid> cache = new LinkedHashMap<GridKey, Grid>(64, 0.75f, true) {
+		private static final long serialVersionUID = 1L;
+
+		protected boolean removeEldestEntry(Map.Entry<GridKey, Grid> eldest) {
+			return size() > MAX_GRIDS;
+		}
+	};
+
+	private long hits, misses;
+
+	public ElevationService(ElevationModel model)
+	{
+		this.model = model;
+	}
+
+	//Single point, without waiting, for ContactProfile
+	public double getElevation(double lat, double lon)
+	{
+		double[] out = new double[1];
+		getElevations(new double[] { lat }, new double[] { lon }, out, 1);
+		return out[0];
+	}
+
+	//Without waiting, for ContactProfile. Points the model has nothing for get its missing data value.
+	public void getElevations(double[] lat, double[] lon, double[] out, int count)
+	{
+		Arrays.fill(out, 0, count, Double.NaN);
+		getElevations(lat, lon, out, count, false);
+
+		for(int i = 0; i < count; i++)
+		{
+			if(Double.isNaN(out[i]))
+				out[i] = model.getElevation(Angle.fromDegrees(lat[i]), Angle.fromDegrees(lon[i]));
+		}
+	}
+
+	/**
+	 * Fills out[0..count-1] with the elevations at the points.
+	 * @param wait compose missing grids at the best resolution even if tiles have to be fetched, never on the event thread
+	 */
+	public void getElevations(double[] lat, double[] lon, double[] out, int count, boolean wait)
+	{
+		if(count == 0)
+			return;
+
+		double minLat = lat[0], maxLat = lat[0], minLon = lon[0], maxLon = lon[0];
+		for(int i = 1; i < count; i++)
+		{
+			minLat = Math.min(minLat, lat[i]);
+			maxLat = Math.max(maxLat, lat[i]);
+			minLon = Math.min(minLon, lon[i]);
+			maxLon = Math.max(maxLon, lon[i]);
+		}
+
+		// post spacing is the best resolution rounded down to a power of two degrees so the grids line up
+		double best = Math.toDegrees(model.getBestResolution(Sector.fromDegrees(minLat, maxLat, minLon, maxLon)));
+		int k = (int) Math.floor(Math.log(best) / Math.log(2));
+		double spacing = Math.pow(2, k);
+
+		// the grids this batch needs, from the cache or to be fetched
+		GridKey[] keys = new GridKey[count];
+		HashMap<GridKey, Grid> grids = new HashMap<GridKey, Grid>();
+		ArrayList<GridKey> missing = new ArrayList<GridKey>();
+
+		synchronized(cache)
+		{
+			for(int i = 0; i < count; i++)
+			{
+				keys[i] = new GridKey(k, (long) Math.floor((lon[i] + 180) / (spacing * POSTS)), (long) Math.floor((lat[i] + 90) / (spacing * POSTS)));
+				if(grids.containsKey(keys[i]))
+					continue;
+
+				Grid grid = cache.get(keys[i]);
+				if(grid != null)
+				{
+					hits++;
+					grids.put(keys[i], grid);
+				}
+				else
+				{
+					misses++;
+					grids.put(keys[i], null);
+					missing.add(keys[i]);
+				}
+			}
+		}
+
+		// the model is asked once for everything missing, the lock is not held while it works
+		if(!missing.isEmpty())
+		{
+			fetch(missing, spacing, Math.toRadians(best), wait, grids);
+		}
+
+		for(int i = 0; i < count; i++)
+		{
+			Grid grid = grids.get(keys[i]);
+			if(grid != null && grid.resolved)
+				out[i] = grid.interpolate(lat[i], lon[i]);
+		}
+	}
+
+	private void fetch(ArrayList<GridKey> missing, double spacing, double target, boolean wait, HashMap<GridKey, Grid> grids)
+	{
+		int posts = (POSTS + 1) * (POSTS + 1);
+		ArrayList<LatLon> locations = new ArrayList<LatLon>(missing.size() * posts);
+		double minLat = 90, maxLat = -90, minLon = 180, maxLon = -180;
+
+		for(GridKey key : missing)
+		{
+			double lat0 = key.y * spacing * POSTS - 90, lon0 = key.x * spacing * POSTS - 180;
+			for(int r = 0; r <= POSTS; r++)
+			{
+				for(int c = 0; c <= POSTS; c++)
+				{
+					locations.add(LatLon.fromDegrees(Math.min(90, lat0 + r * spacing), Math.min(180, lon0 + c * spacing)));
+				}
+			}
+			minLat = Math.min(minLat, lat0);
+			maxLat = Math.max(maxLat, Math.min(90, lat0 + POSTS * spacing));
+			minLon = Math.min(minLon, lon0);
+			maxLon = Math.max(maxLon, Math.min(180, lon0 + POSTS * spacing));
+		}
+
+		Sector sector = Sector.fromDegrees(minLat, maxLat, minLon, maxLon);
+		double[] buffer = new double[locations.size()];
+		double achieved = Double.MAX_VALUE;
+
+		if(wait)
+		{
+			try {
+				// sized so the model picks the level whose posts are the grid's spacing, its best
+				model.composeElevations(sector, locations, (int) Math.ceil(sector.getDeltaLonDegrees() / spacing) + 1, buffer);
+				achieved = target;
+			}
+			catch(Exception e) {
+				System.err.println("Could not compose elevations, using what is loaded: " + e);
+			}
+		}
+		if(achieved == Double.MAX_VALUE)
+			achieved = model.getElevations(sector, locations, target, buffer);
+
+		// a little slack, the models report their resolution from their own level math
+		boolean resolved = achieved != Double.MAX_VALUE;
+		boolean best = resolved && achieved <= target * 1.01;
+
+		for(int g = 0; g < missing.size(); g++)
+		{
+			GridKey key = missing.get(g);
+			double[] values = new double[posts];
+			System.arraycopy(buffer, g * posts, values, 0, posts);
+			Grid grid = new Grid(key, spacing, values, resolved);
+			grids.put(key, grid);
+
+			if(best)
+			{
+				synchronized(cache)
+				{
+					cache.put(key, grid);
+				}
+			}
+		}
+	}
+
+	public void clear()
+	{
+		synchronized(cache)
+		{
+			cache.clear();
+		}
+	}
+
+	public int getCachedGrids()
+	{
+		synchronized(cache)
+		{
+			return cache.size();
+		}
+	}
+
+	//Fraction of grid lookups that were already cached
+	public double getHitRate()
+	{
+		synchronized(cache)
+		{
+			return hits + misses == 0 ? 0 : (double) hits / (hits + misses);
+		}
+	}
+
+	public ElevationModel getModel() {
+		return model;
+	}
+
+	private static class GridKey {
+
+		final int k;
+		final long x, y;
+
+		GridKey(int k, long x, long y)
+		{
+			this.k = k;
+			this.x = x;
+			this.y = y;
+		}
+
+		public boolean equals(Object o)
+		{
+			if(!(o instanceof GridKey))
+				return false;
+			GridKey g = (GridKey) o;
+			return g.k == k && g.x == x && g.y == y;
+		}
+
+		public int hashCode()
+		{
+			return (int) (31 * (31 * k + (x ^ (x >>> 32))) + (y ^ (y >>> 32)));
+		}
+	}
+
+	/**
+	 * (POSTS+1)^2 elevations, row by row from the south west corner.
+	 */
+	private static class Grid {
+
+		final double lat0, lon0, spacing;
+		final double[] posts;
+		final boolean resolved;
+
+		Grid(GridKey key, double spacing, double[] posts, boolean resolved)
+		{
+			this.lat0 = key.y * spacing * POSTS - 90;
+			this.lon0 = key.x * spacing * POSTS - 180;
+			this.spacing = spacing;
+			this.posts = posts;
+			this.resolved = resolved;
+		}
+
+		double interpolate(double lat, double lon)
+		{
+			double fy = (lat - lat0) / spacing, fx = (lon - lon0) / spacing;
+			int r = Math.max(0, Math.min(POSTS - 1, (int) Math.floor(fy)));
+			int c = Math.max(0, Math.min(POSTS - 1, (int) Math.floor(fx)));
+			fy -= r;
+			fx -= c;
+
+			int sw = r * (POSTS + 1) + c;
+			double south = posts[sw] + fx * (posts[sw + 1] - posts[sw]);
+			double north = posts[sw + POSTS + 1] + fx * (posts[sw + POSTS + 2] - posts[sw + POSTS + 1]);
+			return south + fy * (north - south);
+		}
+	}
+
+}
@@ -7,36 +7,37 @@ package worldwind3pp;
 
 import gov.nasa.worldwind.WorldWind;
 import gov.nasa.worldwind.WorldWindow;
-import gov.nasa.worldwind.geom.Angle;
+import gov.nasa.worldwind.event.PositionEvent;
+import gov.nasa.worldwind.event.PositionListener;
 import gov.nasa.worldwind.geom.Position;
 import gov.nasa.worldwind.geom.Vec4;
 import gov.nasa.worldwind.layers.RenderableLayer;
-import gov.nasa.worldwind.ogc.collada.ColladaRoot;
-import gov.nasa.worldwind.ogc.collada.impl.ColladaController;
 import gov.nasa.worldwind.render.PointPlacemark;
 import gov.nasa.worldwind.render.Polyline;
 import gov.nasa.worldwind.util.Logging;
 
+import java.awt.Point;
 import java.awt.event.MouseAdapter;
 import java.awt.event.MouseEvent;
-import java.io.BufferedWriter;
-import java.io.FileOutputStream;
+import java.awt.event.MouseMotionAdapter;
+import java.beans.PropertyChangeListener;
+import java.beans.PropertyChangeSupport;
+import java.io.File;
 import java.io.IOException;
-import java.io.OutputStreamWriter;
-import java.io.StringReader;
-import java.io.StringWriter;
-import java.io.Writer;
 import java.util.ArrayList;
-import java.util.Arrays;
+import java.util.EnumMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.function.Consumer;
 
+import javax.swing.SwingUtilities;
 import javax.xml.stream.XMLStreamException;
-import javax.xml.transform.OutputKeys;
-import javax.xml.transform.Transformer;
-import javax.xml.transform.TransformerFactory;
-import javax.xml.transform.stream.StreamResult;
-import javax.xml.transform.stream.StreamSource;
-
 
+/**
+ * Puts a Session on a WorldWindow: the clicks go to the session as picks and whatever it plots is drawn.
+ * All the picking, solving, undo and export is in Session, this only has the mouse, the trace line and
+ * the layers.
+ */
 public class Globe extends ApplicationTemplate
 {
     private final WorldWindow wwd;
@@ -45,45 +46,39 @@ public class Globe extends ApplicationTemplate
     
     private ArrayList<Position> positions = new ArrayList<Position>();
     private boolean active = false;
+    
+    // the trace vertex being dragged, -1 for none, and how close a press has to be to a vertex to pick it up
+    private int dragging = -1;
+    private static final int DRAG_PIXELS = 8;
 
     private final RenderableLayer layer;
     private final Polyline line;
     //private boolean active = false;
     
-    private int numPoints = 1;// the current point number p1,p2,p3
+    // the picks, solutions and results, see Session
+    private final Session session;
     
-    private ArrayList<RenderableLayer> pointsLayers = new ArrayList<RenderableLayer>();
+    // the results as of the last change the event thread has seen, what the getters return
+    private Session.Results results;
     
-    // results of the 3pp solver to return to the gui
-    private double strike, dip, dipaz;
-    private String quad;
+    private final SymbolLayers symbols;
     
-    // store the points in arrays
-    private double[] point1 = new double[3];
-    private double[] point2 = new double[3];
-    private double[] point3 = new double[3];
+    // every solved plane also goes in the index so zoomed out views draw clusters instead of every symbol
+    private final SolutionIndex solutionIndex = new SolutionIndex();
     
-    // arraylist to hold the placemarks for exporting
-    private ArrayList<PointPlacemark> placemarks = new ArrayList<PointPlacemark>(); 
+    // every plotted copy of a symbol is an instance in its symbol's batch
+    private final EnumMap<SymbolLibrary.Symbol, SymbolBatch> batches = new EnumMap<SymbolLibrary.Symbol, SymbolBatch>(SymbolLibrary.Symbol.class);
     
-    // arraylist to hold the models for exporting
-    private ArrayList<ColladaRoot> models = new ArrayList<ColladaRoot>();
-
+    // the batch instance and index id of each plotted solution, so undo can take them back off
+    private final IdentityHashMap<Session.Plot, int[]> shown = new IdentityHashMap<Session.Plot, int[]>();
     
-    private Position point2Pos;
-    
-    // TODO: if you want to change the location of the .dae files change it here
-    private String url = "https://dl.dropboxusercontent.com/u/89445333/GEsymbols/";
-
-    
-    private String shape = url + "5-m-Wcircle.dae";// the default shape
-    
-    private boolean is3D = false;// 3d and 2d shapes get put on the map differently
-    
-    private boolean scopeIsThirdPoint = false;
-
-   
+    // fired on the event thread whenever the strike/dip results change
+    public static final String RESULTS = "Globe.Results";
+    public static final String FAILED = "Globe.Failed";
+    private final PropertyChangeSupport changes = new PropertyChangeSupport(this);
     
+    // the .dae files are loaded once from local copies, see SymbolLibrary to change where they come from
+    private final SymbolLibrary library = new SymbolLibrary();
 
     public Globe(final WorldWindow wwd, RenderableLayer lineLayer, Polyline polyline) 
     {
@@ -99,8 +94,31 @@ public class Globe extends ApplicationTemplate
             this.line.setFollowTerrain(true);
         }
         this.layer = lineLayer != null ? lineLayer : new RenderableLayer();
+        
+        // pick and trace elevations from the elevation model, not the terrain drawn at the current zoom
+        this.session = new Session(new ElevationService(wwd.getModel().getGlobe().getElevationModel()));
+        this.results = session.getResults();
+        this.session.addListener(new View());
+        
         //this.layer.addRenderable(this.line);
         this.wwd.getModel().getLayers().add(this.layer);
+        
+        // all the points and symbols go in these two layers, not a layer each
+        this.symbols = new SymbolLayers(wwd);
+        this.symbols.setMaxActiveAltitude(ClusterLayer.DETAIL_ALTITUDE);
+        insertBeforeCompass(wwd, new ClusterLayer(solutionIndex));
+        
+        // load the symbols off the mouse thread before the first solve needs one
+        this.library.preload();
+        
+        // a new session file every run, the ones before are kept to be opened again after a crash
+        try {
+        	this.session.createSessionFile(new File(System.getProperty("worldwind3pp.sessions",
+        			System.getProperty("user.home") + File.separator + ".worldwind3pp" + File.separator + "sessions")));
+        }
+        catch(IOException e) {
+        	System.err.println("Could not start the session file, this session will not be kept: " + e);
+        }
 
         this.wwd.getInputHandler().addMouseListener(new MouseAdapter()
         {
@@ -112,8 +130,13 @@ public class Globe extends ApplicationTemplate
                     {
                         if (!mouseEvent.isControlDown())
                         {
-                            active = true;
-                            addPosition();
+                            // pressing on a vertex of the trace picks it up instead of adding one
+                            dragging = results.isTrace() ? traceVertexAt(mouseEvent.getPoint()) : -1;
+                            if (dragging < 0)
+                            {
+                                active = true;
+                                addPosition();
+                            }
                         }
                     }
                     mouseEvent.consume();
@@ -124,9 +147,10 @@ public class Globe extends ApplicationTemplate
             {
                 if (armed && mouseEvent.getButton() == MouseEvent.BUTTON1)
                 {
-                    if (positions.size() == 1)
+                    if (positions.size() == 1 && !results.isTrace())
                         removePosition();
                     active = false;
+                    dragging = -1;
                     mouseEvent.consume();
                 }
             }
@@ -135,7 +159,9 @@ public class Globe extends ApplicationTemplate
             {
                 if (armed && mouseEvent.getButton() == MouseEvent.BUTTON1)
                 {
-                    if (mouseEvent.isControlDown())
+                    if (mouseEvent.isControlDown() && results.isTrace())
+                        clearLastPoint();
+                    else if (mouseEvent.isControlDown())
                         removePosition();
                     mouseEvent.consume();
                 }
@@ -144,21 +170,26 @@ public class Globe extends ApplicationTemplate
             
         });
 
-
-/*
+        
+        this.wwd.getInputHandler().addMouseMotionListener(new MouseMotionAdapter()
+        {
+            public void mouseDragged(MouseEvent mouseEvent)
+            {
+                // the vertex follows the position listener, the current position is not up to date here yet,
+                // but the drag is consumed so the view does not pan
+                if (armed && dragging >= 0)
+                    mouseEvent.consume();
+            }
+        });
+        
         this.wwd.addPositionListener(new PositionListener()
         {
             public void moved(PositionEvent event)
             {
-                if (!active)
-                    return;
-
-                if (positions.size() == 1)
-                    addPosition();
-                else
-                    replacePosition();
+                if (dragging >= 0 && event.getPosition() != null)
+                    moveTraceVertex(dragging, event.getPosition());
             }
-        });*/
+        });
     }
 
     /**
@@ -181,15 +212,6 @@ public class Globe extends ApplicationTemplate
         return this.line;
     }
 
-    /**
-     * Removes all positions from the polyline.
-     */
-/*    public void clear()
-    {
-        while (this.positions.size() > 0)
-            this.removePosition();
-    }*/
-
     /**
      * Identifies whether the line builder is armed.
      *
@@ -212,276 +234,248 @@ public class Globe extends ApplicationTemplate
     }
 
     /**
-     * Takes in the positions when you click on the map.
-     * Determiens which point it is and what to do with it.
-     * Does the haversine calculations using Calculations.java
-     * 
+     * Takes in the positions when you click on the map and hands them to the session,
+     * which works out which point it is and what to do with it.
      */
     private void addPosition()
     {
         Position curPos = this.wwd.getCurrentPosition();
         
-        System.out.println(curPos);// put out the lat/long/alt for debugging purposes
-        
-        
-        double pySort[] = new double[3];// used when sorting the high, med, low points
-        
-        
-        switch(numPoints){
-        
-        case 1:
-        	// reset the arrays
-        	point1 = new double[3];
-            point2 = new double[3];
-            point3 = new double[3];
-        	
-        	point1[0] = curPos.latitude.degrees;
-        	point1[1] = curPos.longitude.degrees;
-        	point1[2] = curPos.elevation;
-        	
-        	plotPoint(curPos, false, curPos, null, 0.0);
-        	break;
-        case 2:
-        	point2[0] = curPos.latitude.degrees;
-        	point2[1] = curPos.longitude.degrees;
-        	point2[2] = curPos.elevation;
-        	
-        	point2Pos = curPos;
-        	
-        	plotPoint(curPos, false, point2Pos, null, 0.0);
-        	break;
-        case 3:
-        	point3[0] = curPos.latitude.degrees;
-        	point3[1] = curPos.longitude.degrees;
-        	point3[2] = curPos.elevation;
-        	
-        	pySort[0]  = point1[2];
-        	pySort[1]  = point2[2];
-        	pySort[2]  = point3[2];
-        	
-        	Arrays.sort(pySort);// sort the elevation values
-        	
-        	double l = pySort[0];
-        	double m = pySort[1];
-        	double h = pySort[2];
-        	
-        	
-        	Calculations calc = new Calculations();// create calc object to do haversine math
-        	
-        	double hmAzimuth = 0, hlAzimuth = 0, hmDist, hlDist = 0, hmPlunge = 0, hlPlunge = 0;
-        	
-        	//Logic to see which point is the high, medium, low
-			if(point1[2] == h && point2[2] == m && point3[2] == l)
-			{
-				hmAzimuth = calc.calcBearing(point1, point2);
-				hlAzimuth = calc.calcBearing(point1, point3);
-
-				hmDist = calc.calcDistance(point1, point2);
-				hlDist = calc.calcDistance(point1, point3);
-
-				hmPlunge = calc.calcPlunge(point1, point2, hmDist);
-				hlPlunge = calc.calcPlunge(point1, point3, hlDist);
-			}
-			else if(point1[2] == h && point2[2] == l && point3[2] == m)
-			{
-				hmAzimuth = calc.calcBearing(point1, point3);
-				hlAzimuth = calc.calcBearing(point1, point2);
-
-				hmDist = calc.calcDistance(point1, point3);
-				hlDist = calc.calcDistance(point1, point2);
-
-				hmPlunge = calc.calcPlunge(point1, point3, hmDist);
-				hlPlunge = calc.calcPlunge(point1, point2, hlDist);
-			}
-			else if(point1[2] == m && point2[2] == h && point3[2] == l)
-			{
-				hmAzimuth = calc.calcBearing(point2, point1);
-				hlAzimuth = calc.calcBearing(point2, point3);
-
-				hmDist = calc.calcDistance(point2, point1);
-				hlDist = calc.calcDistance(point2, point3);
-
-				hmPlunge = calc.calcPlunge(point2, point1, hmDist);
-				hlPlunge = calc.calcPlunge(point2, point3, hlDist);
-
-			}
-			else if(point1[2] == l && point2[2] == h && point3[2] == m)
-			{
-				hmAzimuth = calc.calcBearing(point2, point3);
-				hlAzimuth = calc.calcBearing(point2, point1);
-
-				hmDist = calc.calcDistance(point2, point3);
-				hlDist = calc.calcDistance(point2, point1);
-
-				hmPlunge = calc.calcPlunge(point2, point3, hmDist);
-				hlPlunge = calc.calcPlunge(point2, point1, hlDist);
-			}
-			else if(point1[2] == m && point2[2] == l && point3[2] == h)
-			{
-				hmAzimuth = calc.calcBearing(point3, point1);
-				hlAzimuth = calc.calcBearing(point3, point2);
-
-				hmDist = calc.calcDistance(point3, point1);
-				hlDist = calc.calcDistance(point3, point2);
-
-				hmPlunge = calc.calcPlunge(point3, point1, hmDist);
-				hlPlunge = calc.calcPlunge(point3, point2, hlDist);
-			}
-			else if(point1[2] == l && point2[2] == m && point3[2] == h)
-			{
-				hmAzimuth = calc.calcBearing(point3, point2);
-				hlAzimuth = calc.calcBearing(point3, point1);
-
-				hmDist = calc.calcDistance(point3, point2);
-				hlDist = calc.calcDistance(point3, point1);
-
-				hmPlunge = calc.calcPlunge(point3, point2, hmDist);
-				hlPlunge = calc.calcPlunge(point3, point1, hlDist);
-			}
-        	
-        	
-        	StrikeDipQuad results = calc.calcStrikeDip(hmAzimuth, hlAzimuth, hmPlunge, hlPlunge);
-        	
-        	plotPoint(curPos, true, point2Pos, results, hlDist/10);// plot the point on the globe
-        	// hlDist/10 is arbitrary but the size seems good, if you want to change the default size of the objects change the 10
-        	
-        	this.dip = results.getDip();
-        	this.dipaz = results.getDipAzimuth();
-        	this.strike = results.getStrike();
-        	this.quad = results.getQuad();
-
-        	break;
-        
-        }
-        
         if (curPos == null)
             return;
+        
+        Logging.logger().fine("Picked " + curPos);// the lat/long/alt for debugging purposes
+        
+        session.pick(curPos.latitude.degrees, curPos.longitude.degrees, curPos.elevation);
 
         this.positions.add(curPos);
         this.line.setPositions(this.positions);
         this.wwd.redraw();
-        
-        numPoints++;
-        
-        if(numPoints > 3)
-        	numPoints = 1;
-        
     }
     
     /**
-     * 
-     * @param curPos
-     * @param isThirdPoint
-     * @param point2
-     * @param results
-     * @param hldist
-     * Plots a point on the globe.
+     * Replaces the trace with a loaded line and solves the profile along it.
      */
-    private void plotPoint(Position curPos, boolean isThirdPoint, Position point2, StrikeDipQuad results, double hldist){
+    public void loadTrace(Iterable<? extends Position> line)
+    {
+    	ArrayList<Position> loaded = new ArrayList<Position>();
+    	for (Position p : line)
+    		loaded.add(p);
     	
+    	double[] lat = new double[loaded.size()];
+    	double[] lon = new double[loaded.size()];
+    	for (int i = 0; i < loaded.size(); i++)
+    	{
+    		lat[i] = loaded.get(i).latitude.degrees;
+    		lon[i] = loaded.get(i).longitude.degrees;
+    	}
+    	session.loadTrace(lat, lon);
     	
-    	PointPlacemark pmStandard = new PointPlacemark(curPos);// the placemark
+    	this.positions = loaded;
+    	this.line.setPositions(this.positions);
+    	this.wwd.redraw();
+    }
+    
+    /**
+     * Moves one vertex of the trace, the profile is only re-solved around it so this is quick enough
+     * to call while a vertex is being dragged.
+     */
+    public void moveTraceVertex(int index, Position pos)
+    {
+    	session.moveTraceVertex(index, pos.latitude.degrees, pos.longitude.degrees);
+    	
+    	this.positions.set(index, pos);
+    	this.line.setPositions(this.positions);
+    	this.wwd.redraw();
+    }
+    
+    // the trace vertex drawn within DRAG_PIXELS of the point on screen, the nearest if there are a few, else -1
+    private int traceVertexAt(Point point)
+    {
+    	gov.nasa.worldwind.globes.Globe globe = wwd.getModel().getGlobe();
+    	int height = wwd.getView().getViewport().height;
+    	
+    	int nearest = -1;
+    	double best = DRAG_PIXELS * DRAG_PIXELS;
+    	for (int i = 0; i < positions.size(); i++)
+    	{
+    		Position p = positions.get(i);
+    		Vec4 screen = wwd.getView().project(globe.computePointFromPosition(p.latitude, p.longitude,
+    				globe.getElevation(p.latitude, p.longitude)));
+    		if (screen == null)
+    			continue;
+    		
+    		double dx = screen.x - point.x, dy = height - screen.y - point.y;
+    		if (dx * dx + dy * dy <= best)
+    		{
+    			best = dx * dx + dy * dy;
+    			nearest = i;
+    		}
+    	}
+    	return nearest;
+    }
+    
+    //Writes the profile as distance,lat,lon,strike,dip,dipAzimuth,quad lines
+    public void exportProfile(String path)
+    {
+    	session.exportProfile(path);
+    }
+    
+    /**
+     * Draws what the session plots. Each change is handed to the event thread in the order it was made.
+     */
+    private class View implements Session.Listener {
+    	
+    	public void plotted(final Session.Plot plot)
+    	{
+    		SwingUtilities.invokeLater(new Runnable() {
+    			public void run() {
+    				show(plot);
+    				wwd.redraw();
+    			}
+    		});
+    	}
+    	
+    	public void unplotted(final Session.Plot plot)
+    	{
+    		SwingUtilities.invokeLater(new Runnable() {
+    			public void run() {
+    				// it is always the last one plotted, its labels are the last group
+    				symbols.removeLast();
+    				int[] ids = shown.remove(plot);
+    				if(ids != null)
+    				{
+    					batch(plot.getSymbol()).remove(ids[0]);
+    					solutionIndex.remove(ids[1]);
+    				}
+    				wwd.redraw();
+    			}
+    		});
+    	}
+    	
+    	public void cleared()
+    	{
+    		SwingUtilities.invokeLater(new Runnable() {
+    			public void run() {
+    				clearPlotted();
+    				wwd.redraw();
+    			}
+    		});
+    	}
+    	
+    	public void opened(final List<Session.Plot> plots)
+    	{
+    		SwingUtilities.invokeLater(new Runnable() {
+    			public void run() {
+    				clearPlotted();
+    				
+    				// the labels are only made as they come into view, the symbols are just instances
+    				ArrayList<LazySymbol> labels = new ArrayList<LazySymbol>(plots.size());
+    				for(Session.Plot plot : plots)
+    				{
+    					labels.add(new LazySymbol(plot));
+    					if(plot.isSolution())
+    					{
+    						batch(plot.getSymbol()).add(plot.getSymbolLatitude(), plot.getSymbolLongitude(), plot.getSymbolElevation(),
+    								plot.getHeading(), plot.getPitch(), plot.getScale());
+    						solutionIndex.add(plot.getSymbolLatitude(), plot.getSymbolLongitude(), plot.getDip(), plot.getDipAzimuth(), plot.getQuadCode());
+    					}
+    				}
+    				symbols.addAllPoints(labels);
+    				wwd.redraw();
+    			}
+    		});
+    	}
+    	
+    	public void resultsChanged(final Session.Results r)
+    	{
+    		SwingUtilities.invokeLater(new Runnable() {
+    			public void run() {
+    				results = r;
+    				fireResults();
+    			}
+    		});
+    	}
+    	
+    	public void failed(final String label, final Exception e)
+    	{
+    		SwingUtilities.invokeLater(new Runnable() {
+    			public void run() {
+    				changes.firePropertyChange(FAILED, null, "Could not solve " + label + ": " + e.getMessage());
+    			}
+    		});
+    	}
+    }
+    
+    // the labels are one group, the symbol is an instance in its batch, undo takes both back off
+    private void show(Session.Plot plot)
+    {
+    	symbols.addPoints(new LazySymbol(plot));
+    	
+    	if(plot.isSolution())
+    	{
+    		int instance = batch(plot.getSymbol()).add(plot.getSymbolLatitude(), plot.getSymbolLongitude(), plot.getSymbolElevation(),
+    				plot.getHeading(), plot.getPitch(), plot.getScale());
+    		int solutionId = solutionIndex.add(plot.getSymbolLatitude(), plot.getSymbolLongitude(), plot.getDip(), plot.getDipAzimuth(), plot.getQuadCode());
+    		shown.put(plot, new int[] { instance, solutionId });
+    	}
+    }
+    
+    private void clearPlotted()
+    {
+    	symbols.clear();
+    	solutionIndex.clear();
+    	shown.clear();
+    }
+    
+    // a pick's label, sessions that are opened again make theirs here too
+    static PointPlacemark makePick(Position pos, String label)
+    {
+    	PointPlacemark pm = new PointPlacemark(pos);
         
-        pmStandard.setLabelText("P" + Integer.toString(numPoints));
+        pm.setLabelText(label);
         
-        pmStandard.setLineEnabled(false);
+        pm.setLineEnabled(false);
         
         // important must be clamped to ground
-        pmStandard.setAltitudeMode(WorldWind.CLAMP_TO_GROUND);
-        
-        // connection to the dae file
-        ColladaRoot r = null;
-        ColladaController colladaController = null;
-        
-        // third point is special because it plots the symbols
-        if(isThirdPoint){
-	        try {
-
-				r = ColladaRoot.createAndParse(shape);// shape is the URL for the dae file
-				r.setPosition(point2);// put the shape at the second point (arbitrary)
-				
-				r.setField("url", shape);// save the URL field so we can export it later
-				
-				
-				// 3d symbols seem to be off for heading but export correctly.  this makes it correct in World wind
-				double newHeading = 0;
-				if(results.getDipAzimuth()-180 < 0){
-					newHeading = results.getDipAzimuth()+180;
-				}
-				else newHeading = results.getDipAzimuth()-180;
-				
-				r.setHeading(Angle.fromDegrees(newHeading));
-				
-				if(is3D)
-				{
-					r.setPitch(Angle.fromDegrees(results.getDip()));
-				}
-				else 
-				{
-					r.setPitch(Angle.fromDegrees(0));
-					
-					
-					// the heading for 2d symbols was off by 180, this fixes it.
-					r.setHeading(Angle.fromDegrees(results.getDipAzimuth()-180)); 
-					r.setField("2d", "yes");
-
-				}
-
-				r.setAltitudeMode(WorldWind.CLAMP_TO_GROUND);
-				r.setModelScale(new Vec4(hldist));
-				
-				colladaController = new ColladaController(r);
-				
-				// make a new layer for the model to be added
-				RenderableLayer layer2 = new RenderableLayer();
-		        layer2.addRenderable(colladaController);
-		        
-		        insertBeforeCompass(this.wwd, layer2);// add the model layer to the globe
-		        
-		        // this is the point that holds the 00/000 dip values
-		        PointPlacemark pmValues = new PointPlacemark(point2);
-		        
-		        pmValues.setLabelText("" + Math.round(results.getDip()) + "/" + Math.round(results.getDipAzimuth()));
-		        
-		        // create a new layer for the dip values point
-		        RenderableLayer pointsLayer = new RenderableLayer();
-
-	            pointsLayer.addRenderable(pmValues);
-	            pointsLayer.addRenderable(pmStandard);
-
-	            insertBeforeCompass(this.wwd, pointsLayer);
-	            
-	            pointsLayers.add(pointsLayer);
-	            pointsLayers.add(layer2);
-
-	            
-	        	placemarks.add(pmStandard);
-	        	placemarks.add(pmValues);
-	        	models.add(r);
-	        	scopeIsThirdPoint = true;
-
-	            
-			} catch (IOException | XMLStreamException e) {
-				e.printStackTrace();
-			}
-        }
-        else {
-        	scopeIsThirdPoint = false;
-
-        	
-        	// must add the placemark to the list before we add the attributes, the exporter does not like them
-        	placemarks.add(pmStandard);
-        	
-            RenderableLayer pointsLayer = new RenderableLayer();
-            pointsLayers.add(pointsLayer);
-
-            pointsLayer.addRenderable(pmStandard);
-            insertBeforeCompass(this.wwd, pointsLayer);
-           
-        }
+        pm.setAltitudeMode(WorldWind.CLAMP_TO_GROUND);
         
+        return pm;
     }
-
+    
+    // this is the point that holds the 00/000 dip values
+    static PointPlacemark makeValues(Position point2, String values)
+    {
+    	PointPlacemark pm = new PointPlacemark(point2);
+    	
+    	pm.setLabelText(values);
+    	
+    	return pm;
+    }
+    
+    /**
+     * The batch every copy of the symbol is drawn by, made the first time the symbol is plotted.
+     */
+    private SymbolBatch batch(SymbolLibrary.Symbol symbol)
+    {
+    	SymbolBatch batch = batches.get(symbol);
+    	if(batch == null)
+    	{
+    		final SymbolBatch b = batch = new SymbolBatch(symbol);
+    		batches.put(symbol, b);
+    		symbols.addBatch(b);
+    		
+    		// drawn from when its mesh is in, usually straight away as preload has loaded it
+    		library.getMeshLater(symbol, new Consumer<SymbolMesh>() {
+    			public void accept(SymbolMesh mesh) {
+    				b.setMesh(mesh);
+    				wwd.redraw();
+    			}
+    		});
+    	}
+    	return batch;
+    }
+    
     private void replacePosition()
     {
         Position curPos = this.wwd.getCurrentPosition();
@@ -518,199 +512,82 @@ public class Globe extends ApplicationTemplate
     
     public void clearPoints(){
     	
-    	for(RenderableLayer r : pointsLayers)
-    	{
-    		
-    		r.removeAllRenderables();
-        	r.dispose();
-        	placemarks.clear();
-        	models.clear();
-    	}
-    	
-    	numPoints = 1;
-    	
-    	point1 = new double[3];
-        point2 = new double[3];
-        point3 = new double[3];
-    	
+    	session.clear();
+        
+        if (results.isTrace())
+        {
+        	this.positions.clear();
+        	this.line.setPositions(this.positions);
+        	this.wwd.redraw();
+        }
     }
     
+    /**
+     * Takes the last pick or solution back off. Any number of steps can be undone, and redone with
+     * redoLastPoint() until something new is plotted. The trace is edited vertex by vertex instead.
+     */
     public void clearLastPoint(){
     	
-    	// this is actually when the plotting is done for the third point
-    	if(numPoints == 1) {
-    		
-    		RenderableLayer r = pointsLayers.get(pointsLayers.size()-1);
-	    	pointsLayers.remove(pointsLayers.size()-1);
-	    	
-	    	r.dispose();
-
-	    	
-	    	RenderableLayer r2 = pointsLayers.get(pointsLayers.size()-1);
-	    	pointsLayers.remove(pointsLayers.size()-1);
-	    	
-	    	r2.dispose();
-	    	
-	    	numPoints = 3;
-	    	
-	    	placemarks.remove(placemarks.size()-1);
-	    	models.remove(models.size()-1);
-
-	    	
-	    	this.wwd.redraw();
-    	}
-    	
-    	/*else if(numPoints == 2)
-    	{
-    		RenderableLayer r = pointsLayers.get(pointsLayers.size()-1);
-	    	pointsLayers.remove(pointsLayers.size()-1);
-	    	
-	    	r.dispose();
-
-	    	placemarks.remove(placemarks.size()-1);
-	    	
-	    	numPoints = 1;
-	    	
-	    	point1 = new double[3];
-	        point2 = new double[3];
-	        point3 = new double[3];
-	    	
-    	}*/
-    	
+    	session.undo();
     	
-    	// when the 1st and 2nd points are plotted
-    	else if(numPoints == 3){
-			RenderableLayer r = pointsLayers.get(pointsLayers.size()-1);
-	    	pointsLayers.remove(pointsLayers.size()-1);
-	    	
-	    	r.dispose();
-
-	    	placemarks.remove(placemarks.size()-1);
-	    	placemarks.remove(placemarks.size()-1);
-
-
-	    	
-	      
-	    	if(numPoints - 1 > 0)
-	    		numPoints--;
-	    	
-	    	
-	    	
-	    	this.wwd.redraw();
+    	// the trace has no symbols, just take its last vertex back off
+    	if(results.isTrace() && !positions.isEmpty()) {
+    		this.positions.remove(positions.size()-1);
+    		this.line.setPositions(this.positions);
+    		this.wwd.redraw();
     	}
-    	
-    	
-    	
     }
     
-    public Position getPoint2(){
-    	return point2Pos;
+    public void redoLastPoint(){
+    	session.redo();
     }
     
+    /**
+     * Replaces what is plotted with a saved session and carries on appending to that file.
+     * Only the records are read, the labels are made as they come into view.
+     * What was opened can not be undone, only what is plotted after it.
+     */
+    public void openSession(File file)
+    {
+    	session.openSessionFile(file);
+    }
     
-	public void exportKML(String path) {
-		try{
-	    	
-		    // Create a StringWriter to collect KML in a string buffer
-           // Writer stringWriter = new StringWriter();
-
-            // Create a document builder that will write KML to the StringWriter
-           // KMLDocumentBuilder kmlBuilder = new KMLDocumentBuilder(stringWriter);
-
-            String xmlString = "<?xml version=\"1.0\" encoding=\"UTF-8\"?>" +
-								"<kml xmlns=\"http://www.opengis.net/kml/2.2\">" +
-								"<Document>" +
-									"<name>3PP Geo Symbols</name>" +
-									"<Folder>" +
-										"<name>Annotations and Models</name>";
-
-         // Export the placemarks
-            for(PointPlacemark p : placemarks){
-            	
-            	String placemarkString = "<Placemark>";
-            	
-            	placemarkString += "<name>" + p.getLabelText() + "</name>";
-            	placemarkString += "<Point>" + 
-            		"<coordinates>" + p.getPosition().getLongitude().getDegrees() + "," + p.getPosition().getLatitude().getDegrees() + "," + 0 + "</coordinates>";
-    			placemarkString += "</Point>";
-    			placemarkString += "</Placemark>";
-    			
-    			xmlString += placemarkString;
-                        
-            }
-            
-            // get all collada files and export them
-            for(ColladaRoot m : models){
-            	
-            	String modelString = "<Placemark>";
-            	
-            	modelString += "<name>Symbol</name>";
-            	modelString += "<Model id=\"model_1\">";
-            	
-            	double newHeading = 0;
-            	if(!m.hasField("2d")){
-					if(m.getHeading().getDegrees()+180 < 360){
-						newHeading = m.getHeading().getDegrees()+180;
-					}
-					else newHeading = m.getHeading().getDegrees()-180;
-            	}
-            	else newHeading = m.getHeading().getDegrees();
-				
-            	modelString += "<Location>" + 
-            					"<longitude>" + m.getPosition().getLongitude().getDegrees() + "</longitude>" +
-            					"<latitude>" + m.getPosition().getLatitude().getDegrees() + "</latitude>" +
-            					"<altitude>0</altitude>";
-            	modelString += "</Location>";
-            	modelString += "<Orientation>";
-            	modelString +=	"<heading>" + newHeading + "</heading>";
-            	modelString +=	"<tilt>" + m.getPitch().getDegrees() + "</tilt>";
-            	modelString +=	"<roll>0</roll>";
-            	modelString +=	"</Orientation>";
-            	modelString +=	"<Scale>";
-            	modelString +=		"<x>" + m.getModelScale().x + "</x>";
-            	modelString +=		"<y>" + m.getModelScale().y + "</y>";
-            	modelString +=		"<z>1</z>";
-            	modelString +=	"</Scale>";
-            	modelString +=	"<Link>";
-            	modelString +=		"<href>" + m.getField("url") + "</href>";
-    			modelString +=	"</Link>";
-            	modelString +=	"<ResourceMap>";
-            	modelString +=	"</ResourceMap>";
-            	modelString +=	"</Model>";
-            	
-            	modelString += "</Placemark>";
-            	
-            	xmlString += modelString;
-            }
-            
-            
-            xmlString += "</Folder>" +
-				         "</Document>" +
-				         "</kml>";
-            Transformer transformer = TransformerFactory.newInstance().newTransformer();
-            transformer.setOutputProperty(OutputKeys.INDENT, "yes");
-            transformer.setOutputProperty("{http://xml.apache.org/xslt}indent-amount", "4");
-
-           // String results = "";
-            
-            StringWriter stringWriter = new StringWriter();
-            transformer.transform(new StreamSource(new StringReader(xmlString)), new StreamResult(stringWriter));
-            
-            
-            try (Writer writer = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(path), "utf-8"))) {
-            	writer.write(stringWriter.toString());
-            }
-            catch (Exception e){
-            	System.err.println("Writing error.");
-      }
-            
-		} catch (Exception e)
-        {
-            String message = Logging.getMessage("generic.ExceptionAttemptingToWriteXml", e.toString());
-            Logging.logger().severe(message);
-            e.printStackTrace();
-        }
+    /**
+     * Keeps a copy of the session as it is now in the file and carries on in the copy.
+     */
+    public void saveSession(File file)
+    {
+    	session.saveSessionFile(file);
     }
+    
+    public File getSessionFile() {
+    	return session.getSessionFile();
+    }
+    
+	public void exportKML(String path) {
+		session.exportKML(path, library);
+	}
+	
+	// only what is new since the last export to the path is written, see Session.exportKML
+	public void exportKML(String path, boolean append) {
+		session.exportKML(path, append, library);
+	}
+	
+	// tiles that are only loaded as they come into view, for very large sessions
+	public void exportSuperOverlay(String path) {
+		session.exportSuperOverlay(path, library);
+	}
+	
+	// a folder of placemarks from a KML file solved and plotted like picks, waits on the elevations so not on the EDT
+	public PlacemarkSolver solvePlacemarks(File file, String folder, PlacemarkSolver.Grouping grouping)
+			throws IOException, XMLStreamException {
+		return session.solvePlacemarks(file, folder, grouping);
+	}
+	
+	// the symbols go in the KMZ so it opens offline
+	public void exportKMZ(String path) {
+		session.exportKMZ(path, library);
+	}
 
     /**
      * Marked as deprecated to keep it out of the javadoc.
@@ -746,165 +623,97 @@ public class Globe extends ApplicationTemplate
         ApplicationTemplate.start("World Wind Line Builder", Globe.AppFrame.class);
     }
 
-	public double getStrike() {
-		return strike;
+	public Session getSession() {
+		return session;
 	}
-
-	public void setStrike(double strike) {
-		this.strike = strike;
+	
+	//The results as of the last RESULTS event, read them together from here rather than one getter at a time
+	public Session.Results getResults() {
+		return results;
 	}
-
-	public double getDip() {
-		return dip;
+	
+	public double getStrike() {
+		return results.getStrike();
 	}
 
-	public void setDip(double dip) {
-		this.dip = dip;
+	public double getDip() {
+		return results.getDip();
 	}
 
 	public double getDipaz() {
-		return dipaz;
-	}
-
-	public void setDipaz(double dipaz) {
-		this.dipaz = dipaz;
+		return results.getDipAzimuth();
 	}
 
 	public String getQuad() {
-		return quad;
-	}
-
-	public void setQuad(String quad) {
-		this.quad = quad;
+		return results.getQuad();
 	}
 	
 	public void setShape(String shape) {
 		
+		SymbolLibrary.Symbol symbol = SymbolLibrary.Symbol.forName(shape);
+		if(symbol != null)
+			session.setShape(symbol);
 		
-		if(shape.equals("White Circle (3D)"))
-		{
-			this.shape = url + "5-m-Wcircle.dae";
-			is3D = true;
-		}
-		else if(shape.equals("Blue Circle (3D)"))
-		{
-			this.shape = url + "5-m-Bcircle.dae";
-			is3D = true;
-
-		}
-		else if(shape.equals("Pink Circle (3D)"))
-		{
-			this.shape = url + "5-m-Pcircle.dae";
-			is3D = true;
-
-		}
-		else if(shape.equals("Orange Circle (3D)"))
-		{
-			this.shape = url + "5-m-Ocircle.dae";
-			is3D = true;
-
-		}
-		else if(shape.equals("Light Blue Circle (3D)"))
-		{
-			this.shape = url + "5-m-LBcircle.dae";
-			is3D = true;
-
-		}
-		else if(shape.equals("Green Circle (3D)"))
-		{
-			this.shape = url + "5-m-Gcircle.dae";
-			is3D = true;
-
-		}
-		else if(shape.equals("Black Circle (3D)"))
-		{
-			this.shape = url + "5-m-BLcircle.dae";
-			is3D = true;
-
-		}
-		else if(shape.equals("Arrow"))
-		{
-			this.shape = url + "arrow.dae";
-			is3D = false;
-
-		}
-		else if(shape.equals("Bed"))
-		{
-			this.shape = url + "bed.dae";
-			is3D = false;
-
-		}
-		else if(shape.equals("Cleavage"))
-		{
-			this.shape = url + "cleavage.dae";
-			is3D = false;
-
-		}
-		else if(shape.equals("Joint"))
-		{
-			this.shape = url + "joint.dae";
-			is3D = false;
-
-		}
-		else if(shape.equals("Layer"))
-		{
-			this.shape = url + "layer.dae";
-			is3D = false;
-
-		}
-		else if(shape.equals("Slip"))
-		{
-			this.shape = url + "slip.dae";
-			is3D = false;
-
-		}
-		else if(shape.equals("Fault"))
-		{
-			this.shape = url + "fault.dae";
-			is3D = false;
-
-		}
-		else if(shape.equals("Strike-Dip"))
-		{
-			this.shape = url + "Strike-dip.dae";
-			is3D = false;
-
-		}
-		else if(shape.equals("Bed White"))
-		{
-			this.shape = url + "bed-white.dae";
-			is3D = false;
-
-		}
-		else if(shape.equals("Cleavage White"))
-		{
-			this.shape = url + "cleavage-white.dae";
-			is3D = false;
-
-		}
-		else if(shape.equals("Joint White"))
-		{
-			this.shape = url + "joint-white.dae";
-			is3D = false;
-
-		}
-		else if(shape.equals("Layer White"))
-		{
-			this.shape = url + "layer-white.dae";
-			is3D = false;
-
-		}
-		else if(shape.equals("Fault White"))
-		{
-			this.shape = url + "fault-white.dae";
-			is3D = false;
-
-		}
+	}
+	
+	public boolean getIsThirdPoint(){
+		return results.isThirdPoint();
+	}
+	
+	public boolean isBestFit() {
+		return results.isBestFit();
+	}
+	
+	// switching modes starts over, see Session.setBestFit
+	public void setBestFit(boolean bestFit) {
+		session.setBestFit(bestFit);
+	}
+	
+	public boolean isTrace() {
+		return results.isTrace();
+	}
+	
+	// the trace line is only on the map while tracing, the other modes do not draw it
+	public void setTrace(boolean trace) {
+		session.setTrace(trace);
 		
+		this.positions.clear();
+		this.line.setPositions(this.positions);
 		
+		if (trace)
+			this.layer.addRenderable(this.line);
+		else
+			this.layer.removeRenderable(this.line);
+		this.wwd.redraw();
 	}
 	
-	public boolean getIsThirdPoint(){
-		return scopeIsThirdPoint;
+	public int getFitCount() {
+		return results.getFitCount();
+	}
+	
+	public double getFitResidual() {
+		return results.getFitResidual();
+	}
+	
+	// RESULTS is fired on the event thread once a click's results are in, listen for it rather than the mouse.
+	// FAILED is fired there too, with a message, when a click's solve threw
+	public void addPropertyChangeListener(PropertyChangeListener listener) {
+		changes.addPropertyChangeListener(listener);
+	}
+	
+	public void removePropertyChangeListener(PropertyChangeListener listener) {
+		changes.removePropertyChangeListener(listener);
+	}
+	
+	private void fireResults() {
+		changes.firePropertyChange(RESULTS, null, null);
+	}
+	
+	public ElevationService getElevations() {
+		return session.getElevations();
+	}
+	
+	public SolvePipeline.Stats getPipelineStats() {
+		return session.getPipelineStats();
 	}
 }
@@ -11,12 +11,9 @@ import gov.nasa.worldwind.WorldWindow;
 import gov.nasa.worldwind.avlist.AVKey;
 import gov.nasa.worldwind.geom.Position;
 import gov.nasa.worldwind.layers.RenderableLayer;
-import gov.nasa.worldwind.ogc.kml.KMLAbstractFeature;
 import gov.nasa.worldwind.ogc.kml.KMLRoot;
-import gov.nasa.worldwind.ogc.kml.impl.KMLController;
 import gov.nasa.worldwind.render.Offset;
 import gov.nasa.worldwind.retrieve.RetrievalService;
-import gov.nasa.worldwind.util.WWIO;
 import gov.nasa.worldwind.util.WWUtil;
 import gov.nasa.worldwind.util.layertree.KMLLayerTreeNode;
 import gov.nasa.worldwind.util.layertree.KMLNetworkLinkTreeNode;
@@ -37,17 +34,17 @@ import java.awt.event.ActionEvent;
 import java.awt.event.ActionListener;
 import java.awt.event.ItemEvent;
 import java.awt.event.ItemListener;
-import java.awt.event.MouseAdapter;
-import java.awt.event.MouseEvent;
 import java.beans.PropertyChangeEvent;
 import java.beans.PropertyChangeListener;
 import java.io.File;
-import java.io.IOException;
-import java.net.URL;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
 
 import javax.swing.AbstractAction;
 import javax.swing.BorderFactory;
 import javax.swing.JButton;
+import javax.swing.JCheckBox;
 import javax.swing.JComboBox;
 import javax.swing.JFileChooser;
 import javax.swing.JLabel;
@@ -56,6 +53,7 @@ import javax.swing.JMenuBar;
 import javax.swing.JMenuItem;
 import javax.swing.JOptionPane;
 import javax.swing.JPanel;
+import javax.swing.JProgressBar;
 import javax.swing.JScrollPane;
 import javax.swing.JTextField;
 import javax.swing.SwingUtilities;
@@ -64,7 +62,6 @@ import javax.swing.UnsupportedLookAndFeelException;
 import javax.swing.border.CompoundBorder;
 import javax.swing.border.TitledBorder;
 import javax.swing.filechooser.FileNameExtensionFilter;
-import javax.xml.stream.XMLStreamException;
 
 /**
  * Built from an example application that allows the user to import a KML or KMZ file as a layer. The contents of the file are
@@ -91,6 +88,8 @@ public class KMLViewer extends ApplicationTemplate
         protected HotSpotController hotSpotController;
         protected KMLApplicationController kmlAppController;
         protected BalloonController balloonController;
+        protected Globe lineBuilder;
+        protected KmlImporter importer;
         
         
 
@@ -98,7 +97,7 @@ public class KMLViewer extends ApplicationTemplate
         {
             super(true, false, false); // Don't include the layer panel; we're using the on-screen layer tree.
             
-            Globe lineBuilder = new Globe(this.getWwd(), null, null);
+            this.lineBuilder = new Globe(this.getWwd(), null, null);
             this.getContentPane().add(new LinePanel(this.getWwd(), lineBuilder), BorderLayout.WEST);
 
             
@@ -151,6 +150,18 @@ public class KMLViewer extends ApplicationTemplate
             this.pack();
             WWUtil.alignComponent(null, this, AVKey.CENTER);
 
+            // KML and KMZ files open on a few threads, with a bar along the bottom while they do
+            this.importer = new KmlImporter(new KmlImporter.Target()
+            {
+                public void add(RenderableLayer layer, KMLLayerTreeNode node)
+                {
+                    addKMLLayer(layer, node);
+                }
+            });
+            ImportPanel importPanel = new ImportPanel(this.importer);
+            this.importer.addListener(importPanel);
+            this.getContentPane().add(importPanel, BorderLayout.SOUTH);
+
             makeMenu(this);
 
             // Set up to receive SSLHandshakeExceptions that occur during resource retrieval.
@@ -176,20 +187,26 @@ public class KMLViewer extends ApplicationTemplate
          */
         protected void addKMLLayer(KMLRoot kmlRoot)
         {
-            // Create a KMLController to adapt the KMLRoot to the World Wind renderable interface.
-            KMLController kmlController = new KMLController(kmlRoot);
-
-            // Adds a new layer containing the KMLRoot to the end of the WorldWindow's layer list. This
+            // A layer with a KMLController to adapt the KMLRoot to the World Wind renderable interface. This
             // retrieves the layer name from the KMLRoot's DISPLAY_NAME field.
-            RenderableLayer layer = new RenderableLayer();
-            layer.setName((String) kmlRoot.getField(AVKey.DISPLAY_NAME));
-            layer.addRenderable(kmlController);
+            RenderableLayer layer = KmlImporter.makeLayer(kmlRoot);
+            this.addKMLLayer(layer, new KMLLayerTreeNode(layer, kmlRoot));
+        }
+
+        /**
+         * Adds a KML layer and its tree node that were built off the EDT, as the importer does.
+         *
+         * @param layer     the layer holding the document's KMLController.
+         * @param layerNode the layer tree node for the layer's KMLRoot.
+         */
+        protected void addKMLLayer(RenderableLayer layer, KMLLayerTreeNode layerNode)
+        {
+            // Adds the layer to the end of the WorldWindow's layer list.
             this.getWwd().getModel().getLayers().add(layer);
 
             // Adds a new layer tree node for the KMLRoot to the on-screen layer tree, and makes the new node visible
             // in the tree. This also expands any tree paths that represent open KML containers or open KML network
             // links.
-            KMLLayerTreeNode layerNode = new KMLLayerTreeNode(layer, kmlRoot);
             this.layerTree.getModel().addLayer(layerNode);
             this.layerTree.makeVisible(layerNode.getPath());
             layerNode.expandOpenContainers(this.layerTree);
@@ -245,8 +262,14 @@ public class KMLViewer extends ApplicationTemplate
         
         private JButton goToButton;
         private JButton exportKMLButton;
+        private JButton updateExportButton;
+        private String lastExportPath;// the last plain KML export, the one Update adds to
         private JButton clearPoints;
         private JButton clearLastPoint;
+        private JButton redoLastPoint;
+        private JCheckBox bestFitBox = new JCheckBox("Best-fit plane (any number of points)");
+        private JCheckBox traceBox = new JCheckBox("Trace contact (strike/dip profile)");
+        private JButton exportProfileButton;
 
         
         String[] choices = { "White Circle (3D)","Blue Circle (3D)","Pink Circle (3D)","Orange Circle (3D)","Light Blue Circle (3D)","Green Circle (3D)","Black Circle (3D)", "Arrow","Bed","Cleavage","Joint","Layer","Slip","Fault","Bed White","Cleavage White","Joint White","Layer White","Fault White"};
@@ -261,7 +284,7 @@ public class KMLViewer extends ApplicationTemplate
         JPanel buttonPanel = new JPanel(new GridLayout(1, 1, 5, 0));
         JPanel lowerPanel = new JPanel(new GridLayout(1,1));
         JPanel navPanel = new JPanel(new GridLayout(1, 3, 2, 0));
-        JPanel lowerButtPanel = new JPanel(new GridLayout(7,1, 0, 5));
+        JPanel lowerButtPanel = new JPanel(new GridLayout(12,1, 0, 5));
         
         JLabel label2 = new JLabel("<html><b>3 Point Solution:</b><br>Strike:"
         		+ "<br>Dip:<br>Quad:<br>Dip-Azimuth:</html>");
@@ -275,15 +298,29 @@ public class KMLViewer extends ApplicationTemplate
             this.lineBuilder = lineBuilder;
             this.makePanel(new Dimension(200, 400));
             
-            // add the same mouse listener but use the globe methods to interact
-            wwd.getInputHandler().addMouseListener(new MouseAdapter()
+            // the results come back from the solver after the click, so the label follows the globe not the mouse
+            lineBuilder.addPropertyChangeListener(new PropertyChangeListener()
             {
                 
-                public void mouseReleased(MouseEvent mouseEvent)
+                public void propertyChange(PropertyChangeEvent event)
                 {
-                    if (mouseEvent.getButton() == MouseEvent.BUTTON1)
+                    if (Globe.RESULTS.equals(event.getPropertyName()))
                     {
-                    	if(lineBuilder.getQuad() != null){
+                    	if(lineBuilder.isTrace()){
+                    		Session.Results results = lineBuilder.getResults();
+                    		label2.setText("<html><b>Contact Profile (" + results.getProfileWindows() + " windows, " + Math.round(results.getProfileLength()) + " m):</b>"
+                    				+ (lineBuilder.getQuad() == null ? "<br>Trace more of the contact" :
+                    				"<br>Strike: " + lineBuilder.getStrike()
+                            		+ "<br>Dip: " + lineBuilder.getDip() + "<br>Quad: " + lineBuilder.getQuad()
+                            		+ "<br>Dip-Azimuth: " + lineBuilder.getDipaz()) + "</html>");
+                    	}
+                    	else if(lineBuilder.getQuad() != null && lineBuilder.isBestFit()){
+                    		label2.setText("<html><b>Best-Fit Solution (" + lineBuilder.getFitCount() + " points):</b><br>Strike: " + lineBuilder.getStrike()
+                            		+ "<br>Dip: " + lineBuilder.getDip() + "<br>Quad: " + lineBuilder.getQuad()
+                            		+ "<br>Dip-Azimuth: " + lineBuilder.getDipaz()
+                            		+ "<br>RMS Residual: " + lineBuilder.getFitResidual() + " m</html>");
+                    	}
+                    	else if(lineBuilder.getQuad() != null){
                     		label2.setText("<html><b>3 Point Solution:</b><br>Strike: " + lineBuilder.getStrike()
                             		+ "<br>Dip: " + lineBuilder.getDip() + "<br>Quad: " + lineBuilder.getQuad()
                             		+ "<br>Dip-Azimuth: " + lineBuilder.getDipaz() + "</html>");
@@ -292,6 +329,10 @@ public class KMLViewer extends ApplicationTemplate
                     		
                     	}
                     }
+                    else if (Globe.FAILED.equals(event.getPropertyName()))
+                    {
+                    	label2.setText("<html><b>Solve failed:</b><br>" + event.getNewValue() + "</html>");
+                    }
                 }
             });
         }
@@ -385,9 +426,22 @@ public class KMLViewer extends ApplicationTemplate
 					
 					JFileChooser fileChooser = new JFileChooser();
 					fileChooser.setSelectedFile(new File("3ppGeoSymbols.kml"));
+					fileChooser.addChoosableFileFilter(new FileNameExtensionFilter("KML", "kml"));
+					fileChooser.addChoosableFileFilter(new FileNameExtensionFilter("KMZ, symbols included", "kmz"));
+					FileNameExtensionFilter tiled = new FileNameExtensionFilter("Tiled KML, for very large sessions", "kml");
+					fileChooser.addChoosableFileFilter(tiled);
 		            if (fileChooser.showSaveDialog(LinePanel.this) == JFileChooser.APPROVE_OPTION) {
 		              File file = fileChooser.getSelectedFile();
-		              lineBuilder.exportKML(file.getAbsolutePath());
+		              if (fileChooser.getFileFilter() == tiled)
+		            	  lineBuilder.exportSuperOverlay(file.getAbsolutePath());
+		              else if (file.getName().toLowerCase().endsWith(".kmz"))
+		            	  lineBuilder.exportKMZ(file.getAbsolutePath());
+		              else
+		              {
+		            	  lineBuilder.exportKML(file.getAbsolutePath());
+		            	  lastExportPath = file.getAbsolutePath();
+		            	  updateExportButton.setEnabled(true);
+		              }
 
 		            }
 					
@@ -395,6 +449,20 @@ public class KMLViewer extends ApplicationTemplate
 			});
             lowerButtPanel.add(exportKMLButton);
             
+            // adds what was picked since to the last KML export instead of writing it all again
+            updateExportButton = new JButton("Update Last Export");
+            updateExportButton.addActionListener(new ActionListener() {
+				
+				@Override
+				public void actionPerformed(ActionEvent e) {
+					
+					lineBuilder.exportKML(lastExportPath, true);
+					
+				}
+			});
+            updateExportButton.setEnabled(false);
+            lowerButtPanel.add(updateExportButton);
+            
             
             clearPoints = new JButton("Clear All Points");
             clearPoints.addActionListener(new ActionListener() {
@@ -422,6 +490,58 @@ public class KMLViewer extends ApplicationTemplate
 			});
             lowerButtPanel.add(clearLastPoint);
             
+            redoLastPoint = new JButton("Redo Last Point");
+            redoLastPoint.addActionListener(new ActionListener() {
+				
+				@Override
+				public void actionPerformed(ActionEvent e) {
+					
+					lineBuilder.redoLastPoint();
+					
+				}
+			});
+            lowerButtPanel.add(redoLastPoint);
+            
+            bestFitBox.addItemListener(new ItemListener() {
+                public void itemStateChanged(ItemEvent arg0) {
+                	if(bestFitBox.isSelected())
+                		traceBox.setSelected(false);
+                	lineBuilder.setBestFit(bestFitBox.isSelected());
+                }
+            });
+            lowerButtPanel.add(bestFitBox);
+            
+            // tracing and best-fit both take over the clicks so only one can be on
+            traceBox.addItemListener(new ItemListener() {
+                public void itemStateChanged(ItemEvent arg0) {
+                	if(traceBox.isSelected())
+                		bestFitBox.setSelected(false);
+                	lineBuilder.setTrace(traceBox.isSelected());
+                	exportProfileButton.setEnabled(traceBox.isSelected());
+                }
+            });
+            traceBox.setToolTipText("Click to add vertices, drag a vertex to move it, ctrl-click to take the last one off");
+            lowerButtPanel.add(traceBox);
+            
+            exportProfileButton = new JButton("Export Profile (CSV)");
+            exportProfileButton.addActionListener(new ActionListener() {
+				
+				@Override
+				public void actionPerformed(ActionEvent e) {
+					
+					JFileChooser fileChooser = new JFileChooser();
+					fileChooser.setSelectedFile(new File("contactProfile.csv"));
+		            if (fileChooser.showSaveDialog(LinePanel.this) == JFileChooser.APPROVE_OPTION) {
+		              File file = fileChooser.getSelectedFile();
+		              lineBuilder.exportProfile(file.getAbsolutePath());
+
+		            }
+					
+				}
+			});
+            exportProfileButton.setEnabled(false);
+            lowerButtPanel.add(exportProfileButton);
+            
             lowerButtPanel.add(new JLabel("Geologic symbol to plot: "));
             // the drop down menu
             lowerButtPanel.add(cb);
@@ -486,96 +606,113 @@ public class KMLViewer extends ApplicationTemplate
     }
 
 
-    /** A <code>Thread</code> that loads a KML file and displays it in an <code>AppFrame</code>. */
-    public static class WorkerThread extends Thread
+    /** Shows how far an import of KML files has got, with a button to cancel the rest. Hidden when nothing is importing. */
+    private static class ImportPanel extends JPanel implements KmlImporter.Listener
     {
-        /** Indicates the source of the KML file loaded by this thread. Initialized during construction. */
-        protected Object kmlSource;
-        /** Indicates the <code>AppFrame</code> the KML file content is displayed in. Initialized during construction. */
-        protected AppFrame appFrame;
+        private static final long serialVersionUID = -3630419253104474734L;
 
-        /**
-         * Creates a new worker thread from a specified <code>kmlSource</code> and <code>appFrame</code>.
-         *
-         * @param kmlSource the source of the KML file to load. May be a {@link File}, a {@link URL}, or an {@link
-         *                  java.io.InputStream}, or a {@link String} identifying a file path or URL.
-         * @param appFrame  the <code>AppFrame</code> in which to display the KML source.
-         */
-        public WorkerThread(Object kmlSource, AppFrame appFrame)
-        {
-            this.kmlSource = kmlSource;
-            this.appFrame = appFrame;
-        }
+        private final JProgressBar progressBar = new JProgressBar();
 
-        /**
-         * Loads this worker thread's KML source into a new <code>{@link gov.nasa.worldwind.ogc.kml.KMLRoot}</code>,
-         * then adds the new <code>KMLRoot</code> to this worker thread's <code>AppFrame</code>. The
-         * <code>KMLRoot</code>'s <code>AVKey.DISPLAY_NAME</code> field contains a display name created from either the
-         * KML source or the KML root feature name.
-         * <p/>
-         * If loading the KML source fails, this prints the exception and its stack trace to the standard error stream,
-         * but otherwise does nothing.
-         */
-        public void run()
+        public ImportPanel(final KmlImporter importer)
         {
-            try
-            {
-                KMLRoot kmlRoot = this.parse();
+            super(new BorderLayout(5, 0));
+            this.setBorder(BorderFactory.createEmptyBorder(3, 9, 3, 9));
 
-                // Set the document's display name
-                kmlRoot.setField(AVKey.DISPLAY_NAME, formName(this.kmlSource, kmlRoot));
+            this.progressBar.setStringPainted(true);
+            this.add(this.progressBar, BorderLayout.CENTER);
 
-                // Schedule a task on the EDT to add the parsed document to a layer
-                final KMLRoot finalKMLRoot = kmlRoot;
-                
-                SwingUtilities.invokeLater(new Runnable()
-                {
-                    public void run()
-                    {
-                        appFrame.addKMLLayer(finalKMLRoot);
-                    }
-                });
-            }
-            catch (Exception e)
+            JButton cancelButton = new JButton("Cancel");
+            cancelButton.addActionListener(new ActionListener()
             {
-                e.printStackTrace();
-            }
+                public void actionPerformed(ActionEvent e)
+                {
+                    importer.cancelAll();
+                }
+            });
+            this.add(cancelButton, BorderLayout.EAST);
+
+            this.setVisible(false);
         }
 
-        /**
-         * Parse the KML document.
-         *
-         * @return The parsed document.
-         *
-         * @throws IOException        if the document cannot be read.
-         * @throws XMLStreamException if document cannot be parsed.
-         */
-        protected KMLRoot parse() throws IOException, XMLStreamException
+        public void changed(KmlImporter.Import item, int finished, int total)
         {
-            // KMLRoot.createAndParse will attempt to parse the document using a namespace aware parser, but if that
-            // fails due to a parsing error it will try again using a namespace unaware parser. Note that this second
-            // step may require the document to be read from the network again if the kmlSource is a stream.
-            return KMLRoot.createAndParse(this.kmlSource);
+            this.progressBar.setMaximum(total);
+            this.progressBar.setValue(finished);
+            this.progressBar.setString("Opened " + finished + " of " + total + ", " + item.getName() + " "
+                + item.getState().name().toLowerCase());
+            this.setVisible(finished < total);
         }
     }
 
-    protected static String formName(Object kmlSource, KMLRoot kmlRoot)
+    // asks which folder and how to group it, then solves it off the EDT
+    private static void chooseAndSolve(final AppFrame appFrame, final File file, Map<String, Integer> folders)
     {
-        KMLAbstractFeature rootFeature = kmlRoot.getFeature();
-
-        if (rootFeature != null && !WWUtil.isEmpty(rootFeature.getName()))
-            return rootFeature.getName();
-
-        if (kmlSource instanceof File)
-            return ((File) kmlSource).getName();
-
-        if (kmlSource instanceof URL)
-            return ((URL) kmlSource).getPath();
+        if (folders.isEmpty())
+        {
+            JOptionPane.showMessageDialog(appFrame, "There are no points or lines in " + file.getName() + ".");
+            return;
+        }
 
-        if (kmlSource instanceof String && WWIO.makeURL((String) kmlSource) != null)
-            return WWIO.makeURL((String) kmlSource).getPath();
+        final List<String> paths = new ArrayList<String>(folders.keySet());
+        String[] folderNames = new String[paths.size()];
+        for (int i = 0; i < folderNames.length; i++)
+        {
+            String path = paths.get(i);
+            folderNames[i] = (path.isEmpty() ? "(top level)" : path) + ", " + folders.get(path) + " points";
+        }
+        JComboBox<String> folderBox = new JComboBox<String>(folderNames);
+        JComboBox<String> groupingBox = new JComboBox<String>(new String[] { "By name, P1 P2 P3 and lines",
+            "Nearest-neighbour triangles" });
+
+        JPanel panel = new JPanel(new GridLayout(0, 1, 0, 5));
+        panel.add(new JLabel("Folder, with the folders in it"));
+        panel.add(folderBox);
+        panel.add(new JLabel("Group the points"));
+        panel.add(groupingBox);
+        if (JOptionPane.showConfirmDialog(appFrame, panel, "Solve Placemarks", JOptionPane.OK_CANCEL_OPTION)
+            != JOptionPane.OK_OPTION)
+            return;
+
+        final String folder = paths.get(folderBox.getSelectedIndex());
+        final PlacemarkSolver.Grouping grouping = groupingBox.getSelectedIndex() == 0
+            ? PlacemarkSolver.Grouping.NAMES : PlacemarkSolver.Grouping.TRIANGLES;
+
+        new Thread(new Runnable()
+        {
+            public void run()
+            {
+                try
+                {
+                    final PlacemarkSolver solver = appFrame.lineBuilder.solvePlacemarks(file, folder, grouping);
+                    SwingUtilities.invokeLater(new Runnable()
+                    {
+                        public void run()
+                        {
+                            JOptionPane.showMessageDialog(appFrame, "Solved " + solver.getSolved() + " from "
+                                + solver.getPointCount() + " points.\n" + solver.getFailed() + " could not be solved, "
+                                + solver.getSkipped() + " points were not in a group.");
+                        }
+                    });
+                }
+                catch (Exception e)
+                {
+                    placemarkError(appFrame, file, e);
+                }
+            }
+        }, "Solve placemarks").start();
+    }
 
-        return "KML Layer";
+    private static void placemarkError(final AppFrame appFrame, final File file, final Exception e)
+    {
+        e.printStackTrace();
+        SwingUtilities.invokeLater(new Runnable()
+        {
+            public void run()
+            {
+                JOptionPane.showMessageDialog(appFrame, "Could not read " + file.getName() + ": " + e.getMessage(),
+                    "Solve Placemarks", JOptionPane.ERROR_MESSAGE);
+            }
+        });
     }
 
     /**
@@ -609,7 +746,7 @@ public class KMLViewer extends ApplicationTemplate
                     {
                         for (File file : fileChooser.getSelectedFiles())
                         {
-                            new WorkerThread(file, appFrame).start();
+                            appFrame.importer.open(file);
                         }
                     }
                 }
@@ -636,7 +773,7 @@ public class KMLViewer extends ApplicationTemplate
                     String status = JOptionPane.showInputDialog(appFrame, "URL");
                     if (!WWUtil.isEmpty(status))
                     {
-                        new WorkerThread(status.trim(), appFrame).start();
+                        appFrame.importer.open(status.trim());
                     }
                 }
                 catch (Exception e)
@@ -647,6 +784,90 @@ public class KMLViewer extends ApplicationTemplate
         });
 
         fileMenu.add(openURLMenuItem);
+
+        // the placemarks of a KML file solved as three point problems, a folder at a time
+        JMenuItem solvePlacemarksMenuItem = new JMenuItem(new AbstractAction("Solve Placemarks...")
+        {
+			private static final long serialVersionUID = -1203387612449208811L;
+
+			public void actionPerformed(ActionEvent actionEvent)
+            {
+                final JFileChooser chooser = new JFileChooser();
+                chooser.setFileFilter(new FileNameExtensionFilter("KML/KMZ File", "kml", "kmz"));
+                if (chooser.showOpenDialog(appFrame) != JFileChooser.APPROVE_OPTION)
+                    return;
+
+                // the folders come from a streaming pass over the file, which can take a while on a big one
+                final File file = chooser.getSelectedFile();
+                new Thread(new Runnable()
+                {
+                    public void run()
+                    {
+                        try
+                        {
+                            final Map<String, Integer> folders = PlacemarkReader.listFolders(file);
+                            SwingUtilities.invokeLater(new Runnable()
+                            {
+                                public void run()
+                                {
+                                    chooseAndSolve(appFrame, file, folders);
+                                }
+                            });
+                        }
+                        catch (Exception e)
+                        {
+                            placemarkError(appFrame, file, e);
+                        }
+                    }
+                }, "Placemark folders").start();
+            }
+        });
+
+        fileMenu.add(solvePlacemarksMenuItem);
+        
+        // sessions are kept as they are worked on, these open an old one or keep a copy of this one
+        final JFileChooser sessionChooser = new JFileChooser();
+        sessionChooser.setFileFilter(new FileNameExtensionFilter("3PP Session", "3pps"));
+        
+        fileMenu.addSeparator();
+        
+        JMenuItem openSessionMenuItem = new JMenuItem(new AbstractAction("Open Session...")
+        {
+			private static final long serialVersionUID = 6318470912751330411L;
+
+			public void actionPerformed(ActionEvent actionEvent)
+            {
+            	// starts where every run keeps its session, to find the last one after a crash
+            	File current = appFrame.lineBuilder.getSessionFile();
+            	if (current != null && sessionChooser.getSelectedFile() == null)
+            		sessionChooser.setCurrentDirectory(current.getAbsoluteFile().getParentFile());
+                if (sessionChooser.showOpenDialog(appFrame) == JFileChooser.APPROVE_OPTION)
+                {
+                    appFrame.lineBuilder.openSession(sessionChooser.getSelectedFile());
+                }
+            }
+        });
+        
+        fileMenu.add(openSessionMenuItem);
+        
+        JMenuItem saveSessionMenuItem = new JMenuItem(new AbstractAction("Save Session As...")
+        {
+			private static final long serialVersionUID = -4771502861530914862L;
+
+			public void actionPerformed(ActionEvent actionEvent)
+            {
+            	sessionChooser.setSelectedFile(new File("session.3pps"));
+                if (sessionChooser.showSaveDialog(appFrame) == JFileChooser.APPROVE_OPTION)
+                {
+                	File file = sessionChooser.getSelectedFile();
+                	if (!file.getName().contains("."))
+                		file = new File(file.getPath() + ".3pps");
+                    appFrame.lineBuilder.saveSession(file);
+                }
+            }
+        });
+        
+        fileMenu.add(saveSessionMenuItem);
     }
 
 
@@ -0,0 +1,322 @@
+package worldwind3pp;
+
+import gov.nasa.worldwind.avlist.AVKey;
+import gov.nasa.worldwind.layers.RenderableLayer;
+import gov.nasa.worldwind.ogc.kml.KMLAbstractFeature;
+import gov.nasa.worldwind.ogc.kml.KMLRoot;
+import gov.nasa.worldwind.ogc.kml.impl.KMLController;
+import gov.nasa.worldwind.util.WWIO;
+import gov.nasa.worldwind.util.WWUtil;
+import gov.nasa.worldwind.util.layertree.KMLLayerTreeNode;
+
+import java.io.File;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import javax.swing.SwingUtilities;
+
+/**
+ * Opens KML and KMZ documents on a few threads and hands them to the EDT a few at a time.
+ * It used to be one thread per file, so opening two hundred files started two hundred parsers at once and
+ * then queued two hundred layer tree insertions on the EDT in one go. Here the files wait in a queue for one
+ * of a fixed number of threads, and a parser only starts once there is room for its document: no more than
+ * READY documents are parsed and waiting to be added. The layer, its controller and its tree node are built
+ * on the import thread, the EDT only hangs them in the model, and it stops adding after BATCH_MILLIS so the
+ * window keeps repainting and answering clicks between batches.
+ *
+ * Every file is an Import that can be cancelled on its own, or all of them with cancelAll(). The listener
+ * hears on the EDT about each change.
+ *
+ */
+public class KmlImporter {
+
+	public static final int THREADS = Math.max(1, Math.min(4, Runtime.getRuntime().availableProcessors()));
+
+	// parsed and waiting for the EDT, the rest wait before parsing
+	public static final int READY = THREADS * 2;
+
+	// how long the EDT adds documents before it lets other events through
+	private static final long BATCH_MILLIS = 20;
+
+	public enum State { QUEUED, PARSING, WAITING, DONE, FAILED, CANCELLED }
+
+	public interface Listener {
+		// on the EDT, when an import changed state, with how many of the current run were finished then
+		void changed(Import item, int finished, int total);
+	}
+
+	// where the documents go, called on the EDT
+	public interface Target {
+		void add(RenderableLayer layer, KMLLayerTreeNode node);
+	}
+
+	/**
+	 * One file or URL being opened.
+	 */
+	public class Import {
+
+		private final Object source;
+		private volatile State state = State.QUEUED;
+		private volatile Exception error;
+		private Future<?> future;
+
+		private RenderableLayer layer;
+		private KMLLayerTreeNode node;
+
+		Import(Object source)
+		{
+			this.source = source;
+		}
+
+		public Object getSource() {
+			return source;
+		}
+
+		public String getName() {
+			if(source instanceof File)
+				return ((File) source).getName();
+			return source.toString();
+		}
+
+		public State getState() {
+			return state;
+		}
+
+		// why it failed, null unless it did
+		public Exception getError() {
+			return error;
+		}
+
+		//Stops it if it is not added yet, a parse under way is finished and thrown away
+		public void cancel()
+		{
+			if(finish(this, State.CANCELLED))
+				future.cancel(true);
+		}
+	}
+
+	private final Target target;
+	private final List<Listener> listeners = new ArrayList<Listener>();
+
+	private final ExecutorService pool;
+	private final Semaphore ready = new Semaphore(READY);
+	private final ConcurrentLinkedQueue<Import> parsed = new ConcurrentLinkedQueue<Import>();
+	private final AtomicBoolean draining = new AtomicBoolean();
+
+	// the imports since the queue was last empty, guarded by this
+	private final List<Import> run = new ArrayList<Import>();
+	private int finished;
+
+	public KmlImporter(Target target)
+	{
+		this.target = target;
+		this.pool = new ThreadPoolExecutor(THREADS, THREADS, 30, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(),
+				new ThreadFactory() {
+					public Thread newThread(Runnable r) {
+						Thread t = new Thread(r, "KML import");
+						t.setDaemon(true);
+						return t;
+					}
+				});
+		((ThreadPoolExecutor) pool).allowCoreThreadTimeOut(true);
+	}
+
+	public void addListener(Listener listener) {
+		listeners.add(listener);
+	}
+
+	/**
+	 * Queues a document to open, a File, a URL or a String naming either.
+	 */
+	public synchronized Import open(Object source)
+	{
+		if(finished == run.size())
+		{
+			run.clear();
+			finished = 0;
+		}
+
+		final Import item = new Import(source);
+		run.add(item);
+		item.future = pool.submit(new Runnable() {
+			public void run() {
+				load(item);
+			}
+		});
+		fireLater(item);
+		return item;
+	}
+
+	//Cancels everything not added yet
+	public void cancelAll()
+	{
+		List<Import> all;
+		synchronized(this) {
+			all = new ArrayList<Import>(run);
+		}
+		for(Import item : all)
+			item.cancel();
+	}
+
+	// on an import thread
+	private void load(Import item)
+	{
+		try {
+			// back-pressure, wait for the EDT to take a document before parsing another
+			ready.acquire();
+		}
+		catch(InterruptedException e) {
+			return;// cancelled while queued
+		}
+
+		boolean handedOff = false;
+		try {
+			if(!started(item))
+				return;
+
+			KMLRoot root = KMLRoot.createAndParse(item.source);
+			if(root == null)
+				throw new IllegalArgumentException("not a KML or KMZ document: " + item.source);
+			root.setField(AVKey.DISPLAY_NAME, formName(item.source, root));
+
+			// everything but hanging it in the model is done here, off the EDT
+			item.layer = makeLayer(root);
+			item.node = new KMLLayerTreeNode(item.layer, root);
+
+			synchronized(this) {
+				if(item.state != State.PARSING)
+					return;
+				item.state = State.WAITING;
+			}
+			parsed.add(item);
+			handedOff = true;
+			fireLater(item);
+			drainLater();
+		}
+		catch(Exception e) {
+			item.error = e;
+		}
+		finally {
+			// failed, or cancelled while parsing, it does not stay in the run whatever went wrong
+			if(!handedOff)
+			{
+				ready.release();
+				if(finish(item, State.FAILED))
+					System.err.println("Could not open " + item.getName() + ": " + item.error);
+			}
+		}
+	}
+
+	/**
+	 * A layer showing the document through a KMLController, named from its AVKey.DISPLAY_NAME field.
+	 */
+	public static RenderableLayer makeLayer(KMLRoot root)
+	{
+		RenderableLayer layer = new RenderableLayer();
+		layer.setName((String) root.getField(AVKey.DISPLAY_NAME));
+		layer.addRenderable(new KMLController(root));
+		return layer;
+	}
+
+	// the document's own name, or else the file's or the URL's
+	private static String formName(Object source, KMLRoot root)
+	{
+		KMLAbstractFeature rootFeature = root.getFeature();
+
+		if(rootFeature != null && !WWUtil.isEmpty(rootFeature.getName()))
+			return rootFeature.getName();
+
+		if(source instanceof File)
+			return ((File) source).getName();
+
+		if(source instanceof URL)
+			return ((URL) source).getPath();
+
+		if(source instanceof String && WWIO.makeURL((String) source) != null)
+			return WWIO.makeURL((String) source).getPath();
+
+		return "KML Layer";
+	}
+
+	private synchronized boolean started(Import item)
+	{
+		if(item.state != State.QUEUED)
+			return false;
+		item.state = State.PARSING;
+		fireLater(item);
+		return true;
+	}
+
+	// moves an unfinished import to its end state, false if it was already finished
+	private boolean finish(Import item, State state)
+	{
+		synchronized(this) {
+			if(item.state == State.DONE || item.state == State.FAILED || item.state == State.CANCELLED)
+				return false;
+			item.state = state;
+			finished++;
+		}
+		fireLater(item);
+		return true;
+	}
+
+	private void drainLater()
+	{
+		if(draining.compareAndSet(false, true))
+		{
+			SwingUtilities.invokeLater(new Runnable() {
+				public void run() {
+					drain();
+				}
+			});
+		}
+	}
+
+	// on the EDT, adds documents until the time is up and comes back for the rest after other events
+	private void drain()
+	{
+		long end = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(BATCH_MILLIS);
+		Import item;
+		while((item = parsed.poll()) != null)
+		{
+			ready.release();
+			if(finish(item, State.DONE))
+				target.add(item.layer, item.node);
+			item.layer = null;
+			item.node = null;
+
+			if(System.nanoTime() > end)
+				break;
+		}
+
+		draining.set(false);
+		if(!parsed.isEmpty())
+			drainLater();
+	}
+
+	private void fireLater(final Import item)
+	{
+		final int done, total;
+		synchronized(this) {
+			done = finished;
+			total = run.size();
+		}
+		SwingUtilities.invokeLater(new Runnable() {
+			public void run() {
+				for(Listener l : listeners)
+					l.changed(item, done, total);
+			}
+		});
+	}
+
+}
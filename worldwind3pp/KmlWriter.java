@@ -0,0 +1,318 @@
+package worldwind3pp;
+
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+
+/**
+ * Writes KML as it goes, one element at a time, straight to the file. Nothing of the document is kept in
+ * memory but the names of the elements still open, so an export of a hundred thousand placemarks takes no
+ * more memory than one of ten. The output is indented four spaces a level, like the Transformer used to
+ * do it after the whole document had been built as one string.
+ *
+ * close() ends every element still open, so a document only has to be started.
+ *
+ */
+public class KmlWriter implements Closeable {
+
+	public static final String NAMESPACE = "http://www.opengis.net/kml/2.2";
+
+	private static final int BUFFER = 1 << 16;
+
+	private final Writer out;
+	private final ArrayDeque<String> open = new ArrayDeque<String>();
+
+	// the file under out when it was made by create or append, null for any other Writer
+	private final FileChannel channel;
+
+	// an element just started with nothing in it yet, its children go on new lines
+	private boolean inline;
+
+	public KmlWriter(Writer out) throws IOException
+	{
+		this(out, null);
+	}
+
+	private KmlWriter(Writer out, FileChannel channel) throws IOException
+	{
+		this.out = out;
+		this.channel = channel;
+		out.write("<?xml version=\"1.0\" encoding=\"UTF-8\"?>");
+		newLine();
+		out.write("<kml xmlns=\"" + NAMESPACE + "\">");
+		open.push("kml");
+	}
+
+	// carries on inside the elements given, outermost first, with nothing written yet
+	private KmlWriter(FileChannel channel, String[] elements)
+	{
+		this.out = writer(channel);
+		this.channel = channel;
+		open.push("kml");
+		for(String element : elements)
+			open.push(element);
+	}
+
+	//A new file at the path, replacing anything there, written through a buffered channel
+	public static KmlWriter create(File file) throws IOException
+	{
+		FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+				StandardOpenOption.TRUNCATE_EXISTING);
+		return new KmlWriter(writer(channel), channel);
+	}
+
+	/**
+	 * Carries on a file this wrote before. Writing starts at offset, where its closing tags began (see
+	 * getPosition), so nothing before it is read or written again. The elements are the ones that were still
+	 * open there inside kml, outermost first, and close() ends them again after whatever was added.
+	 */
+	public static KmlWriter append(File file, long offset, String... elements) throws IOException
+	{
+		FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.WRITE);
+		try {
+			if(offset > channel.size())
+				throw new IOException(file + " is shorter than the offset to append at");
+			channel.position(offset);
+		}
+		catch(IOException e) {
+			channel.close();
+			throw e;
+		}
+		return new KmlWriter(channel, elements);
+	}
+
+	private static Writer writer(FileChannel channel)
+	{
+		return new BufferedWriter(Channels.newWriter(channel, StandardCharsets.UTF_8.newEncoder(), BUFFER), BUFFER);
+	}
+
+	public void startDocument(String name) throws IOException
+	{
+		start("Document");
+		element("name", name);
+	}
+
+	public void startFolder(String name) throws IOException
+	{
+		start("Folder");
+		element("name", name);
+	}
+
+	//A labelled point on the ground
+	public void writePoint(String name, double lat, double lon) throws IOException
+	{
+		start("Placemark");
+		element("name", name);
+		start("Point");
+		element("coordinates", lon + "," + lat + ",0");
+		end();
+		end();
+	}
+
+	/**
+	 * A symbol's model on the ground, turned and scaled like Google Earth expects.
+	 */
+	public void writeModel(double lat, double lon, double heading, double tilt, double scaleX, double scaleY, String href) throws IOException
+	{
+		start("Placemark");
+		element("name", "Symbol");
+		start("Model", "id", "model_1");
+
+		start("Location");
+		element("longitude", lon);
+		element("latitude", lat);
+		element("altitude", "0");
+		end();
+
+		start("Orientation");
+		element("heading", heading);
+		element("tilt", tilt);
+		element("roll", "0");
+		end();
+
+		start("Scale");
+		element("x", scaleX);
+		element("y", scaleY);
+		element("z", "1");
+		end();
+
+		start("Link");
+		element("href", href);
+		end();
+
+		start("ResourceMap");
+		end();
+
+		end();
+		end();
+	}
+
+	/**
+	 * Limits the element it is in to a box, shown once the box is at least minLodPixels across on screen.
+	 */
+	public void writeRegion(double north, double south, double east, double west, double minLodPixels) throws IOException
+	{
+		start("Region");
+		start("LatLonAltBox");
+		element("north", north);
+		element("south", south);
+		element("east", east);
+		element("west", west);
+		end();
+		start("Lod");
+		element("minLodPixels", minLodPixels);
+		element("maxLodPixels", "-1");
+		end();
+		end();
+	}
+
+	//A link to another KML file that is only loaded once its region is on screen
+	public void writeNetworkLink(String name, String href, double north, double south, double east, double west, double minLodPixels) throws IOException
+	{
+		start("NetworkLink");
+		element("name", name);
+		writeRegion(north, south, east, west, minLodPixels);
+		start("Link");
+		element("href", href);
+		element("viewRefreshMode", "onRegion");
+		end();
+		end();
+	}
+
+	public void start(String tag) throws IOException
+	{
+		start(tag, null, null);
+	}
+
+	//Opens an element with one attribute, or none if the name is null
+	public void start(String tag, String attribute, String value) throws IOException
+	{
+		indent();
+		out.write('<');
+		out.write(tag);
+		if(attribute != null)
+		{
+			out.write(' ');
+			out.write(attribute);
+			out.write("=\"");
+			escape(value);
+			out.write('"');
+		}
+		out.write('>');
+		open.push(tag);
+		inline = true;
+	}
+
+	//Ends the element opened last
+	public void end() throws IOException
+	{
+		String tag = open.pop();
+		if(!inline)
+		{
+			newLine();
+			for(int i = 0; i < open.size(); i++)
+				out.write("    ");
+		}
+		out.write("</");
+		out.write(tag);
+		out.write('>');
+		inline = false;
+	}
+
+	//An element with just text in it, on one line
+	public void element(String tag, String text) throws IOException
+	{
+		indent();
+		out.write('<');
+		out.write(tag);
+		out.write('>');
+		escape(text);
+		out.write("</");
+		out.write(tag);
+		out.write('>');
+		inline = false;
+	}
+
+	public void element(String tag, double value) throws IOException
+	{
+		element(tag, Double.toString(value));
+	}
+
+	//How many elements are open, the kml element is the first
+	public int getDepth() {
+		return open.size();
+	}
+
+	private void indent() throws IOException
+	{
+		newLine();
+		for(int i = 0; i < open.size(); i++)
+			out.write("    ");
+	}
+
+	private void newLine() throws IOException
+	{
+		out.write('\n');
+	}
+
+	private void escape(String text) throws IOException
+	{
+		for(int i = 0; i < text.length(); i++)
+		{
+			char c = text.charAt(i);
+			switch(c)
+			{
+			case '<': out.write("&lt;"); break;
+			case '>': out.write("&gt;"); break;
+			case '&': out.write("&amp;"); break;
+			case '"': out.write("&quot;"); break;
+			default: out.write(c); break;
+			}
+		}
+	}
+
+	public void flush() throws IOException
+	{
+		out.flush();
+	}
+
+	/**
+	 * How many bytes are in the file so far, for a writer made by create or append. Taken just before close()
+	 * it is where the closing tags start, the offset to append at later.
+	 */
+	public long getPosition() throws IOException
+	{
+		if(channel == null)
+			throw new IllegalStateException("not writing to a file");
+		out.flush();
+		return channel.position();
+	}
+
+	//Ends whatever is still open and closes the file
+	public void close() throws IOException
+	{
+		try {
+			while(!open.isEmpty())
+				end();
+			newLine();
+
+			// an append wrote over the old closing tags, anything after the new ones is cut off
+			if(channel != null)
+			{
+				out.flush();
+				channel.truncate(channel.position());
+			}
+		}
+		finally {
+			out.close();
+		}
+	}
+
+}
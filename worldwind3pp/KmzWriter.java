@@ -0,0 +1,339 @@
+package worldwind3pp;
+
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Calendar;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+/**
+ * Writes a KMZ, a zip of doc.kml and the files it links to, compressing on every core.
+ * ZipOutputStream deflates an entry on the one thread writing it, which leaves the other cores idle while a
+ * large doc.kml is squeezed. Here each entry is cut into blocks that are deflated in parallel and joined back
+ * into one deflate stream the way pigz does it: every block but the last ends on a sync flush, and each block
+ * is primed with the last 32K of the one before so the matches across the cut are not lost.
+ *
+ * Only a few blocks are in flight at a time so memory stays the same however big the entry. The entries are
+ * streamed with their sizes and CRC in a data descriptor after the data. There is no zip64, an entry or the
+ * whole file over 4 GB is an error.
+ *
+ */
+public class KmzWriter implements Closeable {
+
+	private static final int BLOCK = 128 * 1024;
+	private static final int DICTIONARY = 32 * 1024;
+	private static final long LIMIT = 0xFFFFFFFFL;
+
+	// bit 3, sizes in a data descriptor after the data, and bit 11, UTF-8 names
+	private static final int FLAGS = 0x0808;
+
+	private final OutputStream out;
+	private final ExecutorService pool;
+	private final int inFlight;
+	private final int level;
+
+	private final List<Entry> entries = new ArrayList<Entry>();
+	private long offset;
+	private EntryStream current;
+
+	private static class Entry {
+		final byte[] name;
+		final long offset;
+		final int time, date;
+		long crc, size, compressed;
+
+		Entry(String name, long offset)
+		{
+			this.name = name.getBytes(StandardCharsets.UTF_8);
+			this.offset = offset;
+
+			Calendar c = Calendar.getInstance();
+			this.time = c.get(Calendar.HOUR_OF_DAY) << 11 | c.get(Calendar.MINUTE) << 5 | c.get(Calendar.SECOND) / 2;
+			this.date = (c.get(Calendar.YEAR) - 1980) << 9 | (c.get(Calendar.MONTH) + 1) << 5 | c.get(Calendar.DAY_OF_MONTH);
+		}
+	}
+
+	public KmzWriter(File file) throws IOException
+	{
+		this(file, Deflater.DEFAULT_COMPRESSION, Runtime.getRuntime().availableProcessors());
+	}
+
+	public KmzWriter(File file, int level, int threads) throws IOException
+	{
+		this.out = new BufferedOutputStream(new FileOutputStream(file), BLOCK);
+		this.level = level;
+		this.inFlight = threads * 2;
+		this.pool = Executors.newFixedThreadPool(threads, new ThreadFactory() {
+			public Thread newThread(Runnable r) {
+				Thread t = new Thread(r, "KMZ deflate");
+				t.setDaemon(true);
+				return t;
+			}
+		});
+	}
+
+	/**
+	 * Starts the next entry and returns the stream to write it to. Closing the stream ends the entry,
+	 * which has to happen before the next one is started.
+	 */
+	public OutputStream startEntry(String name) throws IOException
+	{
+		if(current != null)
+			throw new IOException("the entry " + new String(current.entry.name, StandardCharsets.UTF_8) + " is still open");
+
+		Entry entry = new Entry(name, offset);
+		writeInt(0x04034b50);
+		writeShort(20);
+		writeShort(FLAGS);
+		writeShort(8);// deflated
+		writeShort(entry.time);
+		writeShort(entry.date);
+		writeInt(0);// crc and sizes follow the data
+		writeInt(0);
+		writeInt(0);
+		writeShort(entry.name.length);
+		writeShort(0);
+		write(entry.name, 0, entry.name.length);
+
+		current = new EntryStream(entry);
+		return current;
+	}
+
+	//Copies a file, or a resource on the class path, in as one entry
+	public void addUrl(String name, URL url) throws IOException
+	{
+		try (InputStream in = url.openStream(); OutputStream entry = startEntry(name)) {
+			byte[] buffer = new byte[BLOCK];
+			int n;
+			while((n = in.read(buffer)) > 0)
+				entry.write(buffer, 0, n);
+		}
+	}
+
+	/*
+	 * Cuts what is written into blocks, deflates them on the pool and writes them out in order.
+	 */
+	private class EntryStream extends OutputStream {
+
+		private final Entry entry;
+		private final CRC32 crc = new CRC32();
+		private final ArrayDeque<Future<byte[]>> pending = new ArrayDeque<Future<byte[]>>();
+
+		private byte[] block = new byte[BLOCK];
+		private int length;
+		private byte[] dictionary;
+		private boolean closed;
+
+		EntryStream(Entry entry)
+		{
+			this.entry = entry;
+		}
+
+		@Override
+		public void write(int b) throws IOException
+		{
+			write(new byte[] { (byte) b }, 0, 1);
+		}
+
+		@Override
+		public void write(byte[] b, int off, int len) throws IOException
+		{
+			crc.update(b, off, len);
+			entry.size += len;
+			while(len > 0)
+			{
+				int n = Math.min(len, BLOCK - length);
+				System.arraycopy(b, off, block, length, n);
+				length += n;
+				off += n;
+				len -= n;
+				if(length == BLOCK)
+					submit(false);
+			}
+		}
+
+		private void submit(final boolean last) throws IOException
+		{
+			final byte[] input = block;
+			final int inputLength = length;
+			final byte[] primer = dictionary;
+
+			pending.add(pool.submit(new Callable<byte[]>() {
+				public byte[] call() {
+					return deflate(input, inputLength, primer, last);
+				}
+			}));
+
+			// the next block is primed with the end of this one
+			dictionary = Arrays.copyOfRange(input, Math.max(0, inputLength - DICTIONARY), inputLength);
+			block = new byte[BLOCK];
+			length = 0;
+
+			// back-pressure, the oldest block is written before more are queued
+			while(pending.size() >= inFlight)
+				drain();
+		}
+
+		private void drain() throws IOException
+		{
+			byte[] compressed;
+			try {
+				compressed = pending.remove().get();
+			}
+			catch(InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new IOException("interrupted while compressing", e);
+			}
+			catch(ExecutionException e) {
+				throw new IOException("could not compress", e.getCause());
+			}
+			KmzWriter.this.write(compressed, 0, compressed.length);
+			entry.compressed += compressed.length;
+		}
+
+		@Override
+		public void close() throws IOException
+		{
+			if(closed)
+				return;
+			closed = true;
+
+			submit(true);
+			while(!pending.isEmpty())
+				drain();
+
+			entry.crc = crc.getValue();
+			if(entry.size > LIMIT || entry.compressed > LIMIT)
+				throw new IOException("entry over 4 GB, KMZ export does not write zip64");
+
+			writeInt(0x08074b50);
+			writeInt((int) entry.crc);
+			writeInt((int) entry.compressed);
+			writeInt((int) entry.size);
+
+			entries.add(entry);
+			current = null;
+		}
+	}
+
+	// one block as raw deflate, ending on a byte boundary so the next block's output can follow it
+	private byte[] deflate(byte[] input, int length, byte[] dictionary, boolean last)
+	{
+		Deflater deflater = new Deflater(level, true);
+		try {
+			if(dictionary != null)
+				deflater.setDictionary(dictionary);
+			deflater.setInput(input, 0, length);
+			if(last)
+				deflater.finish();
+
+			byte[] buffer = new byte[length + length / 8 + 64];
+			int n = 0;
+			while(true)
+			{
+				if(n == buffer.length)
+					buffer = Arrays.copyOf(buffer, buffer.length * 2);
+
+				n += deflater.deflate(buffer, n, buffer.length - n, last ? Deflater.NO_FLUSH : Deflater.SYNC_FLUSH);
+
+				// a flush is done when it did not fill the buffer, the last block when the deflater says so
+				if(last ? deflater.finished() : n < buffer.length && deflater.needsInput())
+					break;
+			}
+			return Arrays.copyOf(buffer, n);
+		}
+		finally {
+			deflater.end();
+		}
+	}
+
+	private final byte[] scratch = new byte[4];
+
+	private void writeShort(int v) throws IOException
+	{
+		scratch[0] = (byte) v;
+		scratch[1] = (byte) (v >>> 8);
+		write(scratch, 0, 2);
+	}
+
+	private void writeInt(int v) throws IOException
+	{
+		scratch[0] = (byte) v;
+		scratch[1] = (byte) (v >>> 8);
+		scratch[2] = (byte) (v >>> 16);
+		scratch[3] = (byte) (v >>> 24);
+		write(scratch, 0, 4);
+	}
+
+	private void write(byte[] b, int off, int len) throws IOException
+	{
+		out.write(b, off, len);
+		offset += len;
+	}
+
+	//Writes the central directory and closes the file, an entry still open is ended first
+	public void close() throws IOException
+	{
+		try {
+			if(current != null)
+				current.close();
+
+			long directory = offset;
+			for(Entry e : entries)
+			{
+				writeInt(0x02014b50);
+				writeShort(20);
+				writeShort(20);
+				writeShort(FLAGS);
+				writeShort(8);
+				writeShort(e.time);
+				writeShort(e.date);
+				writeInt((int) e.crc);
+				writeInt((int) e.compressed);
+				writeInt((int) e.size);
+				writeShort(e.name.length);
+				writeShort(0);// extra
+				writeShort(0);// comment
+				writeShort(0);// disk
+				writeShort(0);// internal attributes
+				writeInt(0);// external attributes
+				writeInt((int) e.offset);
+				write(e.name, 0, e.name.length);
+			}
+			long size = offset - directory;
+			if(offset > LIMIT || entries.size() > 0xFFFF)
+				throw new IOException("KMZ over 4 GB or 65535 entries, KMZ export does not write zip64");
+
+			writeInt(0x06054b50);
+			writeShort(0);
+			writeShort(0);
+			writeShort(entries.size());
+			writeShort(entries.size());
+			writeInt((int) size);
+			writeInt((int) directory);
+			writeShort(0);
+		}
+		finally {
+			pool.shutdownNow();
+			out.close();
+		}
+	}
+
+}
@@ -0,0 +1,68 @@
+package worldwind3pp;
+
+import gov.nasa.worldwind.geom.Position;
+import gov.nasa.worldwind.geom.Sector;
+import gov.nasa.worldwind.render.DrawContext;
+import gov.nasa.worldwind.render.PointPlacemark;
+import gov.nasa.worldwind.render.Renderable;
+
+/**
+ * The labels of a pick or solution, only made into placemarks the first time it is in view. Opening a
+ * session with a hundred thousand solutions then only reads their records and the labels are made as they
+ * scroll onto the screen. The symbols go straight into their SymbolBatch.
+ *
+ */
+public class LazySymbol implements Renderable {
+
+	private final Session.Plot plot;
+
+	private PointPlacemark[] placemarks;
+
+	public LazySymbol(Session.Plot plot)
+	{
+		this.plot = plot;
+	}
+
+	public void render(DrawContext dc)
+	{
+		if(placemarks == null && !inView(dc))
+			return;
+
+		for(PointPlacemark pm : getPlacemarks())
+		{
+			pm.render(dc);
+		}
+	}
+
+	private boolean inView(DrawContext dc)
+	{
+		Sector visible = dc.getVisibleSector();
+		return visible == null || visible.containsDegrees(plot.getLatitude(), plot.getLongitude());
+	}
+
+	/**
+	 * The pick's label, and the dip/dipAz label for a solution, made now if they have not been yet.
+	 */
+	public PointPlacemark[] getPlacemarks()
+	{
+		if(placemarks == null)
+		{
+			Position pos = Position.fromDegrees(plot.getLatitude(), plot.getLongitude(), plot.getElevation());
+			PointPlacemark pick = Globe.makePick(pos, plot.getLabel());
+
+			if(plot.isSolution())
+			{
+				Position point2 = Position.fromDegrees(plot.getSymbolLatitude(), plot.getSymbolLongitude(), plot.getSymbolElevation());
+				placemarks = new PointPlacemark[] { Globe.makeValues(point2, plot.getValuesLabel()), pick };
+			}
+			else
+				placemarks = new PointPlacemark[] { pick };
+		}
+		return placemarks;
+	}
+
+	public Session.Plot getPlot() {
+		return plot;
+	}
+
+}
@@ -0,0 +1,232 @@
+package worldwind3pp;
+
+import java.util.Arrays;
+
+/**
+ * Compact store for lots of solutions. Each one is packed into a single long:
+ * strike and dip azimuth as 16 bit fractions of 360 degrees (~0.0055 degree steps),
+ * dip as a 16 bit fraction of 90 degrees (~0.0014 degree steps), the quad code in 2 bits and a bit each
+ * for an angle that came in as NaN, like the dip of a flat triplet.
+ * That is 8 bytes a solution instead of a StrikeDipQuad object and its reference.
+ * Use view() to read them back through the same getters as StrikeDipQuad. pack() and the static getters
+ * work on one long kept somewhere else, like each of Session's plots.
+ *
+ */
+public class PackedResults {
+
+	private static final double ANGLE_STEPS = 65535 / 360.0;
+	private static final double DIP_STEPS = 65535 / 90.0;
+
+	// set when that angle is NaN, above the quad code
+	private static final long STRIKE_NAN = 1L << 50;
+	private static final long DIP_NAN = 1L << 51;
+	private static final long DIP_AZ_NAN = 1L << 52;
+
+	private long[] packed;
+	private int size;
+
+	public PackedResults()
+	{
+		this(16);
+	}
+
+	public PackedResults(int capacity)
+	{
+		packed = new long[Math.max(capacity, 1)];
+	}
+
+	public int size()
+	{
+		return size;
+	}
+
+	//Adds a solution and returns its index
+	public int add(double strike, double dip, double dipAz, byte quad)
+	{
+		if(size == packed.length)
+			packed = Arrays.copyOf(packed, packed.length * 2);
+
+		packed[size] = pack(strike, dip, dipAz, quad);
+		return size++;
+	}
+
+	public int add(StrikeDipResult result)
+	{
+		if(size == packed.length)
+			packed = Arrays.copyOf(packed, packed.length * 2);
+
+		packed[size] = pack(result);
+		return size++;
+	}
+
+	//Adds slots from..to-1 of the arrays the batch solvers write into
+	public void addAll(double[] strike, double[] dip, double[] dipAz, byte[] quad, int from, int to)
+	{
+		int needed = size + (to - from);
+		if(needed > packed.length)
+			packed = Arrays.copyOf(packed, Math.max(needed, packed.length * 2));
+
+		for(int k = from; k < to; k++)
+		{
+			packed[size++] = pack(strike[k], dip[k], dipAz[k], quad[k]);
+		}
+	}
+
+	public void set(int i, double strike, double dip, double dipAz, byte quad)
+	{
+		checkIndex(i);
+		packed[i] = pack(strike, dip, dipAz, quad);
+	}
+
+	//Drops every solution from index size onwards
+	public void truncate(int size)
+	{
+		if(size < 0 || size > this.size)
+			throw new IndexOutOfBoundsException("size " + size + " of " + this.size);
+
+		this.size = size;
+	}
+
+	public void clear()
+	{
+		size = 0;
+	}
+
+	// an ERROR quad has no meaningful angles, they come back as NaN
+	public double getStrike(int i)
+	{
+		checkIndex(i);
+		return strike(packed[i]);
+	}
+
+	public double getDip(int i)
+	{
+		checkIndex(i);
+		return dip(packed[i]);
+	}
+
+	public double getDipAzimuth(int i)
+	{
+		checkIndex(i);
+		return dipAzimuth(packed[i]);
+	}
+
+	public byte getQuadCode(int i)
+	{
+		checkIndex(i);
+		return quadCode(packed[i]);
+	}
+
+	public String getQuad(int i)
+	{
+		return Calculations.quadName(getQuadCode(i));
+	}
+
+	//Returns a reusable flyweight positioned at solution i, move it with at()
+	public View view(int i)
+	{
+		return new View().at(i);
+	}
+
+	//One solution packed the same way as in the store
+	public static long pack(double strike, double dip, double dipAz, byte quad)
+	{
+		if(quad == Calculations.QUAD_ERROR)
+			return (long) Calculations.QUAD_ERROR << 48;
+
+		long s = Double.isNaN(strike) ? STRIKE_NAN : quantize(strike, ANGLE_STEPS, 360);
+		long d = Double.isNaN(dip) ? DIP_NAN : quantize(dip, DIP_STEPS, 90) << 16;
+		long a = Double.isNaN(dipAz) ? DIP_AZ_NAN : quantize(dipAz, ANGLE_STEPS, 360) << 32;
+
+		return s | d | a | ((long) (quad & 0x3) << 48);
+	}
+
+	public static long pack(StrikeDipResult result)
+	{
+		return pack(result.getStrike(), result.getDip(), result.getDipAzimuth(), Calculations.quadCode(result.getQuad()));
+	}
+
+	public static double strike(long p)
+	{
+		return isError(p) || (p & STRIKE_NAN) != 0 ? Double.NaN : (p & 0xFFFF) / ANGLE_STEPS;
+	}
+
+	public static double dip(long p)
+	{
+		return isError(p) || (p & DIP_NAN) != 0 ? Double.NaN : ((p >>> 16) & 0xFFFF) / DIP_STEPS;
+	}
+
+	public static double dipAzimuth(long p)
+	{
+		return isError(p) || (p & DIP_AZ_NAN) != 0 ? Double.NaN : ((p >>> 32) & 0xFFFF) / ANGLE_STEPS;
+	}
+
+	public static byte quadCode(long p)
+	{
+		return (byte) ((p >>> 48) & 0x3);
+	}
+
+	private static long quantize(double value, double steps, double max)
+	{
+		return Math.round(Math.min(Math.max(value, 0), max) * steps);
+	}
+
+	private static boolean isError(long p)
+	{
+		return ((p >>> 48) & 0x3) == Calculations.QUAD_ERROR;
+	}
+
+	private void checkIndex(int i)
+	{
+		if(i < 0 || i >= size)
+			throw new IndexOutOfBoundsException("index " + i + " of " + size);
+	}
+
+	/**
+	 * Flyweight over one slot of the store so existing code can read getStrike/getDip/getQuad
+	 * without an object per solution. at() moves it to another slot.
+	 */
+	public class View implements StrikeDipResult {
+
+		private int index;
+
+		public View at(int i)
+		{
+			checkIndex(i);
+			index = i;
+			return this;
+		}
+
+		public int getIndex()
+		{
+			return index;
+		}
+
+		public double getStrike()
+		{
+			return PackedResults.this.getStrike(index);
+		}
+
+		public double getDip()
+		{
+			return PackedResults.this.getDip(index);
+		}
+
+		public double getDipAzimuth()
+		{
+			return PackedResults.this.getDipAzimuth(index);
+		}
+
+		public String getQuad()
+		{
+			return PackedResults.this.getQuad(index);
+		}
+
+		public String toString(){
+
+			return "Strike: " + getStrike() + "\nDip: " + getDip() + "\nQuad: " + getQuad() + "\nDip-Azimuth: " + getDipAzimuth();
+
+		}
+	}
+
+}
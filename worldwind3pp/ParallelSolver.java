@@ -0,0 +1,157 @@
+package worldwind3pp;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Runs Calculations.solveBatch over a large set of triplets on every core using fork/join.
+ * Each triplet writes only its own output slot so the results come back in input order
+ * and are the same bit for bit as a single threaded solveBatch call.
+ *
+ */
+public class ParallelSolver {
+
+	// below this many triplets a task just solves its range instead of splitting again
+	public static final int DEFAULT_CHUNK = 4096;
+
+	private final ForkJoinPool pool;
+	private final int chunk;
+	private final Calculations calc;
+
+	public ParallelSolver()
+	{
+		this(ForkJoinPool.commonPool(), DEFAULT_CHUNK, new Calculations());
+	}
+
+	public ParallelSolver(ForkJoinPool pool, int chunk, Calculations calc)
+	{
+		if(chunk < 1)
+			throw new IllegalArgumentException("chunk must be at least 1");
+
+		this.pool = pool;
+		this.chunk = chunk;
+		this.calc = calc;
+	}
+
+	/**
+	 * Solves every triplet p1[k], p2[k], p3[k] and writes the result into slot k of the output arrays.
+	 *
+	 * @return the number of triplets solved and how long it took
+	 */
+	public Throughput solve(double[] lat, double[] lon, double[] elev, int[] p1, int[] p2, int[] p3,
+			double[] strikeOut, double[] dipOut, double[] dipAzOut, byte[] quadOut)
+	{
+		return solve(lat, lon, elev, null, p1, p2, p3, strikeOut, dipOut, dipAzOut, quadOut);
+	}
+
+	//Same as above for points that are already prepared
+	public Throughput solve(PreparedPoints prepared, int[] p1, int[] p2, int[] p3,
+			double[] strikeOut, double[] dipOut, double[] dipAzOut, byte[] quadOut)
+	{
+		return solve(null, null, null, prepared, p1, p2, p3, strikeOut, dipOut, dipAzOut, quadOut);
+	}
+
+	private Throughput solve(double[] lat, double[] lon, double[] elev, PreparedPoints prepared,
+			int[] p1, int[] p2, int[] p3, double[] strikeOut, double[] dipOut, double[] dipAzOut, byte[] quadOut)
+	{
+		int n = p1.length;
+		if(p2.length != n || p3.length != n || strikeOut.length < n || dipOut.length < n
+				|| dipAzOut.length < n || quadOut.length < n)
+			throw new IllegalArgumentException("triplet and output arrays must all hold " + n + " entries");
+
+		long start = System.nanoTime();
+		pool.invoke(new SolveTask(lat, lon, elev, prepared, p1, p2, p3, 0, n, strikeOut, dipOut, dipAzOut, quadOut));
+		long elapsed = System.nanoTime() - start;
+
+		return new Throughput(n, elapsed, pool.getParallelism());
+	}
+
+	// splits the triplet range in half until it is below the chunk size, idle workers steal the other halves
+	private class SolveTask extends RecursiveAction {
+
+		private static final long serialVersionUID = -4160253361208839425L;
+
+		private final double[] lat, lon, elev;
+		private final PreparedPoints prepared;// used instead of lat/lon/elev when not null
+		private final int[] p1, p2, p3;
+		private final int from, to;
+		private final double[] strikeOut, dipOut, dipAzOut;
+		private final byte[] quadOut;
+
+		SolveTask(double[] lat, double[] lon, double[] elev, PreparedPoints prepared, int[] p1, int[] p2, int[] p3,
+				int from, int to, double[] strikeOut, double[] dipOut, double[] dipAzOut, byte[] quadOut)
+		{
+			this.lat = lat;
+			this.lon = lon;
+			this.elev = elev;
+			this.prepared = prepared;
+			this.p1 = p1;
+			this.p2 = p2;
+			this.p3 = p3;
+			this.from = from;
+			this.to = to;
+			this.strikeOut = strikeOut;
+			this.dipOut = dipOut;
+			this.dipAzOut = dipAzOut;
+			this.quadOut = quadOut;
+		}
+
+		@Override
+		protected void compute()
+		{
+			if(to - from <= chunk)
+			{
+				if(prepared != null)
+					calc.solveBatch(prepared, p1, p2, p3, from, to, strikeOut, dipOut, dipAzOut, quadOut);
+				else
+					calc.solveBatch(lat, lon, elev, p1, p2, p3, from, to, strikeOut, dipOut, dipAzOut, quadOut);
+				return;
+			}
+
+			int mid = (from + to) >>> 1;
+			invokeAll(new SolveTask(lat, lon, elev, prepared, p1, p2, p3, from, mid, strikeOut, dipOut, dipAzOut, quadOut),
+					new SolveTask(lat, lon, elev, prepared, p1, p2, p3, mid, to, strikeOut, dipOut, dipAzOut, quadOut));
+		}
+	}
+
+	/**
+	 * Object to hold how fast a bulk solve ran
+	 */
+	public static class Throughput {
+
+		private final int triplets;
+		private final long elapsedNanos;
+		private final int threads;
+
+		public Throughput(int triplets, long elapsedNanos, int threads)
+		{
+			this.triplets = triplets;
+			this.elapsedNanos = elapsedNanos;
+			this.threads = threads;
+		}
+
+		public int getTriplets() {
+			return triplets;
+		}
+
+		public long getElapsedNanos() {
+			return elapsedNanos;
+		}
+
+		public int getThreads() {
+			return threads;
+		}
+
+		public double getTripletsPerSecond() {
+			return elapsedNanos == 0 ? 0 : triplets * 1e9 / elapsedNanos;
+		}
+
+		public String toString(){
+
+			return triplets + " triplets in " + (elapsedNanos / 1e6) + " ms on " + threads + " threads ("
+					+ Math.round(getTripletsPerSecond()) + " triplets/s)";
+
+		}
+	}
+
+}
@@ -0,0 +1,269 @@
+package worldwind3pp;
+
+import java.io.BufferedInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayDeque;
+import java.util.Enumeration;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+
+/**
+ * Pulls the Point placemarks and LineString vertices out of a KML or KMZ file in one streaming StAX pass.
+ * KMLRoot builds the whole object tree of a document before anything can be read from it, which for a
+ * survey export of a few hundred thousand placemarks is most of the heap. Here only the placemark being read
+ * is held, its name, geometry and altitude mode, and each point goes to the handler as soon as its
+ * placemark ends. Styles, descriptions and everything else are skipped over.
+ *
+ * Elements are matched by local name so KML 2.0, 2.1, 2.2 and gx: all read the same. A point's folder is
+ * the names of the Documents and Folders it is in, joined with "/".
+ *
+ */
+public class PlacemarkReader {
+
+	public enum AltitudeMode { CLAMP_TO_GROUND, RELATIVE_TO_GROUND, ABSOLUTE }
+
+	public interface Handler {
+		/**
+		 * One Point placemark, or one vertex of a LineString.
+		 * @param line -1 for a point, else which line of the file this is a vertex of, counted from 0
+		 */
+		void point(String folder, String name, double lat, double lon, double alt, AltitudeMode mode, int line);
+	}
+
+	private PlacemarkReader()
+	{
+	}
+
+	/**
+	 * Reads the file, a .kmz is read from its doc.kml or else the first .kml in it.
+	 */
+	public static void read(File file, Handler handler) throws IOException, XMLStreamException
+	{
+		if(!file.getName().toLowerCase().endsWith(".kmz"))
+		{
+			try (InputStream in = new BufferedInputStream(new FileInputStream(file), 1 << 16)) {
+				read(in, handler);
+			}
+			return;
+		}
+
+		try (ZipFile zip = new ZipFile(file)) {
+			ZipEntry doc = zip.getEntry("doc.kml");
+			for(Enumeration<? extends ZipEntry> e = zip.entries(); doc == null && e.hasMoreElements();)
+			{
+				ZipEntry entry = e.nextElement();
+				if(entry.getName().toLowerCase().endsWith(".kml"))
+					doc = entry;
+			}
+			if(doc == null)
+				throw new IOException("no KML document in " + file);
+
+			try (InputStream in = new BufferedInputStream(zip.getInputStream(doc), 1 << 16)) {
+				read(in, handler);
+			}
+		}
+	}
+
+	//The folders with points in them and how many, in the order they first come up
+	public static Map<String, Integer> listFolders(File file) throws IOException, XMLStreamException
+	{
+		final Map<String, Integer> folders = new LinkedHashMap<String, Integer>();
+		read(file, new Handler() {
+			public void point(String folder, String name, double lat, double lon, double alt, AltitudeMode mode, int line) {
+				Integer count = folders.get(folder);
+				folders.put(folder, count == null ? 1 : count + 1);
+			}
+		});
+		return folders;
+	}
+
+	public static void read(InputStream in, Handler handler) throws XMLStreamException
+	{
+		XMLInputFactory factory = XMLInputFactory.newInstance();
+		factory.setProperty(XMLInputFactory.SUPPORT_DTD, false);
+		factory.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, false);
+		XMLStreamReader xml = factory.createXMLStreamReader(in);
+
+		try {
+			new Pass(xml, handler).run();
+		}
+		finally {
+			xml.close();
+		}
+	}
+
+	/*
+	 * The state of one read, what container and placemark the reader is in.
+	 */
+	private static class Pass {
+
+		private final XMLStreamReader xml;
+		private final Handler handler;
+
+		// names of the Documents and Folders open, and the path they make
+		private final ArrayDeque<String> containers = new ArrayDeque<String>();
+		private final ArrayDeque<Integer> containerDepths = new ArrayDeque<Integer>();
+		private String folder = "";
+
+		// the placemark being read, depth is the element depth of its start tag
+		private int depth, placemarkDepth = -1;
+		private String name;
+		private int lines;
+
+		// the geometry being read, a Point or a LineString
+		private String geometry, coordinates;
+		private AltitudeMode mode;
+
+		Pass(XMLStreamReader xml, Handler handler)
+		{
+			this.xml = xml;
+			this.handler = handler;
+		}
+
+		void run() throws XMLStreamException
+		{
+			while(xml.hasNext())
+			{
+				int event = xml.next();
+				if(event == XMLStreamConstants.START_ELEMENT)
+				{
+					depth++;
+					start(xml.getLocalName());
+				}
+				else if(event == XMLStreamConstants.END_ELEMENT)
+				{
+					end(xml.getLocalName());
+					depth--;
+				}
+			}
+		}
+
+		// getElementText reads to the matching end tag, so the depth goes back down here
+		private String text() throws XMLStreamException
+		{
+			String text = xml.getElementText().trim();
+			depth--;
+			return text;
+		}
+
+		private void start(String tag) throws XMLStreamException
+		{
+			if(tag.equals("Document") || tag.equals("Folder"))
+			{
+				containers.push("");
+				containerDepths.push(depth);
+				updateFolder();
+			}
+			else if(tag.equals("Placemark"))
+			{
+				placemarkDepth = depth;
+				name = "";
+			}
+			else if(tag.equals("name"))
+			{
+				String text = text();
+				if(placemarkDepth == depth)
+					name = text;
+				else if(!containers.isEmpty() && containerDepths.peek() == depth)
+				{
+					containers.pop();
+					containers.push(text);
+					updateFolder();
+				}
+			}
+			else if(placemarkDepth >= 0 && (tag.equals("Point") || tag.equals("LineString")))
+			{
+				geometry = tag;
+				coordinates = null;
+				mode = AltitudeMode.CLAMP_TO_GROUND;
+			}
+			else if(geometry != null && tag.equals("coordinates"))
+				coordinates = text();
+			else if(geometry != null && tag.equals("altitudeMode"))
+			{
+				String text = text();
+				if(text.equals("absolute"))
+					mode = AltitudeMode.ABSOLUTE;
+				else if(text.equals("relativeToGround"))
+					mode = AltitudeMode.RELATIVE_TO_GROUND;
+			}
+		}
+
+		private void end(String tag)
+		{
+			if(tag.equals("Document") || tag.equals("Folder"))
+			{
+				containers.pop();
+				containerDepths.pop();
+				updateFolder();
+			}
+			else if(tag.equals("Placemark"))
+				placemarkDepth = -1;
+			else if(tag.equals(geometry))
+			{
+				if(coordinates != null)
+					emit(geometry.equals("LineString") ? lines++ : -1);
+				geometry = null;
+			}
+		}
+
+		// the path from the outermost container in
+		private void updateFolder()
+		{
+			StringBuilder path = new StringBuilder();
+			for(Iterator<String> i = containers.descendingIterator(); i.hasNext();)
+			{
+				if(path.length() > 0)
+					path.append('/');
+				path.append(i.next());
+			}
+			folder = path.toString();
+		}
+
+		// coordinates are lon,lat[,alt] tuples split by whitespace, a point only has the first one
+		private void emit(int line)
+		{
+			int p = 0, n = coordinates.length();
+			while(p < n)
+			{
+				while(p < n && Character.isWhitespace(coordinates.charAt(p)))
+					p++;
+				int end = p;
+				while(end < n && !Character.isWhitespace(coordinates.charAt(end)))
+					end++;
+				if(end == p)
+					break;
+
+				String[] values = coordinates.substring(p, end).split(",");
+				p = end;
+				if(values.length < 2)
+					continue;
+
+				try {
+					double lon = Double.parseDouble(values[0]);
+					double lat = Double.parseDouble(values[1]);
+					double alt = values.length > 2 ? Double.parseDouble(values[2]) : 0;
+					handler.point(folder, name, lat, lon, alt, mode, line);
+				}
+				catch(NumberFormatException e) {
+					continue;// a broken tuple is skipped like Google Earth does
+				}
+
+				if(line < 0)
+					break;
+			}
+		}
+	}
+
+}
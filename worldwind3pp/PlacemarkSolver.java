@@ -0,0 +1,337 @@
+package worldwind3pp;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import javax.xml.stream.XMLStreamException;
+
+/**
+ * Solves three point problems straight from the placemarks of a KML or KMZ file, read with PlacemarkReader
+ * so even a very large file never has its whole object tree in memory. Only the points of the chosen folder,
+ * and the folders under it, are kept, packed into arrays.
+ *
+ * The points are grouped one of two ways:
+ * NAMES, by the number at the end of their names. Placemarks one after another in the same folder whose
+ * names only differ by a rising number, like "Ridge 1", "Ridge 2", "Ridge 3" or the P1, P2, P3 this program
+ * exports, are one group; the numbering starting again starts a new one. Each LineString is a group of its
+ * own vertices. A group of three is solved as a triplet, a bigger one gets a best-fit plane.
+ * TRIANGLES, every point and vertex is Delaunay triangulated into a StrikeDipField and each triangle solved.
+ *
+ * Clamped points take their elevation from the elevation model, all of them in one query, relative points
+ * have their altitude added to it and absolute points keep theirs. The triplets are solved together on
+ * every core through ParallelSolver.
+ *
+ */
+public class PlacemarkSolver {
+
+	public enum Grouping { NAMES, TRIANGLES }
+
+	// the rising number at the end of a name, and what comes before it
+	private static final Pattern NUMBERED = Pattern.compile("(.*?)[\\s_#-]*(\\d{1,9})");
+
+	private final Grouping grouping;
+	private final String folder;
+
+	// the points kept, packed
+	private double[] lat = new double[1024], lon = new double[1024], elev = new double[1024];
+	private byte[] modes = new byte[1024];
+	private int count;
+
+	// NAMES only, group g is points groupStart[g] up to groupStart[g+1]
+	private int[] groupStart = new int[256];
+	private int groups;
+
+	// the group being read and how it was named, the line it came from or -1
+	private String groupName;
+	private int groupNumber, groupLine = -1;
+
+	private int unnamed;// points in no group
+	private int skipped, solved, failed;
+	private boolean elevated;
+
+	private final List<Session.Plot> plots = new ArrayList<Session.Plot>();
+
+	/**
+	 * Reads the points of the folder, null or "" for the whole file.
+	 */
+	public PlacemarkSolver(File file, String folder, Grouping grouping) throws IOException, XMLStreamException
+	{
+		this.grouping = grouping;
+		this.folder = folder == null ? "" : folder;
+
+		PlacemarkReader.read(file, new PlacemarkReader.Handler() {
+			public void point(String folder, String name, double lat, double lon, double alt, PlacemarkReader.AltitudeMode mode, int line) {
+				add(folder, name, lat, lon, alt, mode, line);
+			}
+		});
+		groupStart[groups] = count;
+	}
+
+	private void add(String pointFolder, String name, double pointLat, double pointLon, double alt,
+			PlacemarkReader.AltitudeMode mode, int line)
+	{
+		if(!pointFolder.equals(folder) && !(folder.isEmpty() || pointFolder.startsWith(folder + "/")))
+			return;
+
+		if(grouping == Grouping.NAMES && !group(pointFolder, name, line))
+		{
+			unnamed++;
+			return;
+		}
+
+		if(count == lat.length)
+		{
+			lat = Arrays.copyOf(lat, count * 2);
+			lon = Arrays.copyOf(lon, count * 2);
+			elev = Arrays.copyOf(elev, count * 2);
+			modes = Arrays.copyOf(modes, count * 2);
+		}
+		lat[count] = pointLat;
+		lon[count] = pointLon;
+		elev[count] = alt;
+		modes[count] = (byte) mode.ordinal();
+		count++;
+	}
+
+	// works out the point's group by its name or line, false if it has none
+	private boolean group(String pointFolder, String name, int line)
+	{
+		if(line >= 0)
+		{
+			if(line != groupLine)
+				startGroup(null, 0, line);
+			return true;
+		}
+
+		Matcher m = NUMBERED.matcher(name.trim());
+		if(!m.matches())
+		{
+			groupName = null;
+			return false;
+		}
+
+		String key = pointFolder + "/" + m.group(1);
+		int number = Integer.parseInt(m.group(2));
+		if(groupLine >= 0 || !key.equals(groupName) || number <= groupNumber)
+			startGroup(key, number, -1);
+		groupNumber = number;
+		return true;
+	}
+
+	private void startGroup(String name, int number, int line)
+	{
+		if(groups + 1 >= groupStart.length)
+			groupStart = Arrays.copyOf(groupStart, groupStart.length * 2);
+		groupStart[groups++] = count;
+
+		groupName = name;
+		groupNumber = number;
+		groupLine = line;
+	}
+
+	/**
+	 * Looks up the elevations and solves every group or triangle, the plots are ready once this returns.
+	 * This waits on the elevation model so it is never called on the event thread.
+	 */
+	public void solve(ElevationService elevations, Calculations calc, SymbolLibrary.Symbol symbol)
+	{
+		if(!elevated)
+			elevate(elevations);
+		elevated = true;
+
+		plots.clear();
+		skipped = unnamed;
+		solved = failed = 0;
+		if(grouping == Grouping.TRIANGLES)
+			solveTriangles(calc, symbol);
+		else
+			solveGroups(calc, symbol);
+	}
+
+	// the ground under every point that is not absolute, in one query
+	private void elevate(ElevationService elevations)
+	{
+		int[] index = new int[count];
+		int n = 0;
+		for(int i = 0; i < count; i++)
+			if(modes[i] != PlacemarkReader.AltitudeMode.ABSOLUTE.ordinal())
+				index[n++] = i;
+
+		double[] qLat = new double[n], qLon = new double[n], ground = new double[n];
+		for(int j = 0; j < n; j++)
+		{
+			qLat[j] = lat[index[j]];
+			qLon[j] = lon[index[j]];
+		}
+		elevations.getElevations(qLat, qLon, ground, n, true);
+
+		for(int j = 0; j < n; j++)
+		{
+			int i = index[j];
+			elev[i] = modes[i] == PlacemarkReader.AltitudeMode.RELATIVE_TO_GROUND.ordinal() ? ground[j] + elev[i] : ground[j];
+		}
+	}
+
+	private void solveGroups(Calculations calc, SymbolLibrary.Symbol symbol)
+	{
+		// the triplets all go to the solver at once
+		int triplets = 0;
+		for(int g = 0; g < groups; g++)
+			if(groupStart[g + 1] - groupStart[g] == 3)
+				triplets++;
+
+		int[] p1 = new int[triplets], p2 = new int[triplets], p3 = new int[triplets];
+		for(int g = 0, t = 0; g < groups; g++)
+		{
+			int s = groupStart[g];
+			if(groupStart[g + 1] - s == 3)
+			{
+				p1[t] = s;
+				p2[t] = s + 1;
+				p3[t] = s + 2;
+				t++;
+			}
+		}
+
+		double[] strike = new double[triplets], dip = new double[triplets], dipAz = new double[triplets];
+		byte[] quad = new byte[triplets];
+		new ParallelSolver(ForkJoinPool.commonPool(), ParallelSolver.DEFAULT_CHUNK, calc)
+				.solve(lat, lon, elev, p1, p2, p3, strike, dip, dipAz, quad);
+
+		// the plots in file order, each group's picks then its solution, like they had been picked
+		for(int g = 0, t = 0; g < groups; g++)
+		{
+			int s = groupStart[g], size = groupStart[g + 1] - s;
+			if(size < 3)
+			{
+				skipped += size;
+				continue;
+			}
+
+			for(int i = 0; i < size - 1; i++)
+				plots.add(new Session.Plot("P" + (i + 1), lat[s + i], lon[s + i], elev[s + i], false, i + 1));
+
+			int last = s + size - 1;
+			StrikeDipQuad results;
+			double symbolLat, symbolLon, symbolElev;
+			if(size == 3)
+			{
+				results = quad[t] == Calculations.QUAD_ERROR ? null
+						: new StrikeDipQuad(strike[t], dip[t], dipAz[t], Calculations.quadName(quad[t]));
+				t++;
+
+				// the symbol goes on the second point like a picked triplet's
+				symbolLat = lat[s + 1];
+				symbolLon = lon[s + 1];
+				symbolElev = elev[s + 1];
+			}
+			else
+			{
+				PlaneFit fit = new PlaneFit();
+				symbolLat = symbolLon = symbolElev = 0;
+				for(int i = s; i <= last; i++)
+				{
+					fit.add(lat[i], lon[i], elev[i]);
+					symbolLat += lat[i] / size;
+					symbolLon += lon[i] / size;
+					symbolElev += elev[i] / size;
+				}
+				results = fit.solve();
+			}
+
+			plotSolution(results, symbol, "P" + size, size, lat[last], lon[last], elev[last],
+					symbolLat, symbolLon, symbolElev, scale(calc, s, last + 1));
+		}
+	}
+
+	private void solveTriangles(Calculations calc, SymbolLibrary.Symbol symbol)
+	{
+		for(int i = 0; i < count; i++)
+			plots.add(new Session.Plot("P" + (i + 1), lat[i], lon[i], elev[i], false, i + 1));
+
+		StrikeDipField field = new StrikeDipField(Arrays.copyOf(lat, count), Arrays.copyOf(lon, count),
+				Arrays.copyOf(elev, count), calc);
+
+		// each triangle's solution sits at its centroid
+		int[] corners = new int[3];
+		for(int t = 0; t < field.size(); t++)
+		{
+			StrikeDipQuad results = field.getQuadCode(t) == Calculations.QUAD_ERROR ? null
+					: new StrikeDipQuad(field.getStrike(t), field.getDip(t), field.getDipAzimuth(t), field.getQuad(t));
+			double cLat = field.getCentroidLatitude(t), cLon = field.getCentroidLongitude(t), cElev = field.getCentroidElevation(t);
+
+			corners[0] = field.getPoint1(t);
+			corners[1] = field.getPoint2(t);
+			corners[2] = field.getPoint3(t);
+			plotSolution(results, symbol, "P3", 3, cLat, cLon, cElev, cLat, cLon, cElev, scale(calc, corners));
+		}
+	}
+
+	private void plotSolution(StrikeDipQuad results, SymbolLibrary.Symbol symbol, String label, int number,
+			double plotLat, double plotLon, double plotElev, double symbolLat, double symbolLon, double symbolElev, double scale)
+	{
+		// a solve that failed is left out, its points are still plotted
+		if(results == null)
+		{
+			failed++;
+			return;
+		}
+
+		plots.add(new Session.Plot(label, plotLat, plotLon, plotElev, false, number,
+				results, symbol, symbolLat, symbolLon, symbolElev, scale));
+		solved++;
+	}
+
+	// the symbol size the picker uses, a tenth of the distance from the highest point to the lowest
+	private double scale(Calculations calc, int from, int to)
+	{
+		int[] points = new int[to - from];
+		for(int i = 0; i < points.length; i++)
+			points[i] = from + i;
+		return scale(calc, points);
+	}
+
+	private double scale(Calculations calc, int[] points)
+	{
+		int high = points[0], low = points[0];
+		for(int i : points)
+		{
+			if(elev[i] > elev[high])
+				high = i;
+			if(elev[i] < elev[low])
+				low = i;
+		}
+		return calc.calcDistance(lat[high], lon[high], lat[low], lon[low]) / 10;
+	}
+
+	//The picks and solutions to plot, in order
+	public List<Session.Plot> getPlots() {
+		return plots;
+	}
+
+	//Points read from the folder
+	public int getPointCount() {
+		return count;
+	}
+
+	//Points that were in no group, or a group too small to solve
+	public int getSkipped() {
+		return skipped;
+	}
+
+	public int getSolved() {
+		return solved;
+	}
+
+	//Groups or triangles that could not be solved, flat or in a line
+	public int getFailed() {
+		return failed;
+	}
+
+}
@@ -0,0 +1,174 @@
+package worldwind3pp;
+
+/**
+ * Least squares best-fit plane through any number of picks.
+ * Only running moment sums are kept, so adding or removing a point and getting the new strike/dip
+ * and residual are all constant time no matter how many points are in the fit.
+ * The plane is fit as elevation = a*east + b*north + c, which is what you want for contacts
+ * picked off the terrain (it cannot represent a truly vertical plane).
+ *
+ */
+public class PlaneFit {
+
+	private final Calculations calc = new Calculations();
+
+	// the first point added is the origin of the local east/north/up grid, metres per degree there
+	private double lat0, lon0, elev0, mPerLat, mPerLon;
+	private boolean hasOrigin = false;
+
+	// running sums of the local coordinates
+	private int n;
+	private double sx, sy, sz, sxx, sxy, syy, sxz, syz, szz;
+
+	// fit from the last call to fit(), z = a*x + b*y + c
+	private double a, b, c;
+
+	public void add(double lat, double lon, double elev)
+	{
+		if(!hasOrigin)
+		{
+			double R = 6371 * 1000; // km to m
+			lat0 = lat;
+			lon0 = lon;
+			elev0 = elev;
+			mPerLat = Math.toRadians(1) * R;
+			mPerLon = mPerLat * Math.cos(Math.toRadians(lat));
+			hasOrigin = true;
+		}
+
+		accumulate(lat, lon, elev, 1);
+	}
+
+	//Takes a point back out of the fit. It has to be a point that was added before.
+	public void remove(double lat, double lon, double elev)
+	{
+		if(n == 0)
+			throw new IllegalStateException("no points in the fit");
+
+		accumulate(lat, lon, elev, -1);
+
+		if(n == 0)
+			clear();
+	}
+
+	public void clear()
+	{
+		n = 0;
+		sx = sy = sz = sxx = sxy = syy = sxz = syz = szz = 0;
+		a = b = c = 0;
+		hasOrigin = false;
+	}
+
+	public int getCount()
+	{
+		return n;
+	}
+
+	private void accumulate(double lat, double lon, double elev, int sign)
+	{
+		double x = (lon - lon0) * mPerLon;
+		double y = (lat - lat0) * mPerLat;
+		double z = elev - elev0;
+
+		n += sign;
+		sx += sign * x;
+		sy += sign * y;
+		sz += sign * z;
+		sxx += sign * x * x;
+		sxy += sign * x * y;
+		syy += sign * y * y;
+		sxz += sign * x * z;
+		syz += sign * y * z;
+		szz += sign * z * z;
+	}
+
+	/**
+	 * Solves the normal equations from the current sums.
+	 *
+	 * @return false if there are fewer than three points or they are all in a line
+	 */
+	public boolean fit()
+	{
+		if(n < 3)
+			return false;
+
+		// centred moments
+		double mx = sx / n, my = sy / n, mz = sz / n;
+		double cxx = sxx - n * mx * mx;
+		double cxy = sxy - n * mx * my;
+		double cyy = syy - n * my * my;
+		double cxz = sxz - n * mx * mz;
+		double cyz = syz - n * my * mz;
+
+		double det = cxx * cyy - cxy * cxy;
+		if(det <= 1e-12 * (cxx * cyy))
+			return false;
+
+		a = (cxz * cyy - cyz * cxy) / det;
+		b = (cyz * cxx - cxz * cxy) / det;
+		c = mz - a * mx - b * my;
+
+		return true;
+	}
+
+	//Writes strike, dip, dip azimuth and quad of the fitted plane into slot i, call fit() first
+	public void solve(double[] strikeOut, double[] dipOut, double[] dipAzOut, byte[] quadOut, int i)
+	{
+		// the normal of z = ax + by + c is (-a, -b, 1) in east, north, up
+		calc.writeNormal(-a, -b, 1, strikeOut, dipOut, dipAzOut, quadOut, i);
+	}
+
+	//Same as above but as an object, returns null if the points do not define a plane yet
+	public StrikeDipQuad solve()
+	{
+		if(!fit())
+			return null;
+
+		double[] strike = new double[1];
+		double[] dip = new double[1];
+		double[] dipaz = new double[1];
+		byte[] quad = new byte[1];
+
+		solve(strike, dip, dipaz, quad, 0);
+
+		return new StrikeDipQuad(strike[0], dip[0], dipaz[0], Calculations.quadName(quad[0]));
+	}
+
+	/**
+	 * How far the points spread across the line that best fits them in plan, as a fraction of how far they
+	 * spread along it, from 0 for points in a line to 1 for points spread evenly. Points that are nearly in a
+	 * line fit a plane in name only, any noise in their elevations tilts it about that line.
+	 */
+	public double getPlanSpread()
+	{
+		if(n < 3)
+			return 0;
+
+		double mx = sx / n, my = sy / n;
+		double cxx = sxx - n * mx * mx;
+		double cxy = sxy - n * mx * my;
+		double cyy = syy - n * my * my;
+
+		// square root of the ratio of the eigenvalues of the plan covariance
+		double half = (cxx + cyy) / 2;
+		double root = Math.sqrt((cxx - cyy) * (cxx - cyy) / 4 + cxy * cxy);
+		if(!(half + root > 0))
+			return 0;
+		return Math.sqrt(Math.max(half - root, 0) / (half + root));
+	}
+
+	//Root mean square vertical distance of the points from the fitted plane in metres, call fit() first
+	public double getRmsResidual()
+	{
+		if(n < 3)
+			return 0;
+
+		// sum of (z - ax - by - c)^2 expanded in terms of the sums
+		double sse = szz + a * a * sxx + b * b * syy + n * c * c
+				- 2 * a * sxz - 2 * b * syz - 2 * c * sz
+				+ 2 * a * b * sxy + 2 * a * c * sx + 2 * b * c * sy;
+
+		return Math.sqrt(Math.max(sse, 0) / n);
+	}
+
+}
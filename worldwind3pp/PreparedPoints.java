@@ -0,0 +1,77 @@
+package worldwind3pp;
+
+/**
+ * Points with their trig already worked out.
+ * When the same point is used in lots of triplets (a triangulated point cloud uses each vertex about
+ * six times) the radians, sin/cos of latitude and longitude and the earth centred unit vector are
+ * computed once here instead of for every pair in calcDistance and calcBearing.
+ *
+ */
+public class PreparedPoints {
+
+	final double[] lat, lon, elev;
+	final double[] sinLat, cosLat, sinLon, cosLon;
+
+	// earth centred unit vector of each point
+	final double[] x, y, z;
+
+	public PreparedPoints(int capacity)
+	{
+		lat = new double[capacity];
+		lon = new double[capacity];
+		elev = new double[capacity];
+		sinLat = new double[capacity];
+		cosLat = new double[capacity];
+		sinLon = new double[capacity];
+		cosLon = new double[capacity];
+		x = new double[capacity];
+		y = new double[capacity];
+		z = new double[capacity];
+	}
+
+	public PreparedPoints(double[] lat, double[] lon, double[] elev)
+	{
+		this(lat.length);
+
+		for(int i = 0; i < lat.length; i++)
+			set(i, lat[i], lon[i], elev[i]);
+	}
+
+	public void set(int i, double lat, double lon, double elev)
+	{
+		double latRad = Math.toRadians(lat);
+		double lonRad = Math.toRadians(lon);
+
+		this.lat[i] = lat;
+		this.lon[i] = lon;
+		this.elev[i] = elev;
+		sinLat[i] = Math.sin(latRad);
+		cosLat[i] = Math.cos(latRad);
+		sinLon[i] = Math.sin(lonRad);
+		cosLon[i] = Math.cos(lonRad);
+		x[i] = cosLat[i] * cosLon[i];
+		y[i] = cosLat[i] * sinLon[i];
+		z[i] = sinLat[i];
+	}
+
+	public int size()
+	{
+		return lat.length;
+	}
+
+	public double getLatitude(int i)
+	{
+		return lat[i];
+	}
+
+	public double getLongitude(int i)
+	{
+		return lon[i];
+	}
+
+	public double getElevation(int i)
+	{
+		return elev[i];
+	}
+
+}
@@ -0,0 +1,1333 @@
+package worldwind3pp;
+
+import gov.nasa.worldwind.util.Logging;
+
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+
+import javax.xml.stream.XMLStreamException;
+
+/**
+ * The picks, solutions and results of one mapping session, without a WorldWindow. Globe feeds it the
+ * clicks and draws what it plots, but the same picking, solving, undo, session file and export can be run
+ * on a server with no OpenGL by calling pick() with coordinates.
+ *
+ * Every method can be called from any thread. Picks are numbered and captured straight away, then solved
+ * on the pipeline's worker and applied there in the order they were made, under the session's lock. The
+ * listeners are called with the lock held, on whichever thread made the change, so they must not block;
+ * Globe hands each change on to the event thread.
+ *
+ */
+public class Session implements Closeable {
+
+	/**
+	 * Told about everything plotted and every change of the results, in order.
+	 */
+	public interface Listener {
+
+		//A pick or solution was plotted, or put back by redo
+		void plotted(Plot plot);
+
+		//The last plot was taken back off by undo
+		void unplotted(Plot plot);
+
+		//Everything plotted is gone
+		void cleared();
+
+		//Everything plotted was replaced by an opened session file
+		void opened(List<Plot> plots);
+
+		void resultsChanged(Results results);
+
+		//A pick's solve or symbol load threw, whatever it managed is still plotted
+		void failed(String label, Exception e);
+	}
+
+	/**
+	 * One pick, or a solved triplet: its third pick, and the symbol at its second. Never changed once made.
+	 * A solution's strike, dip, dip azimuth and quad are one long packed by PackedResults, not a StrikeDipQuad,
+	 * and only unpacked when they are read.
+	 */
+	public static final class Plot {
+
+		private final String label;
+		private final double lat, lon, elev;
+		private final boolean fit;
+		private final int number;
+
+		// solutions only
+		private final boolean solution;
+		private final long results;
+		private final SymbolLibrary.Symbol symbol;
+		private final double lat2, lon2, elev2, scale;
+
+		Plot(String label, double lat, double lon, double elev, boolean fit, int number)
+		{
+			this(label, lat, lon, elev, fit, number, null, null, 0, 0, 0, 0);
+		}
+
+		Plot(String label, double lat, double lon, double elev, boolean fit, int number,
+				StrikeDipResult results, SymbolLibrary.Symbol symbol, double lat2, double lon2, double elev2, double scale)
+		{
+			this(label, lat, lon, elev, fit, number, results != null, results == null ? 0 : PackedResults.pack(results),
+					symbol, lat2, lon2, elev2, scale);
+		}
+
+		// a solution already packed by PackedResults.pack
+		Plot(String label, double lat, double lon, double elev, boolean fit, int number,
+				boolean solution, long results, SymbolLibrary.Symbol symbol, double lat2, double lon2, double elev2, double scale)
+		{
+			this.label = label;
+			this.lat = lat;
+			this.lon = lon;
+			this.elev = elev;
+			this.fit = fit;
+			this.number = number;
+			this.solution = solution;
+			this.results = results;
+			this.symbol = symbol;
+			this.lat2 = lat2;
+			this.lon2 = lon2;
+			this.elev2 = elev2;
+			this.scale = scale;
+		}
+
+		public boolean isSolution() {
+			return solution;
+		}
+
+		public String getLabel() {
+			return label;
+		}
+
+		public double getLatitude() {
+			return lat;
+		}
+
+		public double getLongitude() {
+			return lon;
+		}
+
+		public double getElevation() {
+			return elev;
+		}
+
+		public boolean isFit() {
+			return fit;
+		}
+
+		//The pick's point number, or its count in the fit
+		public int getNumber() {
+			return number;
+		}
+
+		public double getStrike() {
+			return PackedResults.strike(results);
+		}
+
+		public double getDip() {
+			return PackedResults.dip(results);
+		}
+
+		public double getDipAzimuth() {
+			return PackedResults.dipAzimuth(results);
+		}
+
+		public byte getQuadCode() {
+			return PackedResults.quadCode(results);
+		}
+
+		//The results unpacked into a new StrikeDipQuad, null for a pick
+		public StrikeDipQuad getResults() {
+			return solution ? new StrikeDipQuad(getStrike(), getDip(), getDipAzimuth(), Calculations.quadName(getQuadCode())) : null;
+		}
+
+		public SymbolLibrary.Symbol getSymbol() {
+			return symbol;
+		}
+
+		//Where the symbol and the dip/dipAz label go, the second pick
+		public double getSymbolLatitude() {
+			return lat2;
+		}
+
+		public double getSymbolLongitude() {
+			return lon2;
+		}
+
+		public double getSymbolElevation() {
+			return elev2;
+		}
+
+		public double getScale() {
+			return scale;
+		}
+
+		// this is the label that holds the 00/000 dip values
+		public String getValuesLabel() {
+			return "" + Math.round(getDip()) + "/" + Math.round(getDipAzimuth());
+		}
+
+		// 3d symbols seem to be off for heading but export correctly.  this makes it correct in World wind
+		// the heading for 2d symbols was off by 180, this fixes it.
+		public double getHeading()
+		{
+			double dipAz = getDipAzimuth();
+			if(!symbol.is3D())
+				return dipAz-180;
+
+			return dipAz-180 < 0 ? dipAz+180 : dipAz-180;
+		}
+
+		public double getPitch() {
+			return symbol.is3D() ? getDip() : 0;
+		}
+
+		//The heading Google Earth wants for the symbol, see getHeading
+		public double getExportHeading()
+		{
+			double heading = getHeading();
+			if(!symbol.is3D())
+				return heading;
+
+			return heading+180 < 360 ? heading+180 : heading-180;
+		}
+	}
+
+	/**
+	 * The results and counts at one moment, read together so they always agree with each other.
+	 */
+	public static final class Results {
+
+		private final double strike, dip, dipAz;
+		private final String quad;
+		private final boolean bestFit, trace, thirdPoint;
+		private final int fitCount, profileWindows, plotted;
+		private final double fitResidual, profileLength;
+
+		Results(Session s)
+		{
+			this.strike = s.strike;
+			this.dip = s.dip;
+			this.dipAz = s.dipaz;
+			this.quad = s.quad;
+			this.bestFit = s.bestFit;
+			this.trace = s.trace;
+			this.thirdPoint = s.scopeIsThirdPoint;
+			this.fitCount = s.planeFit.getCount();
+			this.fitResidual = s.fitResidual;
+			this.profileWindows = s.profile.windows();
+			this.profileLength = s.profile.getLength();
+			this.plotted = s.plots.size();
+		}
+
+		public double getStrike() {
+			return strike;
+		}
+
+		public double getDip() {
+			return dip;
+		}
+
+		public double getDipAzimuth() {
+			return dipAz;
+		}
+
+		//Null until there is a solution
+		public String getQuad() {
+			return quad;
+		}
+
+		public boolean isBestFit() {
+			return bestFit;
+		}
+
+		public boolean isTrace() {
+			return trace;
+		}
+
+		//Whether the last thing plotted was a solution
+		public boolean isThirdPoint() {
+			return thirdPoint;
+		}
+
+		public int getFitCount() {
+			return fitCount;
+		}
+
+		public double getFitResidual() {
+			return fitResidual;
+		}
+
+		public int getProfileWindows() {
+			return profileWindows;
+		}
+
+		public double getProfileLength() {
+			return profileLength;
+		}
+
+		public int getPlotCount() {
+			return plotted;
+		}
+	}
+
+	private final List<Listener> listeners = new CopyOnWriteArrayList<Listener>();
+
+	// picks are solved on a worker and applied there too, under this session's lock
+	private final SolvePipeline pipeline = new SolvePipeline(new Executor() {
+		public void execute(Runnable r) {
+			synchronized(Session.this) {
+				r.run();
+			}
+		}
+	});
+	private final Calculations calc = new Calculations();
+
+	private int numPoints = 1;// the current point number p1,p2,p3
+
+	// store the points of the current triplet, prepared as they are picked
+	private final PreparedPoints picks = new PreparedPoints(3);
+	private double point2Lat, point2Lon;
+
+	// results of the 3pp solver
+	private double strike, dip, dipaz;
+	private String quad;
+	private boolean scopeIsThirdPoint = false;
+
+	private SymbolLibrary.Symbol shape = SymbolLibrary.Symbol.WHITE_CIRCLE;// the default shape
+
+	// everything plotted, in order, and the steps to undo and redo it
+	private final ArrayList<Plot> plots = new ArrayList<Plot>();
+	private final UndoHistory history = new UndoHistory();
+
+	// everything plotted is also appended to the session file as it happens, see openSessionFile
+	private SessionFile session;
+
+	// the last KML export, for appending to it, guarded by exportLock
+	private final Object exportLock = new Object();
+	private Exported exported;
+
+	// best-fit mode fits one plane through every pick instead of solving them in threes
+	private boolean bestFit = false;
+	private final PlaneFit planeFit = new PlaneFit();
+	private final ArrayList<double[]> fitPoints = new ArrayList<double[]>();
+	private double fitResidual = Double.NaN;
+
+	// contact trace mode, the picks are vertices of a line that gets a strike/dip profile along it
+	private boolean trace = false;
+	private final ContactProfile profile;
+
+	// pick and trace elevations from the elevation model, not the terrain drawn at the current zoom
+	private final ElevationService elevations;
+
+	public Session(ElevationService elevations)
+	{
+		this.elevations = elevations;
+
+		// the trace is resampled straight away so it takes the best elevations already loaded
+		this.profile = new ContactProfile(elevations, 5, 9, ContactProfile.Window.BEST_FIT);
+	}
+
+	public void addListener(Listener listener) {
+		listeners.add(listener);
+	}
+
+	public void removeListener(Listener listener) {
+		listeners.remove(listener);
+	}
+
+	/**
+	 * Takes in a picked point. Which point of the triplet it is, or whether it goes into the fit or the trace,
+	 * is worked out now; the solve and the plotting happen on the worker.
+	 */
+	public synchronized void pick(double lat, double lon, double elev)
+	{
+		if(bestFit)
+		{
+			// the pick goes into the fit when it is plotted, once its elevation is known
+			submit(lat, lon, elev, false, new double[][] { { lat }, { lon }, { elev } }, "F");
+			return;
+		}
+
+		if(trace)
+		{
+			profile.addVertex(lat, lon);
+			updateProfileResults();
+			fireResults();
+			return;
+		}
+
+		// the trig for each pick is done once here as it comes in, not again for every pair on the third pick
+		picks.set(numPoints-1, lat, lon, elev);
+
+		if(numPoints == 2)
+		{
+			point2Lat = lat;
+			point2Lon = lon;
+		}
+
+		double[][] picked = null;
+		if(numPoints == 3)
+		{
+			// the job gets its own copy of the picks, the next pick can change them before it runs.
+			// the given elevations are only kept in case the elevation model has nothing better
+			picked = new double[][] {
+				{ picks.getLatitude(0), picks.getLatitude(1), picks.getLatitude(2) },
+				{ picks.getLongitude(0), picks.getLongitude(1), picks.getLongitude(2) },
+				{ picks.getElevation(0), picks.getElevation(1), picks.getElevation(2) } };
+		}
+
+		submit(lat, lon, elev, numPoints == 3, picked, "P" + Integer.toString(numPoints));
+
+		numPoints++;
+
+		if(numPoints > 3)
+			numPoints = 1;
+	}
+
+	private void submit(double lat, double lon, double elev, boolean isThirdPoint, double[][] picked, String label)
+	{
+		pipeline.submit(new PlotJob(lat, lon, elev, isThirdPoint, picked, label, shape));
+	}
+
+	/**
+	 * One pick on its way through the pipeline, made from the state when it was picked.
+	 */
+	private class PlotJob extends SolvePipeline.Job implements UndoHistory.Step {
+
+		private final double lat, lon, elev;
+		private final double lat2, lon2;
+		private final int number;
+		private final boolean isThirdPoint, fit;
+		private final double[][] picked;
+		private final String label;
+		private final SymbolLibrary.Symbol symbol;
+
+		// packed like a Plot's, the job stays in the undo history as long as its plot does
+		private boolean solved;
+		private long results;
+		private double hldist;
+		private Plot plot;
+
+		// what to go back to on undo
+		private boolean hadPrevious;
+		private long previous;
+
+		PlotJob(double lat, double lon, double elev, boolean isThirdPoint, double[][] picked, String label, SymbolLibrary.Symbol symbol)
+		{
+			this.lat = lat;
+			this.lon = lon;
+			this.elev = elev;
+			this.lat2 = point2Lat;
+			this.lon2 = point2Lon;
+			this.isThirdPoint = isThirdPoint;
+			this.fit = !isThirdPoint && picked != null;
+			this.number = numPoints;
+			this.picked = picked;
+			this.label = label;
+			this.symbol = symbol;
+		}
+
+		@Override
+		protected void solve()
+		{
+			if(picked == null)
+				return;
+
+			// the picks' elevations from the elevation model at its best resolution, all in one query
+			elevations.getElevations(picked[0], picked[1], picked[2], picked[0].length, true);
+
+			if(!isThirdPoint)
+				return;
+
+			PreparedPoints points = new PreparedPoints(picked[0], picked[1], picked[2]);
+
+			double[] strikeOut = new double[1], dipOut = new double[1], dipAzOut = new double[1];
+			byte[] quadOut = new byte[1];
+
+			// works out the high, medium, low points and solves
+			double hlDist = calc.solveTriplet(points, 0, 1, 2, strikeOut, dipOut, dipAzOut, quadOut, 0);
+
+			results = PackedResults.pack(strikeOut[0], dipOut[0], dipAzOut[0], quadOut[0]);
+			solved = true;
+
+			// hlDist/10 is arbitrary but the size seems good, if you want to change the default size of the objects change the 10
+			hldist = hlDist/10;
+		}
+
+		// applied on the worker under the session's lock, all the changes for the pick at once
+		@Override
+		protected void apply()
+		{
+			hadPrevious = quad != null;
+			previous = hadPrevious ? PackedResults.pack(strike, dip, dipaz, Calculations.quadCode(quad)) : 0;
+			plot();
+			history.push(this);
+			log();
+			fireResults();
+		}
+
+		@Override
+		protected void failed(Exception e)
+		{
+			for(Listener l : listeners)
+				l.failed(label, e);
+		}
+
+		@Override
+		protected void applied()
+		{
+			Logging.logger().fine(label + ": " + getTimings());
+		}
+
+		private void plot()
+		{
+			if(fit)
+			{
+				double[] point = { picked[0][0], picked[1][0], picked[2][0] };
+				fitPoints.add(point);
+				planeFit.add(point[0], point[1], point[2]);
+				updateFitResults();
+				if(plot == null)
+					plot = new Plot(label + Integer.toString(planeFit.getCount()), point[0], point[1], point[2], true, planeFit.getCount());
+			}
+			else if(!isThirdPoint && plot == null)
+			{
+				plot = new Plot(label, lat, lon, elev, false, number);
+			}
+
+			if(isThirdPoint && solved)
+			{
+				strike = PackedResults.strike(results);
+				dip = PackedResults.dip(results);
+				dipaz = PackedResults.dipAzimuth(results);
+				quad = Calculations.quadName(PackedResults.quadCode(results));
+
+				if(plot == null)
+					plot = new Plot(label, picked[0][2], picked[1][2], picked[2][2], false, number,
+							true, results, symbol, lat2, lon2, picked[2][1], hldist);
+			}
+
+			// a solve that failed only leaves its record in the session
+			if(plot != null)
+			{
+				scopeIsThirdPoint = isThirdPoint;
+				plots.add(plot);
+				for(Listener l : listeners)
+					l.plotted(plot);
+			}
+		}
+
+		// one record in the session for each time this is plotted
+		private void log()
+		{
+			if(session == null)
+				return;
+
+			try {
+				if(isThirdPoint)
+				{
+					// the picks' elevations are the ones the solve used
+					session.writeSolution(picked[0][2], picked[1][2], picked[2][2], lat2, lon2, picked[2][1],
+							solved ? PackedResults.strike(results) : Double.NaN, solved ? PackedResults.dip(results) : Double.NaN,
+							solved ? PackedResults.dipAzimuth(results) : Double.NaN,
+							solved ? PackedResults.quadCode(results) : Calculations.QUAD_ERROR,
+							solved ? symbol : null, hldist);
+				}
+				else if(fit)
+					session.writePick(plot.getLatitude(), plot.getLongitude(), plot.getElevation(), plot.getNumber(), true);
+				else
+					session.writePick(lat, lon, elev, number, false);
+			}
+			catch(IOException e) {
+				sessionError(e);
+			}
+		}
+
+		// steps come off in reverse order so what this plotted is the last plot
+		public void undo()
+		{
+			if(session != null)
+			{
+				try {
+					session.writeUndo();
+				}
+				catch(IOException e) {
+					sessionError(e);
+				}
+			}
+
+			if(plot != null)
+			{
+				plots.remove(plots.size()-1);
+				for(Listener l : listeners)
+					l.unplotted(plot);
+			}
+
+			if(fit)
+			{
+				double[] last = fitPoints.remove(fitPoints.size()-1);
+				planeFit.remove(last[0], last[1], last[2]);
+				updateFitResults();
+			}
+			else
+			{
+				// the next pick is this one's point number again
+				numPoints = number;
+
+				if(isThirdPoint)
+				{
+					quad = hadPrevious ? Calculations.quadName(PackedResults.quadCode(previous)) : null;
+					if(hadPrevious)
+					{
+						strike = PackedResults.strike(previous);
+						dip = PackedResults.dip(previous);
+						dipaz = PackedResults.dipAzimuth(previous);
+					}
+				}
+			}
+
+			fireResults();
+		}
+
+		public void redo()
+		{
+			plot();
+			log();
+
+			if(!fit)
+				numPoints = number % 3 + 1;
+
+			fireResults();
+		}
+	}
+
+	// copy the current fit into the results
+	private void updateFitResults()
+	{
+		StrikeDipQuad results = planeFit.solve();
+		if (results == null)
+		{
+			// fewer than three points or all in a line, there is no fit to have a residual
+			this.quad = null;
+			this.fitResidual = Double.NaN;
+			return;
+		}
+
+		this.dip = results.getDip();
+		this.dipaz = results.getDipAzimuth();
+		this.strike = results.getStrike();
+		this.quad = results.getQuad();
+		this.fitResidual = planeFit.getRmsResidual();
+	}
+
+	// the results are the window at the end of the trace, the one that just changed
+	private void updateProfileResults()
+	{
+		int windows = profile.windows();
+		if (windows == 0 || profile.getQuadCode(windows-1) == Calculations.QUAD_ERROR)
+		{
+			this.quad = null;
+			return;
+		}
+
+		this.dip = profile.getDip(windows-1);
+		this.dipaz = profile.getDipAzimuth(windows-1);
+		this.strike = profile.getStrike(windows-1);
+		this.quad = profile.getQuad(windows-1);
+	}
+
+	/**
+	 * Replaces the trace with a loaded line and solves the profile along it.
+	 */
+	public synchronized void loadTrace(double[] lat, double[] lon)
+	{
+		profile.setTrace(lat, lon);
+		updateProfileResults();
+		fireResults();
+	}
+
+	/**
+	 * Moves one vertex of the trace, the profile is only re-solved around it so this is quick enough
+	 * to call while a vertex is being dragged.
+	 */
+	public synchronized void moveTraceVertex(int index, double lat, double lon)
+	{
+		profile.setVertex(index, lat, lon);
+		updateProfileResults();
+		fireResults();
+	}
+
+	//Writes the profile as distance,lat,lon,strike,dip,dipAzimuth,quad lines
+	public synchronized void exportProfile(String path)
+	{
+		try (Writer writer = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(path), "utf-8"))) {
+			writer.write("distance,lat,lon,strike,dip,dipAzimuth,quad\n");
+			for (int w = 0; w < profile.windows(); w++)
+			{
+				writer.write(profile.getDistance(w) + "," + profile.getLatitude(w) + "," + profile.getLongitude(w) + ","
+						+ profile.getStrike(w) + "," + profile.getDip(w) + "," + profile.getDipAzimuth(w) + ","
+						+ profile.getQuad(w) + "\n");
+			}
+		}
+		catch (IOException e){
+			System.err.println("Writing error.");
+		}
+	}
+
+	/**
+	 * Starts over with nothing plotted, after any picks still in the pipeline so they are cleared too.
+	 */
+	public synchronized void clear()
+	{
+		numPoints = 1;
+
+		if (trace)
+		{
+			profile.clear();
+			this.quad = null;
+			fireResults();
+		}
+
+		pipeline.later(new Runnable() {
+			public void run() {
+				clearFit();
+				clearPlotted();
+
+				if(session != null)
+				{
+					try {
+						session.writeClear();
+					}
+					catch(IOException e) {
+						sessionError(e);
+					}
+				}
+			}
+		});
+	}
+
+	/**
+	 * Takes the last pick or solution back off. Any number of steps can be undone, and redone with
+	 * redo() until something new is plotted. The trace is edited vertex by vertex instead.
+	 */
+	public synchronized void undo()
+	{
+		// the trace has no symbols, just take its last vertex back off
+		if(trace)
+		{
+			if(profile.getVertexCount() == 0)
+				return;
+
+			profile.removeLastVertex();
+			updateProfileResults();
+			fireResults();
+			return;
+		}
+
+		// picks still in the pipeline are plotted and in the history first
+		pipeline.later(new Runnable() {
+			public void run() {
+				history.undo();
+			}
+		});
+	}
+
+	public synchronized void redo()
+	{
+		if(trace)
+			return;
+
+		pipeline.later(new Runnable() {
+			public void run() {
+				history.redo();
+			}
+		});
+	}
+
+	/**
+	 * Solves the placemarks of a folder in a KML or KMZ file and plots them with the current shape, see
+	 * PlacemarkSolver. The file is read and solved on the calling thread, which waits on the elevation model,
+	 * so never call this on the event thread.
+	 */
+	public PlacemarkSolver solvePlacemarks(File file, String folder, PlacemarkSolver.Grouping grouping)
+			throws IOException, XMLStreamException
+	{
+		SymbolLibrary.Symbol symbol;
+		synchronized(this) {
+			symbol = shape;
+		}
+
+		long start = System.nanoTime();
+		PlacemarkSolver solver = new PlacemarkSolver(file, folder, grouping);
+		solver.solve(elevations, calc, symbol);
+		Logging.logger().fine("Solved " + solver.getSolved() + " from " + solver.getPointCount() + " placemark points in "
+				+ (System.nanoTime() - start) / 1000000 + " ms, " + solver.getFailed() + " failed, " + solver.getSkipped() + " skipped");
+
+		plotSolved(solver.getPlots());
+		return solver;
+	}
+
+	/**
+	 * Plots picks and solutions worked out somewhere else as if they had been picked, after anything still
+	 * in the pipeline. They are one step, undone and redone together.
+	 */
+	public void plotSolved(List<Plot> solved)
+	{
+		final List<Plot> added = new ArrayList<Plot>(solved);
+		pipeline.later(new Runnable() {
+			public void run() {
+				UndoHistory.Step step = new UndoHistory.Step() {
+					public void undo() {
+						for(int i = added.size() - 1; i >= 0; i--)
+						{
+							plots.remove(plots.size()-1);
+							for(Listener l : listeners)
+								l.unplotted(added.get(i));
+						}
+
+						if(session == null)
+							return;
+						try {
+							// one undo record for each record written
+							for(int i = 0; i < added.size(); i++)
+								session.writeUndo();
+						}
+						catch(IOException e) {
+							sessionError(e);
+						}
+					}
+
+					public void redo() {
+						plotAll(added);
+					}
+				};
+				plotAll(added);
+				history.push(step);
+				fireResults();
+			}
+		});
+	}
+
+	private void plotAll(List<Plot> added)
+	{
+		for(Plot plot : added)
+		{
+			plots.add(plot);
+			for(Listener l : listeners)
+				l.plotted(plot);
+		}
+
+		if(session == null)
+			return;
+
+		try {
+			for(Plot p : added)
+			{
+				if(p.isSolution())
+					session.writeSolution(p.getLatitude(), p.getLongitude(), p.getElevation(), p.getSymbolLatitude(),
+							p.getSymbolLongitude(), p.getSymbolElevation(), p.getStrike(), p.getDip(), p.getDipAzimuth(),
+							p.getQuadCode(), p.getSymbol(), p.getScale());
+				else
+					session.writePick(p.getLatitude(), p.getLongitude(), p.getElevation(), p.getNumber(), false);
+			}
+		}
+		catch(IOException e) {
+			sessionError(e);
+		}
+	}
+
+	/**
+	 * Waits until every pick and change made so far has been applied.
+	 */
+	public void flush() throws InterruptedException
+	{
+		final CountDownLatch done = new CountDownLatch(1);
+		pipeline.later(new Runnable() {
+			public void run() {
+				done.countDown();
+			}
+		});
+		done.await();
+	}
+
+	private void clearPlotted()
+	{
+		plots.clear();
+		history.clear();
+		for(Listener l : listeners)
+			l.cleared();
+	}
+
+	private void fireResults()
+	{
+		Results results = new Results(this);
+		for(Listener l : listeners)
+			l.resultsChanged(results);
+	}
+
+	private static void sessionError(IOException e)
+	{
+		System.err.println("Could not write to the session file: " + e);
+	}
+
+	/**
+	 * Starts a new session file in the folder, everything plotted from now on is appended to it.
+	 * The files of earlier runs are left as they are.
+	 */
+	public synchronized File createSessionFile(File dir) throws IOException
+	{
+		SessionFile created = SessionFile.createIn(dir);
+		closeSession();
+		session = created;
+		return created.getFile();
+	}
+
+	/**
+	 * Replaces what is plotted with a saved session and carries on appending to that file.
+	 * What was opened can not be undone, only what is plotted after it.
+	 */
+	public void openSessionFile(final File file)
+	{
+		pipeline.later(new Runnable() {
+			public void run() {
+				SessionFile.Contents contents;
+				try {
+					SessionFile opened = SessionFile.open(file);
+					contents = opened.read();
+					closeSession();
+					session = opened;
+				}
+				catch(IOException e) {
+					System.err.println("Could not open session " + file + ": " + e);
+					return;
+				}
+
+				long start = System.nanoTime();
+				showSession(contents);
+				Logging.logger().fine("Opened " + contents.size() + " picks and solutions in " + (System.nanoTime() - start) / 1000000 + " ms");
+			}
+		});
+	}
+
+	private void showSession(SessionFile.Contents contents)
+	{
+		plots.clear();
+		history.clear();
+		numPoints = 1;
+		clearFit();
+		quad = null;
+
+		for(int i = 0; i < contents.size(); i++)
+		{
+			String label = (contents.isFit(i) ? "F" : "P") + contents.getNumber(i);
+
+			if(contents.getType(i) == SessionFile.SOLUTION)
+			{
+				StrikeDipQuad results = contents.getResults(i);
+				strike = results.getStrike();
+				dip = results.getDip();
+				dipaz = results.getDipAzimuth();
+				quad = results.getQuad();
+
+				// like a pick a solution whose symbol did not load only left its results
+				if(!contents.isPlotted(i))
+					continue;
+
+				plots.add(new Plot(label, contents.getLatitude(i), contents.getLongitude(i), contents.getElevation(i), false,
+						contents.getNumber(i), results, contents.getSymbol(i),
+						contents.getModelLatitude(i), contents.getModelLongitude(i), contents.getModelElevation(i), contents.getScale(i)));
+			}
+			else
+			{
+				plots.add(new Plot(label, contents.getLatitude(i), contents.getLongitude(i), contents.getElevation(i),
+						contents.isFit(i), contents.getNumber(i)));
+			}
+		}
+
+		List<Plot> opened = Collections.unmodifiableList(new ArrayList<Plot>(plots));
+		for(Listener l : listeners)
+			l.opened(opened);
+		fireResults();
+	}
+
+	/**
+	 * Keeps a copy of the session as it is now in the file and carries on in the copy.
+	 */
+	public void saveSessionFile(final File file)
+	{
+		pipeline.later(new Runnable() {
+			public void run() {
+				try {
+					if(session == null)
+						throw new IOException("there is no session file");
+
+					session.copyTo(file);
+					SessionFile saved = SessionFile.open(file);
+					closeSession();
+					session = saved;
+				}
+				catch(IOException e) {
+					System.err.println("Could not save session " + file + ": " + e);
+				}
+			}
+		});
+	}
+
+	private void closeSession()
+	{
+		if(session == null)
+			return;
+
+		try {
+			session.close();
+		}
+		catch(IOException e) {
+			sessionError(e);
+		}
+		session = null;
+	}
+
+	public synchronized File getSessionFile() {
+		return session == null ? null : session.getFile();
+	}
+
+	//Closes the session file, after anything still in the pipeline
+	public void close() throws IOException
+	{
+		pipeline.later(new Runnable() {
+			public void run() {
+				closeSession();
+			}
+		});
+	}
+
+	/**
+	 * Writes every plotted pick and solution as KML, streamed to the file as it goes.
+	 * The symbols used are copied into a models folder beside it and linked from there, the same models a KMZ
+	 * export bundles.
+	 */
+	public void exportKML(String path, SymbolLibrary library) {
+		exportKML(path, false, library);
+	}
+
+	/**
+	 * Same as above, but with append set and the file still as the last export here left it, only what was
+	 * plotted since is written, over the old closing tags, so exporting every few minutes through a long day
+	 * costs as much as what was picked in between. Anything else, like an undo past what was exported, a clear
+	 * or the file changed by something else, writes the whole file again.
+	 */
+	public void exportKML(String path, boolean append, SymbolLibrary library) {
+		File file = new File(path).getAbsoluteFile();
+		List<Plot> plots = getPlots();
+
+		synchronized(exportLock) {
+			int from = append && exported != null && exported.canAppend(file, plots) ? exported.written : 0;
+
+			long start = System.nanoTime();
+			long end;
+			try (KmlWriter kml = from > 0 ? KmlWriter.append(file, exported.end, "Document", "Folder") : KmlWriter.create(file)) {
+				Map<SymbolLibrary.Symbol, String> hrefs = copyModels(file.getParentFile(), plots.subList(from, plots.size()), library);
+				if(from > 0)
+					writePlots(kml, plots.subList(from, plots.size()), hrefs);
+				else
+					writeDocument(kml, plots, hrefs);
+				end = kml.getPosition();
+			}
+			catch (IOException e)
+			{
+				exported = null;
+				exportError(e);
+				return;
+			}
+			exported = new Exported(file, plots, end);
+			Logging.logger().fine((from > 0 ? "Appended " : "Exported ") + (plots.size() - from) + " picks and solutions in "
+					+ (System.nanoTime() - start) / 1000000 + " ms");
+		}
+	}
+
+	/*
+	 * Where the last KML export left off: which plots it had and where its closing tags start.
+	 */
+	private static final class Exported {
+
+		final File file;
+		final int written;
+		final Plot last;
+		final long end, length, modified;
+
+		Exported(File file, List<Plot> plots, long end)
+		{
+			this.file = file;
+			this.written = plots.size();
+			this.last = written == 0 ? null : plots.get(written - 1);
+			this.end = end;
+			this.length = file.length();
+			this.modified = file.lastModified();
+		}
+
+		// plots are only ever added and taken off at the end, so while the last one written is still in its
+		// place everything before it is too. A Plot is never changed, a new pick is always a new one.
+		boolean canAppend(File to, List<Plot> plots)
+		{
+			return to.equals(file) && written <= plots.size() && (written == 0 || plots.get(written - 1) == last)
+					&& to.length() == length && to.lastModified() == modified;
+		}
+	}
+
+	/**
+	 * Writes a KMZ with each symbol used bundled in it once, under models/, so it opens without the network.
+	 */
+	public void exportKMZ(String path, SymbolLibrary library) {
+		List<Plot> plots = getPlots();
+
+		long start = System.nanoTime();
+		try (final KmzWriter kmz = new KmzWriter(new File(path))) {
+			Map<SymbolLibrary.Symbol, String> hrefs = addModels(plots, library, new ModelSink() {
+				public void add(String name, URL url) throws IOException {
+					kmz.addUrl(name, url);
+				}
+			});
+
+			try (KmlWriter kml = new KmlWriter(new BufferedWriter(new OutputStreamWriter(kmz.startEntry("doc.kml"), StandardCharsets.UTF_8), 1 << 16))) {
+				writeDocument(kml, plots, hrefs);
+			}
+		}
+		catch (IOException e)
+		{
+			exportError(e);
+			return;
+		}
+		Logging.logger().fine("Exported " + plots.size() + " picks and solutions to KMZ in " + (System.nanoTime() - start) / 1000000 + " ms");
+	}
+
+	/*
+	 * Where addModels puts each model and texture, under the name the KML links to it by.
+	 */
+	private interface ModelSink {
+		void add(String name, URL url) throws IOException;
+	}
+
+	// the models of the symbols used, copied into the models folder in dir for a KML file in it
+	private static Map<SymbolLibrary.Symbol, String> copyModels(final File dir, List<Plot> plots, SymbolLibrary library)
+	{
+		return addModels(plots, library, new ModelSink() {
+			public void add(String name, URL url) throws IOException {
+				File file = new File(dir, name);
+				Files.createDirectories(file.getParentFile().toPath());
+				try (InputStream in = url.openStream()) {
+					Files.copy(in, file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+				}
+			}
+		});
+	}
+
+	/*
+	 * Each symbol the plots use and the textures next to it go to the sink once, under models/, however many
+	 * solutions use it. Returns the href of each. A symbol the library can not get is left out, the plots
+	 * with it only get their placemarks.
+	 */
+	private static Map<SymbolLibrary.Symbol, String> addModels(List<Plot> plots, SymbolLibrary library, ModelSink sink)
+	{
+		Map<SymbolLibrary.Symbol, String> hrefs = new EnumMap<SymbolLibrary.Symbol, String>(SymbolLibrary.Symbol.class);
+		Set<SymbolLibrary.Symbol> tried = new HashSet<SymbolLibrary.Symbol>();
+		Set<String> added = new HashSet<String>();
+		for(Plot p : plots)
+		{
+			SymbolLibrary.Symbol symbol = p.getSymbol();
+			if(symbol == null || !tried.add(symbol))
+				continue;
+
+			try {
+				URL dae = library.getUrl(symbol);
+				String href = "models/" + symbol.getFile();
+				sink.add(href, dae);
+				for(SymbolMesh.Part part : library.getMesh(symbol).getParts())
+					addTexture(sink, added, dae, part.getTexture());
+				hrefs.put(symbol, href);
+			}
+			catch(IOException e) {
+				Logging.logger().warning("Could not export symbol " + symbol.getDisplayName() + ", its models are left out: " + e);
+			}
+		}
+		return hrefs;
+	}
+
+	// a texture beside the .dae goes at the same place relative to it under models/, others are left out
+	private static void addTexture(ModelSink sink, Set<String> added, URL dae, URL texture) throws IOException
+	{
+		if(texture == null)
+			return;
+
+		String folder = dae.toString().substring(0, dae.toString().lastIndexOf('/') + 1);
+		if(!texture.toString().startsWith(folder) || texture.toString().contains("/../"))
+			return;
+
+		String name = "models/" + texture.toString().substring(folder.length());
+		if(added.add(name))
+			sink.add(name, texture);
+	}
+
+	/**
+	 * Writes the plots as a super-overlay, the root file at the path and its tiles in a folder beside it,
+	 * for when there are too many to open as one file. See SuperOverlay. The models go beside it like exportKML's.
+	 */
+	public void exportSuperOverlay(String path, SymbolLibrary library) {
+		List<Plot> plots = getPlots();
+		File root = new File(path).getAbsoluteFile();
+
+		long start = System.nanoTime();
+		int files;
+		try {
+			files = new SuperOverlay(plots, copyModels(root.getParentFile(), plots, library)).write(root);
+		}
+		catch (IOException e)
+		{
+			exportError(e);
+			return;
+		}
+		Logging.logger().fine("Exported " + plots.size() + " picks and solutions to " + files + " tiles in " + (System.nanoTime() - start) / 1000000 + " ms");
+	}
+
+	// the symbols are linked to the hrefs given
+	private static void writeDocument(KmlWriter kml, List<Plot> plots, Map<SymbolLibrary.Symbol, String> hrefs) throws IOException
+	{
+		kml.startDocument("3PP Geo Symbols");
+		kml.startFolder("Annotations and Models");
+		writePlots(kml, plots, hrefs);
+	}
+
+	// the labels then the symbols of the plots, into whatever element is open, a symbol with no href has no model
+	static void writePlots(KmlWriter kml, List<Plot> plots, Map<SymbolLibrary.Symbol, String> hrefs) throws IOException
+	{
+		// Export the placemarks
+		for(Plot p : plots){
+
+			kml.writePoint(p.getLabel(), p.getLatitude(), p.getLongitude());
+			if(p.isSolution())
+				kml.writePoint(p.getValuesLabel(), p.getSymbolLatitude(), p.getSymbolLongitude());
+		}
+
+		// then the symbols of the solutions
+		for(Plot p : plots){
+
+			if(!p.isSolution())
+				continue;
+
+			String href = hrefs.get(p.getSymbol());
+			if(href != null)
+				kml.writeModel(p.getSymbolLatitude(), p.getSymbolLongitude(), p.getExportHeading(), p.getPitch(),
+						p.getScale(), p.getScale(), href);
+		}
+	}
+
+	private static void exportError(IOException e)
+	{
+		String message = Logging.getMessage("generic.ExceptionAttemptingToWriteXml", e.toString());
+		Logging.logger().severe(message);
+		e.printStackTrace();
+	}
+
+	//A copy of everything plotted, in order
+	public synchronized List<Plot> getPlots() {
+		return new ArrayList<Plot>(plots);
+	}
+
+	public synchronized Results getResults() {
+		return new Results(this);
+	}
+
+	public synchronized void setShape(SymbolLibrary.Symbol shape) {
+		this.shape = shape;
+	}
+
+	public synchronized SymbolLibrary.Symbol getShape() {
+		return shape;
+	}
+
+	public synchronized boolean isBestFit() {
+		return bestFit;
+	}
+
+	// switching modes starts over, a half picked triplet or a fit in progress is dropped from the solver.
+	// what is plotted stays but can no longer be undone, the steps belong to the old mode's state.
+	// picks of the old mode still in the pipeline are applied first, then its state is reset
+	public synchronized void setBestFit(boolean bestFit) {
+		this.bestFit = bestFit;
+
+		numPoints = 1;
+		resetLater();
+	}
+
+	public synchronized boolean isTrace() {
+		return trace;
+	}
+
+	public synchronized void setTrace(boolean trace) {
+		this.trace = trace;
+
+		numPoints = 1;
+		profile.clear();// the trace is edited on the calling thread, never through the pipeline
+		resetLater();
+	}
+
+	// on the worker after the jobs already submitted, like clear()
+	private void resetLater()
+	{
+		pipeline.later(new Runnable() {
+			public void run() {
+				clearFit();
+				history.clear();
+				quad = null;
+				fireResults();
+			}
+		});
+	}
+
+	private void clearFit()
+	{
+		planeFit.clear();
+		fitPoints.clear();
+		fitResidual = Double.NaN;
+	}
+
+	//The point number the next pick will be in a triplet
+	public synchronized int getPointNumber() {
+		return numPoints;
+	}
+
+	//Only to be read while holding the session's lock, it changes as the trace is picked
+	public ContactProfile getProfile() {
+		return profile;
+	}
+
+	public ElevationService getElevations() {
+		return elevations;
+	}
+
+	public SolvePipeline.Stats getPipelineStats() {
+		return pipeline.getStats();
+	}
+
+}
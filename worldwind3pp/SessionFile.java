@@ -0,0 +1,300 @@
+package worldwind3pp;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.text.SimpleDateFormat;
+import java.util.Arrays;
+import java.util.Date;
+
+/**
+ * Binary log of a session's picks and solutions, so a session can be saved and opened again without
+ * going through KML. Every plotted pick or solution, undo and clear is appended to the file as it happens
+ * as one fixed size record, nothing already written is ever changed. Opening a file maps it and replays the
+ * records to find the ones still standing, the fields of those are only read from the map when asked for.
+ *
+ * Layout, little endian: a 16 byte header (magic, version, 8 reserved) then 96 byte records of
+ *  type, symbol code (SymbolLibrary.Symbol.getCode()), quad, flags (1 byte each), number (int),
+ *  lat, lon, elev of the pick, lat, lon, elev of the model (the second point),
+ *  strike, dip, dipAz, model scale, reserved (doubles).
+ * A pick only uses the first three doubles. A record cut short by a crash is dropped on open.
+ * A file is never truncated or replaced, each run starts a file of its own with createIn() so the last
+ * run's log is still there to open after a crash, and two copies of the program never share one.
+ *
+ */
+public class SessionFile implements Closeable {
+
+	public static final int MAGIC = 0x33505053;// "3PPS"
+	public static final int VERSION = 1;
+	public static final int HEADER = 16;
+	public static final int RECORD = 96;
+
+	public static final byte PICK = 1, SOLUTION = 2, UNDO = 3, CLEAR = 4;
+
+	// flags
+	private static final int FIT = 1, PLOTTED = 2;
+
+	private final File file;
+	private final FileChannel channel;
+	private final ByteBuffer record = ByteBuffer.allocate(RECORD).order(ByteOrder.LITTLE_ENDIAN);
+
+	private SessionFile(File file, FileChannel channel)
+	{
+		this.file = file;
+		this.channel = channel;
+	}
+
+	//Starts a new empty session file, FileAlreadyExistsException if there is one there already
+	public static SessionFile create(File file) throws IOException
+	{
+		File dir = file.getAbsoluteFile().getParentFile();
+		if(dir != null)
+			Files.createDirectories(dir.toPath());
+
+		FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE,
+				StandardOpenOption.READ);
+
+		ByteBuffer header = ByteBuffer.allocate(HEADER).order(ByteOrder.LITTLE_ENDIAN);
+		header.putInt(MAGIC).putInt(VERSION).putLong(0).flip();
+		while(header.hasRemaining())
+			channel.write(header);
+
+		return new SessionFile(file, channel);
+	}
+
+	//Starts a new session file in the folder named for the time, session-20140321-154500.3pps, -2, -3 on if taken
+	public static SessionFile createIn(File dir) throws IOException
+	{
+		String name = "session-" + new SimpleDateFormat("yyyyMMdd-HHmmss").format(new Date());
+		for(int n = 1;; n++)
+		{
+			try {
+				return create(new File(dir, name + (n == 1 ? "" : "-" + n) + ".3pps"));
+			}
+			catch(FileAlreadyExistsException e) {
+				continue;// another copy of the program started in the same second
+			}
+		}
+	}
+
+	//Opens an existing session file to read it and carry on appending to it
+	public static SessionFile open(File file) throws IOException
+	{
+		FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.WRITE, StandardOpenOption.READ);
+
+		ByteBuffer header = ByteBuffer.allocate(HEADER).order(ByteOrder.LITTLE_ENDIAN);
+		while(header.hasRemaining() && channel.read(header) >= 0) {
+		}
+		header.flip();
+		if(header.remaining() < HEADER || header.getInt() != MAGIC || header.getInt() > VERSION)
+		{
+			channel.close();
+			throw new IOException(file + " is not a 3PP session file");
+		}
+
+		// anything past the last whole record was being written when the program stopped
+		long whole = HEADER + (channel.size() - HEADER) / RECORD * RECORD;
+		channel.truncate(whole);
+		channel.position(whole);
+
+		return new SessionFile(file, channel);
+	}
+
+	public synchronized void writePick(double lat, double lon, double elev, int number, boolean fit) throws IOException
+	{
+		begin(PICK, (byte) -1, (byte) 0, fit ? FIT : 0, number);
+		record.putDouble(lat).putDouble(lon).putDouble(elev);
+		end();
+	}
+
+	/**
+	 * A solved triplet, the third pick and the symbol placed at the second.
+	 * @param symbol the symbol it was plotted with, null if its symbol could not be loaded and only the results were kept
+	 */
+	public synchronized void writeSolution(double lat, double lon, double elev, double lat2, double lon2, double elev2,
+			double strike, double dip, double dipAz, byte quad, SymbolLibrary.Symbol symbol, double scale) throws IOException
+	{
+		begin(SOLUTION, (byte) (symbol == null ? -1 : symbol.getCode()), quad, symbol == null ? 0 : PLOTTED, 3);
+		record.putDouble(lat).putDouble(lon).putDouble(elev);
+		record.putDouble(lat2).putDouble(lon2).putDouble(elev2);
+		record.putDouble(strike).putDouble(dip).putDouble(dipAz).putDouble(scale);
+		end();
+	}
+
+	//Takes back the last pick or solution still standing
+	public synchronized void writeUndo() throws IOException
+	{
+		begin(UNDO, (byte) -1, (byte) 0, 0, 0);
+		end();
+	}
+
+	public synchronized void writeClear() throws IOException
+	{
+		begin(CLEAR, (byte) -1, (byte) 0, 0, 0);
+		end();
+	}
+
+	private void begin(byte type, byte symbol, byte quad, int flags, int number)
+	{
+		record.clear();
+		record.put(type).put(symbol).put(quad).put((byte) flags).putInt(number);
+	}
+
+	private void end() throws IOException
+	{
+		// unused fields are zero so every record is the same size
+		while(record.hasRemaining())
+			record.put((byte) 0);
+		record.flip();
+		while(record.hasRemaining())
+			channel.write(record);
+	}
+
+	/**
+	 * Maps the file and works out which records are still standing after the undos and clears.
+	 */
+	public synchronized Contents read() throws IOException
+	{
+		long size = channel.size();
+		MappedByteBuffer map = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+		map.order(ByteOrder.LITTLE_ENDIAN);
+
+		int records = (int) ((size - HEADER) / RECORD);
+		int[] live = new int[Math.max(records, 1)];
+		int count = 0;
+
+		// only the type byte of each record is looked at here
+		for(int r = 0; r < records; r++)
+		{
+			byte type = map.get(HEADER + r * RECORD);
+			if(type == PICK || type == SOLUTION)
+				live[count++] = r;
+			else if(type == UNDO && count > 0)
+				count--;
+			else if(type == CLEAR)
+				count = 0;
+		}
+
+		return new Contents(map, Arrays.copyOf(live, count));
+	}
+
+	//Copies everything written so far to another file, the session carries on in this one
+	public synchronized void copyTo(File target) throws IOException
+	{
+		channel.force(false);
+		Files.copy(file.toPath(), target.toPath(), StandardCopyOption.REPLACE_EXISTING);
+	}
+
+	public File getFile() {
+		return file;
+	}
+
+	public synchronized void close() throws IOException
+	{
+		channel.close();
+	}
+
+	/**
+	 * The picks and solutions standing in a session, in the order they were plotted.
+	 */
+	public static class Contents {
+
+		private final MappedByteBuffer map;
+		private final int[] live;
+
+		Contents(MappedByteBuffer map, int[] live)
+		{
+			this.map = map;
+			this.live = live;
+		}
+
+		public int size() {
+			return live.length;
+		}
+
+		private int at(int i, int offset) {
+			return HEADER + live[i] * RECORD + offset;
+		}
+
+		public byte getType(int i) {
+			return map.get(at(i, 0));
+		}
+
+		//Null if it was stored without one, or with a symbol this version does not have
+		public SymbolLibrary.Symbol getSymbol(int i) {
+			byte s = map.get(at(i, 1));
+			return s < 0 ? null : SymbolLibrary.Symbol.forCode(s);
+		}
+
+		public byte getQuadCode(int i) {
+			return map.get(at(i, 2));
+		}
+
+		public boolean isFit(int i) {
+			return (map.get(at(i, 3)) & FIT) != 0;
+		}
+
+		//A solution whose symbol was on the map, not just its results
+		public boolean isPlotted(int i) {
+			return (map.get(at(i, 3)) & PLOTTED) != 0;
+		}
+
+		//The pick's point number, or its count in the fit
+		public int getNumber(int i) {
+			return map.getInt(at(i, 4));
+		}
+
+		public double getLatitude(int i) {
+			return map.getDouble(at(i, 8));
+		}
+
+		public double getLongitude(int i) {
+			return map.getDouble(at(i, 16));
+		}
+
+		public double getElevation(int i) {
+			return map.getDouble(at(i, 24));
+		}
+
+		public double getModelLatitude(int i) {
+			return map.getDouble(at(i, 32));
+		}
+
+		public double getModelLongitude(int i) {
+			return map.getDouble(at(i, 40));
+		}
+
+		public double getModelElevation(int i) {
+			return map.getDouble(at(i, 48));
+		}
+
+		public double getStrike(int i) {
+			return map.getDouble(at(i, 56));
+		}
+
+		public double getDip(int i) {
+			return map.getDouble(at(i, 64));
+		}
+
+		public double getDipAzimuth(int i) {
+			return map.getDouble(at(i, 72));
+		}
+
+		public double getScale(int i) {
+			return map.getDouble(at(i, 80));
+		}
+
+		public StrikeDipQuad getResults(int i) {
+			return new StrikeDipQuad(getStrike(i), getDip(i), getDipAzimuth(i), Calculations.quadName(getQuadCode(i)));
+		}
+	}
+
+}
@@ -0,0 +1,278 @@
+package worldwind3pp;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+
+/**
+ * Spatial index over the solved planes for drawing them at different zoom levels.
+ * It is a quadtree kept as a stack of grids: at level k the cells are 360/2^k degrees on a side, so each cell
+ * splits into four at the next level down. Every cell keeps a running count, centroid and the sum of the unit
+ * normals of the planes in it, so the mean orientation of any cell is there without looking at its solutions
+ * and adding or removing a solution only touches one cell per level.
+ *
+ */
+public class SolutionIndex {
+
+	// level 3 cells are 45 degrees, level 20 cells are about 40 m
+	public static final int MIN_LEVEL = 3;
+	public static final int MAX_LEVEL = 20;
+
+	private final Calculations calc = new Calculations();
+
+	// the solutions, a removed one has NaN latitude
+	private double[] lat = new double[64], lon = new double[64];
+	private double[] east = new double[64], north = new double[64], up = new double[64];
+	private int size, live;
+
+	@SuppressWarnings({"unchecked", "rawtypes"})
+	private final HashMap<Long, Cell>[] levels = new HashMap[MAX_LEVEL + 1];
+
+	// bumped on every change so views can tell their cached clusters are stale
+	private int modCount;
+
+	public SolutionIndex()
+	{
+		for(int k = MIN_LEVEL; k <= MAX_LEVEL; k++)
+		{
+			levels[k] = new HashMap<Long, Cell>();
+		}
+	}
+
+	//Adds a solved plane at lat, lon and returns its id. ERROR solutions have no orientation and are not added (-1).
+	public int add(double lat, double lon, double dip, double dipAz, byte quad)
+	{
+		if(quad == Calculations.QUAD_ERROR || Double.isNaN(dip) || Double.isNaN(dipAz))
+			return -1;
+
+		if(size == this.lat.length)
+		{
+			int capacity = size * 2;
+			this.lat = Arrays.copyOf(this.lat, capacity);
+			this.lon = Arrays.copyOf(this.lon, capacity);
+			east = Arrays.copyOf(east, capacity);
+			north = Arrays.copyOf(north, capacity);
+			up = Arrays.copyOf(up, capacity);
+		}
+
+		// upward unit normal, it leans toward the dip direction by the dip
+		double d = Math.toRadians(dip), a = Math.toRadians(dipAz);
+		this.lat[size] = lat;
+		this.lon[size] = lon;
+		east[size] = Math.sin(d) * Math.sin(a);
+		north[size] = Math.sin(d) * Math.cos(a);
+		up[size] = Math.cos(d);
+
+		accumulate(size, 1);
+		live++;
+		return size++;
+	}
+
+	public int add(double lat, double lon, StrikeDipResult result)
+	{
+		return add(lat, lon, result.getDip(), result.getDipAzimuth(), Calculations.quadCode(result.getQuad()));
+	}
+
+	public void remove(int id)
+	{
+		if(id < 0 || id >= size || Double.isNaN(lat[id]))
+			return;
+
+		accumulate(id, -1);
+		lat[id] = Double.NaN;
+		live--;
+
+		// ids are handed out in order, so popping removed ones off the end keeps undo of the last solution cheap
+		while(size > 0 && Double.isNaN(lat[size - 1]))
+			size--;
+	}
+
+	public void clear()
+	{
+		size = live = 0;
+		for(int k = MIN_LEVEL; k <= MAX_LEVEL; k++)
+		{
+			levels[k].clear();
+		}
+		modCount++;
+	}
+
+	private void accumulate(int id, int sign)
+	{
+		for(int k = MIN_LEVEL; k <= MAX_LEVEL; k++)
+		{
+			long key = key(k, lat[id], lon[id]);
+			Cell cell = levels[k].get(key);
+			if(cell == null)
+			{
+				cell = new Cell(k, key);
+				levels[k].put(key, cell);
+			}
+
+			cell.count += sign;
+			cell.sumLat += sign * lat[id];
+			cell.sumLon += sign * lon[id];
+			cell.sumEast += sign * east[id];
+			cell.sumNorth += sign * north[id];
+			cell.sumUp += sign * up[id];
+			cell.version = ++modCount;
+
+			if(cell.count == 0)
+				levels[k].remove(key);
+		}
+	}
+
+	private static double cellSize(int level)
+	{
+		return 360.0 / (1L << level);
+	}
+
+	private static long key(int level, double lat, double lon)
+	{
+		double size = cellSize(level);
+		long x = (long) Math.floor((lon + 180) / size);
+		long y = (long) Math.floor((lat + 90) / size);
+		return (x << 32) | y;
+	}
+
+	/**
+	 * The level whose cells are closest to the given size in metres, so a view can ask for cells
+	 * about a tenth of the screen across.
+	 */
+	public static int levelForCellSize(double metres)
+	{
+		double degrees = metres / (Math.toRadians(1) * 6371 * 1000);
+		int level = (int) Math.round(Math.log(360 / degrees) / Math.log(2));
+		return Math.max(MIN_LEVEL, Math.min(MAX_LEVEL, level));
+	}
+
+	/**
+	 * The non-empty cells at a level that overlap the box, added to out.
+	 */
+	public List<Cell> query(int level, double minLat, double maxLat, double minLon, double maxLon, List<Cell> out)
+	{
+		level = Math.max(MIN_LEVEL, Math.min(MAX_LEVEL, level));
+		HashMap<Long, Cell> cells = levels[level];
+
+		double size = cellSize(level);
+		long x0 = (long) Math.floor((minLon + 180) / size), x1 = (long) Math.floor((maxLon + 180) / size);
+		long y0 = (long) Math.floor((minLat + 90) / size), y1 = (long) Math.floor((maxLat + 90) / size);
+
+		// probe the box cell by cell when it is small, otherwise walk the occupied cells
+		if((x1 - x0 + 1) * (y1 - y0 + 1) <= cells.size())
+		{
+			for(long x = x0; x <= x1; x++)
+			{
+				for(long y = y0; y <= y1; y++)
+				{
+					Cell cell = cells.get((x << 32) | y);
+					if(cell != null)
+						out.add(cell);
+				}
+			}
+		}
+		else
+		{
+			for(Cell cell : cells.values())
+			{
+				long x = cell.key >>> 32, y = cell.key & 0xFFFFFFFFL;
+				if(x >= x0 && x <= x1 && y >= y0 && y <= y1)
+					out.add(cell);
+			}
+		}
+
+		return out;
+	}
+
+	public List<Cell> query(int level, double minLat, double maxLat, double minLon, double maxLon)
+	{
+		return query(level, minLat, maxLat, minLon, maxLon, new ArrayList<Cell>());
+	}
+
+	//Number of solutions in the index
+	public int size()
+	{
+		return live;
+	}
+
+	public int getModCount()
+	{
+		return modCount;
+	}
+
+	/**
+	 * One grid cell and the running sums of the solutions in it.
+	 */
+	public class Cell {
+
+		private final int level;
+		private final long key;
+		private int count;
+		private double sumLat, sumLon, sumEast, sumNorth, sumUp;
+		private int version;
+
+		Cell(int level, long key)
+		{
+			this.level = level;
+			this.key = key;
+		}
+
+		public int getLevel() {
+			return level;
+		}
+
+		public long getKey() {
+			return key;
+		}
+
+		public int getCount() {
+			return count;
+		}
+
+		//Changes whenever a solution in the cell is added or removed
+		public int getVersion() {
+			return version;
+		}
+
+		public double getCentroidLatitude() {
+			return sumLat / count;
+		}
+
+		public double getCentroidLongitude() {
+			return sumLon / count;
+		}
+
+		public double getSize() {
+			return cellSize(level);
+		}
+
+		/**
+		 * How well the planes in the cell agree, the length of the mean unit normal:
+		 * 1 when they are all parallel, towards 0 when they are scattered.
+		 */
+		public double getConsistency()
+		{
+			return Math.sqrt(sumEast * sumEast + sumNorth * sumNorth + sumUp * sumUp) / count;
+		}
+
+		//Writes the mean orientation of the cell's planes into slot i, the same way PlaneFit writes its plane
+		public void mean(double[] strikeOut, double[] dipOut, double[] dipAzOut, byte[] quadOut, int i)
+		{
+			calc.writeNormal(sumEast, sumNorth, sumUp, strikeOut, dipOut, dipAzOut, quadOut, i);
+		}
+
+		public StrikeDipQuad mean()
+		{
+			double[] strike = new double[1];
+			double[] dip = new double[1];
+			double[] dipaz = new double[1];
+			byte[] quad = new byte[1];
+
+			mean(strike, dip, dipaz, quad, 0);
+
+			return new StrikeDipQuad(strike[0], dip[0], dipaz[0], Calculations.quadName(quad[0]));
+		}
+	}
+
+}
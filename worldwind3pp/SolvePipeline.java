@@ -0,0 +1,214 @@
+package worldwind3pp;
+
+import gov.nasa.worldwind.util.Logging;
+
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.logging.Level;
+
+import javax.swing.SwingUtilities;
+
+/**
+ * Gets the solving and symbol loading for a click off the mouse thread.
+ * A click is captured on the event thread as a Job, solved and given its symbol on one worker thread,
+ * then handed back to the event thread once to change the layers and results. There is only one worker so
+ * jobs are applied in the order they were clicked, and anything else that changes the plotted points can be
+ * queued with later() to run after the jobs already in flight.
+ *
+ * Jobs are handed back to the event thread by default. A pipeline made with another Executor hands them to
+ * that instead, Session applies them on the worker itself so it needs no event thread.
+ *
+ * A job whose solve() or loadSymbol() throws is logged and still applied, after failed() is told on the applier.
+ *
+ * The time each job spends in each stage is kept so slow stages show up, see getStats().
+ *
+ */
+public class SolvePipeline {
+
+	public enum Stage { QUEUED, SOLVE, SYMBOL, HANDOFF, APPLY }
+
+	private final ExecutorService worker = Executors.newSingleThreadExecutor(new ThreadFactory() {
+		public Thread newThread(Runnable r) {
+			Thread t = new Thread(r, "Solver");
+			t.setDaemon(true);
+			return t;
+		}
+	});
+
+	private final Executor applier;
+	private final Stats stats = new Stats();
+
+	public SolvePipeline()
+	{
+		this(new Executor() {
+			public void execute(Runnable r) {
+				SwingUtilities.invokeLater(r);
+			}
+		});
+	}
+
+	//Jobs are applied and later() actions run through the applier, in order
+	public SolvePipeline(Executor applier)
+	{
+		this.applier = applier;
+	}
+
+	/**
+	 * One click's worth of work. solve() and loadSymbol() run on the worker, apply() on the applier.
+	 */
+	public static abstract class Job {
+
+		// when the job reached each stage boundary, captured .. applied
+		private long captured, solveStart, symbolStart, handedOff, applyStart, applied;
+		private Exception failure;
+
+		protected void solve() throws Exception {
+		}
+
+		protected void loadSymbol() throws Exception {
+		}
+
+		protected abstract void apply();
+
+		//On the applier before apply() if solve() or loadSymbol() threw
+		protected void failed(Exception e) {
+		}
+
+		//What solve() or loadSymbol() threw, null if they didn't
+		public Exception getFailure() {
+			return failure;
+		}
+
+		//On the applier after apply(), when the timings are all in
+		protected void applied() {
+		}
+
+		//How long the job spent in a stage in nanoseconds
+		public long getNanos(Stage stage)
+		{
+			switch(stage)
+			{
+			case QUEUED: return solveStart - captured;
+			case SOLVE: return symbolStart - solveStart;
+			case SYMBOL: return handedOff - symbolStart;
+			case HANDOFF: return applyStart - handedOff;
+			default: return applied - applyStart;
+			}
+		}
+
+		//Click to applied in nanoseconds
+		public long getTotalNanos()
+		{
+			return applied - captured;
+		}
+
+		public String getTimings()
+		{
+			StringBuilder s = new StringBuilder();
+			for(Stage stage : Stage.values())
+			{
+				s.append(stage.name().toLowerCase()).append(' ').append(String.format("%.2f", getNanos(stage) / 1e6)).append(" ms, ");
+			}
+			return s.append("total ").append(String.format("%.2f", getTotalNanos() / 1e6)).append(" ms").toString();
+		}
+	}
+
+	//Call with a job made from what was just clicked
+	public void submit(final Job job)
+	{
+		job.captured = System.nanoTime();
+
+		worker.execute(new Runnable() {
+			public void run() {
+				job.solveStart = System.nanoTime();
+				try {
+					job.solve();
+					job.symbolStart = System.nanoTime();
+					job.loadSymbol();
+				}
+				catch(Exception e) {
+					// the job still gets applied so whatever it managed is plotted and the order is kept
+					Logging.logger().log(Level.WARNING, "Solve job failed", e);
+					job.failure = e;
+					if(job.symbolStart == 0)
+						job.symbolStart = System.nanoTime();
+				}
+				job.handedOff = System.nanoTime();
+
+				applier.execute(new Runnable() {
+					public void run() {
+						job.applyStart = System.nanoTime();
+						if(job.failure != null)
+							job.failed(job.failure);
+						job.apply();
+						job.applied = System.nanoTime();
+						stats.add(job);
+						job.applied();
+					}
+				});
+			}
+		});
+	}
+
+	//Runs the action on the applier after every job submitted before it has been applied
+	public void later(final Runnable action)
+	{
+		worker.execute(new Runnable() {
+			public void run() {
+				applier.execute(action);
+			}
+		});
+	}
+
+	public Stats getStats() {
+		return stats;
+	}
+
+	/**
+	 * Running count, mean and worst time per stage over every job applied so far.
+	 */
+	public static class Stats {
+
+		private final long[] total = new long[Stage.values().length];
+		private final long[] max = new long[Stage.values().length];
+		private long count;
+
+		synchronized void add(Job job)
+		{
+			for(Stage stage : Stage.values())
+			{
+				long nanos = job.getNanos(stage);
+				total[stage.ordinal()] += nanos;
+				max[stage.ordinal()] = Math.max(max[stage.ordinal()], nanos);
+			}
+			count++;
+		}
+
+		public synchronized long getCount() {
+			return count;
+		}
+
+		public synchronized double getMeanMillis(Stage stage) {
+			return count == 0 ? 0 : total[stage.ordinal()] / 1e6 / count;
+		}
+
+		public synchronized double getMaxMillis(Stage stage) {
+			return max[stage.ordinal()] / 1e6;
+		}
+
+		public synchronized String toString(){
+
+			StringBuilder s = new StringBuilder(count + " jobs, mean/max ms:");
+			for(Stage stage : Stage.values())
+			{
+				s.append(' ').append(stage.name().toLowerCase()).append(' ')
+						.append(String.format("%.2f/%.2f", getMeanMillis(stage), getMaxMillis(stage)));
+			}
+			return s.toString();
+
+		}
+	}
+
+}
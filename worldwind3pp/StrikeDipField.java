@@ -0,0 +1,123 @@
+package worldwind3pp;
+
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * Strike/dip field over a cloud of contact points on one horizon.
+ * The points are Delaunay triangulated and every triangle is solved as a three point problem,
+ * so there is one strike/dip per triangle located at the triangle's centroid.
+ *
+ */
+public class StrikeDipField {
+
+	private final double[] lat, lon, elev;
+	private final int[] p1, p2, p3;
+
+	private final double[] strike, dip, dipAz;
+	private final byte[] quad;
+
+	private long triangulateNanos, solveNanos;
+
+	public StrikeDipField(double[] lat, double[] lon, double[] elev)
+	{
+		this(lat, lon, elev, new Calculations());
+	}
+
+	public StrikeDipField(double[] lat, double[] lon, double[] elev, Calculations calc)
+	{
+		this.lat = lat;
+		this.lon = lon;
+		this.elev = elev;
+
+		long start = System.nanoTime();
+		int[][] triplets = Delaunay.fromLatLon(lat, lon).getTriplets();
+		triangulateNanos = System.nanoTime() - start;
+
+		p1 = triplets[0];
+		p2 = triplets[1];
+		p3 = triplets[2];
+
+		int n = p1.length;
+		strike = new double[n];
+		dip = new double[n];
+		dipAz = new double[n];
+		quad = new byte[n];
+
+		// each point is in about six triangles so its trig is only worked out once
+		start = System.nanoTime();
+		PreparedPoints prepared = new PreparedPoints(lat, lon, elev);
+		new ParallelSolver(ForkJoinPool.commonPool(), ParallelSolver.DEFAULT_CHUNK, calc)
+				.solve(prepared, p1, p2, p3, strike, dip, dipAz, quad);
+		solveNanos = System.nanoTime() - start;
+	}
+
+	public int size()
+	{
+		return p1.length;
+	}
+
+	//Point indices of triangle t
+	public int getPoint1(int t) {
+		return p1[t];
+	}
+
+	public int getPoint2(int t) {
+		return p2[t];
+	}
+
+	public int getPoint3(int t) {
+		return p3[t];
+	}
+
+	public double getCentroidLatitude(int t)
+	{
+		return (lat[p1[t]] + lat[p2[t]] + lat[p3[t]]) / 3;
+	}
+
+	public double getCentroidLongitude(int t)
+	{
+		return (lon[p1[t]] + lon[p2[t]] + lon[p3[t]]) / 3;
+	}
+
+	public double getCentroidElevation(int t)
+	{
+		return (elev[p1[t]] + elev[p2[t]] + elev[p3[t]]) / 3;
+	}
+
+	public double getStrike(int t) {
+		return strike[t];
+	}
+
+	public double getDip(int t) {
+		return dip[t];
+	}
+
+	public double getDipAzimuth(int t) {
+		return dipAz[t];
+	}
+
+	public byte getQuadCode(int t) {
+		return quad[t];
+	}
+
+	public String getQuad(int t) {
+		return Calculations.quadName(quad[t]);
+	}
+
+	//The whole field packed, see PackedResults
+	public PackedResults toPackedResults()
+	{
+		PackedResults results = new PackedResults(size());
+		results.addAll(strike, dip, dipAz, quad, 0, size());
+		return results;
+	}
+
+	public long getTriangulateNanos() {
+		return triangulateNanos;
+	}
+
+	public long getSolveNanos() {
+		return solveNanos;
+	}
+
+}
@@ -5,7 +5,7 @@ package worldwind3pp;
  * @author jjamieso
  * Object to hold the result of the calculation
  */
-public class StrikeDipQuad {
+public class StrikeDipQuad implements StrikeDipResult {
 	
 	private double strike, dip, dipAzimuth;
 	private String quad;
@@ -0,0 +1,17 @@
+package worldwind3pp;
+
+/**
+ * Read only view of a solved plane, implemented by StrikeDipQuad and by the flyweight over PackedResults
+ *
+ */
+public interface StrikeDipResult {
+
+	public double getStrike();
+
+	public double getDip();
+
+	public double getDipAzimuth();
+
+	public String getQuad();
+
+}
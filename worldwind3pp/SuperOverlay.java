@@ -0,0 +1,278 @@
+package worldwind3pp;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+/**
+ * Exports the plots as a super-overlay, a pyramid of small KML files that Google Earth and World Wind only
+ * load as their part of the map comes into view. The plots' box is split in four again and again, like
+ * SolutionIndex's grid. Each tile keeps an even spread of up to perTile of its plots, one per cell of a
+ * coarse grid over it, and hands the rest down to its four children. Zoomed out only the top few tiles are
+ * loaded and a sample of the plots shows, each step in loads the next tiles under the view.
+ *
+ * Every tile has a Region with a Lod, and is linked from its parent by a NetworkLink with the same Region.
+ * The root file has no Region so it is always shown. The tiles are in a folder next to it.
+ * Tiles are split and written in parallel, each one forks its children once its own plots are chosen.
+ *
+ */
+public class SuperOverlay {
+
+	public static final int PER_TILE = 256;
+	public static final int MAX_LEVEL = 16;
+
+	// a tile is loaded once its box is this many pixels across
+	public static final double MIN_LOD_PIXELS = 256;
+
+	// the top box is at least this many degrees across so a few plots close together still get tiles that grow on screen
+	private static final double MIN_SPAN = 0.01;
+
+	private final List<Session.Plot> plots;
+	private final Map<SymbolLibrary.Symbol, String> hrefs, tileHrefs;
+	private final int perTile;
+	private final int grid;
+
+	private File tileDir;
+
+	/**
+	 * @param hrefs where each symbol's model is, relative to the root file
+	 */
+	public SuperOverlay(List<Session.Plot> plots, Map<SymbolLibrary.Symbol, String> hrefs, int perTile)
+	{
+		this.plots = plots;
+		this.hrefs = hrefs;
+		this.perTile = perTile;
+		this.grid = (int) Math.ceil(Math.sqrt(perTile));
+
+		// the tiles are a folder down from the root file, so relative links go up one
+		this.tileHrefs = new EnumMap<SymbolLibrary.Symbol, String>(SymbolLibrary.Symbol.class);
+		for(Map.Entry<SymbolLibrary.Symbol, String> e : hrefs.entrySet())
+			tileHrefs.put(e.getKey(), e.getValue().contains(":") || e.getValue().startsWith("/") ? e.getValue() : "../" + e.getValue());
+	}
+
+	public SuperOverlay(List<Session.Plot> plots, Map<SymbolLibrary.Symbol, String> hrefs)
+	{
+		this(plots, hrefs, PER_TILE);
+	}
+
+	/**
+	 * Writes the root file and its tiles into a folder named after it, returns how many files were written.
+	 */
+	public int write(File root) throws IOException
+	{
+		String name = root.getName().replaceFirst("\\.kml$", "");
+		tileDir = new File(root.getAbsoluteFile().getParentFile(), name + "_tiles");
+		Files.createDirectories(tileDir.toPath());
+
+		int[] items = new int[plots.size()];
+		for(int i = 0; i < items.length; i++)
+			items[i] = i;
+		double[] box = bounds(items, items.length);
+		pad(box, 0);
+		pad(box, 2);
+
+		Tile top = new Tile(root, tileDir.getName() + "/", 0, 0, 0, box, items, items.length);
+		try {
+			return ForkJoinPool.commonPool().invoke(top);
+		}
+		catch(UncheckedIOException e) {
+			throw e.getCause();
+		}
+	}
+
+	/*
+	 * One tile, cell is the box it splits, { south, north, west, east }.
+	 */
+	private class Tile extends RecursiveTask<Integer> {
+
+		private static final long serialVersionUID = 1L;
+
+		private final File file;
+		private final String linkPrefix;// from this tile's file to the tile folder
+		private final int level, x, y;
+		private final double[] cell;
+		private final int[] items;
+		private final int count;
+
+		Tile(File file, String linkPrefix, int level, int x, int y, double[] cell, int[] items, int count)
+		{
+			this.file = file;
+			this.linkPrefix = linkPrefix;
+			this.level = level;
+			this.x = x;
+			this.y = y;
+			this.cell = cell;
+			this.items = items;
+			this.count = count;
+		}
+
+		@Override
+		protected Integer compute()
+		{
+			// an even spread stays here: the first plot in each cell of a grid over the tile, then any others
+			int[] kept, rest;
+			int keptCount, restCount;
+			if(count <= perTile || level == MAX_LEVEL)
+			{
+				kept = items;
+				keptCount = count;
+				rest = new int[0];
+				restCount = 0;
+			}
+			else
+			{
+				kept = new int[perTile];
+				rest = new int[count];
+				keptCount = restCount = 0;
+				boolean[] taken = new boolean[grid * grid];
+				for(int i = 0; i < count; i++)
+				{
+					Session.Plot p = plots.get(items[i]);
+					int g = gridCell(p.getLatitude(), p.getLongitude());
+					if(!taken[g] && keptCount < perTile)
+					{
+						taken[g] = true;
+						kept[keptCount++] = items[i];
+					}
+					else
+						rest[restCount++] = items[i];
+				}
+				// the grid had empty cells, fill up with the others in order
+				while(keptCount < perTile)
+					kept[keptCount++] = rest[--restCount];
+			}
+
+			// the rest split four ways by the middle of the cell
+			double midLat = (cell[0] + cell[1]) / 2, midLon = (cell[2] + cell[3]) / 2;
+			int[][] quarters = new int[4][restCount];
+			int[] quarterCounts = new int[4];
+			for(int i = 0; i < restCount; i++)
+			{
+				Session.Plot p = plots.get(rest[i]);
+				int q = (p.getLatitude() >= midLat ? 2 : 0) + (p.getLongitude() >= midLon ? 1 : 0);
+				quarters[q][quarterCounts[q]++] = rest[i];
+			}
+
+			List<Tile> children = new ArrayList<Tile>();
+			List<double[]> childBounds = new ArrayList<double[]>();
+			for(int q = 0; q < 4; q++)
+			{
+				if(quarterCounts[q] == 0)
+					continue;
+
+				double[] childCell = {
+					q >= 2 ? midLat : cell[0], q >= 2 ? cell[1] : midLat,
+					(q & 1) == 1 ? midLon : cell[2], (q & 1) == 1 ? cell[3] : midLon };
+				int cx = x * 2 + (q & 1), cy = y * 2 + (q >> 1);
+				children.add(new Tile(new File(tileDir, tileName(level + 1, cx, cy)), "", level + 1, cx, cy, childCell,
+						quarters[q], quarterCounts[q]));
+				childBounds.add(union(childCell, bounds(quarters[q], quarterCounts[q])));
+			}
+
+			invokeAll(children);
+
+			try {
+				writeTile(kept, keptCount, children, childBounds);
+			}
+			catch(IOException e) {
+				throw new UncheckedIOException(e);
+			}
+
+			int written = 1;
+			for(Tile child : children)
+				written += child.join();
+			return written;
+		}
+
+		private int gridCell(double lat, double lon)
+		{
+			int gy = (int) ((lat - cell[0]) / (cell[1] - cell[0]) * grid);
+			int gx = (int) ((lon - cell[2]) / (cell[3] - cell[2]) * grid);
+			gy = Math.max(0, Math.min(grid - 1, gy));
+			gx = Math.max(0, Math.min(grid - 1, gx));
+			return gy * grid + gx;
+		}
+
+		private void writeTile(int[] kept, int keptCount, List<Tile> children, List<double[]> childBounds) throws IOException
+		{
+			try (KmlWriter kml = KmlWriter.create(file)) {
+				kml.startDocument(level == 0 ? "3PP Geo Symbols" : tileName(level, x, y));
+
+				// the top is always shown, the tiles under it only while they are big enough on screen
+				if(level > 0)
+				{
+					double[] b = union(cell, bounds(items, count));
+					kml.writeRegion(b[1], b[0], b[3], b[2], MIN_LOD_PIXELS);
+				}
+
+				for(int c = 0; c < children.size(); c++)
+				{
+					Tile child = children.get(c);
+					double[] b = childBounds.get(c);
+					kml.writeNetworkLink(tileName(child.level, child.x, child.y), linkPrefix + child.file.getName(),
+							b[1], b[0], b[3], b[2], MIN_LOD_PIXELS);
+				}
+
+				List<Session.Plot> mine = new ArrayList<Session.Plot>(keptCount);
+				for(int i = 0; i < keptCount; i++)
+					mine.add(plots.get(kept[i]));
+				kml.startFolder("Annotations and Models");
+				Session.writePlots(kml, Collections.unmodifiableList(mine), level == 0 ? hrefs : tileHrefs);
+			}
+		}
+	}
+
+	// the box around everything the plots put on the map, their picks and symbols, { south, north, west, east }
+	private double[] bounds(int[] items, int count)
+	{
+		double[] b = { 90, -90, 180, -180 };
+		for(int i = 0; i < count; i++)
+		{
+			Session.Plot p = plots.get(items[i]);
+			include(b, p.getLatitude(), p.getLongitude());
+			if(p.isSolution())
+				include(b, p.getSymbolLatitude(), p.getSymbolLongitude());
+		}
+		if(count == 0)
+			return new double[] { 0, 0, 0, 0 };
+		return b;
+	}
+
+	// the region of a tile is its cell and anything of its plots that hangs over the edge
+	private static double[] union(double[] cell, double[] b)
+	{
+		return new double[] { Math.min(cell[0], b[0]), Math.max(cell[1], b[1]), Math.min(cell[2], b[2]), Math.max(cell[3], b[3]) };
+	}
+
+	private static void pad(double[] b, int min)
+	{
+		double grow = (MIN_SPAN - (b[min + 1] - b[min])) / 2;
+		if(grow > 0)
+		{
+			b[min] -= grow;
+			b[min + 1] += grow;
+		}
+	}
+
+	private static void include(double[] b, double lat, double lon)
+	{
+		b[0] = Math.min(b[0], lat);
+		b[1] = Math.max(b[1], lat);
+		b[2] = Math.min(b[2], lon);
+		b[3] = Math.max(b[3], lon);
+	}
+
+	private static String tileName(int level, int x, int y)
+	{
+		return level + "_" + x + "_" + y + ".kml";
+	}
+
+}
@@ -0,0 +1,385 @@
+package worldwind3pp;
+
+import gov.nasa.worldwind.geom.Angle;
+import gov.nasa.worldwind.geom.Matrix;
+import gov.nasa.worldwind.geom.Position;
+import gov.nasa.worldwind.geom.Sector;
+import gov.nasa.worldwind.globes.Globe;
+import gov.nasa.worldwind.render.BasicWWTexture;
+import gov.nasa.worldwind.render.DrawContext;
+import gov.nasa.worldwind.render.Renderable;
+import gov.nasa.worldwind.render.WWTexture;
+import gov.nasa.worldwind.util.OGLStackHandler;
+
+import java.nio.FloatBuffer;
+import java.util.Arrays;
+import java.util.IdentityHashMap;
+
+import javax.media.opengl.GL;
+import javax.media.opengl.GL2;
+import javax.media.opengl.fixedfunc.GLLightingFunc;
+import javax.media.opengl.fixedfunc.GLMatrixFunc;
+import javax.media.opengl.fixedfunc.GLPointerFunc;
+
+import com.jogamp.common.nio.Buffers;
+
+/**
+ * Every plotted copy of one symbol drawn by a single renderable from one copy of its mesh.
+ * A ColladaController per solution means a scene graph, traversal and set of shapes per solution; here a
+ * solution is just six numbers in a packed instance buffer: latitude, longitude, elevation, heading, pitch
+ * and scale, with the same meaning as on a ColladaRoot. Each frame the mesh is set up once and drawn at each
+ * instance in view with that instance's transform.
+ *
+ * The transforms are clamped to the ground and kept between frames. They are worked out when an instance
+ * first comes into view, again for all of them when the vertical exaggeration changes, and a few each frame
+ * in turn as the terrain loads in.
+ * getInstances() and updateTransforms() need no GL so the buffers can be checked without a window.
+ *
+ */
+public class SymbolBatch implements Renderable {
+
+	public static final int STRIDE = 6;
+	public static final int LATITUDE = 0, LONGITUDE = 1, ELEVATION = 2, HEADING = 3, PITCH = 4, SCALE = 5;
+
+	// transforms refreshed each frame on top of the new ones, for the terrain as it gets better
+	private static final int REFRESH_PER_FRAME = 256;
+
+	private final SymbolLibrary.Symbol symbol;
+	private volatile SymbolMesh mesh;
+
+	// live instances are packed into the first count slots, ids map to slots and back
+	private double[] instances = new double[STRIDE * 64];
+	private double[] transforms = new double[16 * 64];
+	private boolean[] stale = new boolean[64];
+	private int[] idOf = new int[64];
+	private int[] slotOf = new int[64];
+	private int count, nextId, staleCount;
+
+	private Globe globe;
+	private double exaggeration = Double.NaN;
+	private int refresh;
+
+	// per part buffers and textures, made the first time the part is drawn
+	private final IdentityHashMap<SymbolMesh.Part, FloatBuffer[]> buffers = new IdentityHashMap<SymbolMesh.Part, FloatBuffer[]>();
+	private final IdentityHashMap<SymbolMesh.Part, WWTexture> textures = new IdentityHashMap<SymbolMesh.Part, WWTexture>();
+	private double[] eye = new double[16 * 64];
+
+	public SymbolBatch(SymbolLibrary.Symbol symbol)
+	{
+		this.symbol = symbol;
+	}
+
+	//Adds a copy of the symbol and returns its id, which stays the same while it is in the batch
+	public int add(double lat, double lon, double elev, double heading, double pitch, double scale)
+	{
+		if(count == stale.length)
+		{
+			int capacity = count * 2;
+			instances = Arrays.copyOf(instances, STRIDE * capacity);
+			transforms = Arrays.copyOf(transforms, 16 * capacity);
+			stale = Arrays.copyOf(stale, capacity);
+			idOf = Arrays.copyOf(idOf, capacity);
+		}
+		if(nextId == slotOf.length)
+			slotOf = Arrays.copyOf(slotOf, nextId * 2);
+
+		int s = count++;
+		int b = s * STRIDE;
+		instances[b + LATITUDE] = lat;
+		instances[b + LONGITUDE] = lon;
+		instances[b + ELEVATION] = elev;
+		instances[b + HEADING] = heading;
+		instances[b + PITCH] = pitch;
+		instances[b + SCALE] = scale;
+		markStale(s);
+
+		idOf[s] = nextId;
+		slotOf[nextId] = s;
+		return nextId++;
+	}
+
+	//Takes a copy back out, the last one moves into its slot
+	public void remove(int id)
+	{
+		if(id < 0 || id >= nextId || slotOf[id] < 0)
+			return;
+
+		int s = slotOf[id];
+		int last = --count;
+		if(stale[s])
+		{
+			stale[s] = false;
+			staleCount--;
+		}
+
+		if(s != last)
+		{
+			System.arraycopy(instances, last * STRIDE, instances, s * STRIDE, STRIDE);
+			System.arraycopy(transforms, last * 16, transforms, s * 16, 16);
+			stale[s] = stale[last];
+			stale[last] = false;
+			idOf[s] = idOf[last];
+			slotOf[idOf[s]] = s;
+		}
+		slotOf[id] = -1;
+	}
+
+	public void clear()
+	{
+		Arrays.fill(stale, 0, count, false);
+		Arrays.fill(slotOf, 0, nextId, -1);
+		count = staleCount = 0;
+	}
+
+	private void markStale(int s)
+	{
+		if(!stale[s])
+		{
+			stale[s] = true;
+			staleCount++;
+		}
+	}
+
+	public int size() {
+		return count;
+	}
+
+	public boolean contains(int id) {
+		return id >= 0 && id < nextId && slotOf[id] >= 0;
+	}
+
+	//One field of an instance, see the field constants
+	public double get(int id, int field) {
+		return instances[slotOf[id] * STRIDE + field];
+	}
+
+	//The packed instances, STRIDE values each for the first size() slots. Not to be changed.
+	public double[] getInstances() {
+		return instances;
+	}
+
+	//The row major model transforms of the first size() slots, as of the last updateTransforms
+	public double[] getTransforms() {
+		return transforms;
+	}
+
+	public SymbolLibrary.Symbol getSymbol() {
+		return symbol;
+	}
+
+	public SymbolMesh getMesh() {
+		return mesh;
+	}
+
+	//Can be set from any thread, the batch draws nothing until it has one
+	public void setMesh(SymbolMesh mesh) {
+		this.mesh = mesh;
+	}
+
+	/**
+	 * Works out the transforms of every new instance, all of them if the globe or exaggeration changed, and
+	 * a few more in turn so the clamping follows the terrain as it loads. Returns how many were worked out.
+	 */
+	public int updateTransforms(Globe globe, double exaggeration)
+	{
+		setGlobe(globe, exaggeration);
+
+		int done = 0;
+		for(int s = 0; s < count && staleCount > 0; s++)
+		{
+			if(stale[s])
+			{
+				computeTransform(s);
+				done++;
+			}
+		}
+		return done + refresh();
+	}
+
+	private void setGlobe(Globe globe, double exaggeration)
+	{
+		if(globe != this.globe || exaggeration != this.exaggeration)
+		{
+			this.globe = globe;
+			this.exaggeration = exaggeration;
+			for(int s = 0; s < count; s++)
+				markStale(s);
+		}
+	}
+
+	private int refresh()
+	{
+		int done = 0;
+		for(; done < REFRESH_PER_FRAME && done < count; done++)
+		{
+			refresh = (refresh + 1) % count;
+			computeTransform(refresh);
+		}
+		return done;
+	}
+
+	/*
+	 * The same matrix World Wind gives a clamped ColladaRoot: the surface frame at the point on the ground,
+	 * then heading about z, pitch about x and the scale.
+	 */
+	private void computeTransform(int s)
+	{
+		int b = s * STRIDE;
+		Angle lat = Angle.fromDegrees(instances[b + LATITUDE]), lon = Angle.fromDegrees(instances[b + LONGITUDE]);
+		double ground = globe.getElevation(lat, lon) * exaggeration;
+
+		Matrix m = globe.computeSurfaceOrientationAtPosition(new Position(lat, lon, ground))
+				.multiply(Matrix.fromRotationZ(Angle.POS360.subtract(Angle.fromDegrees(instances[b + HEADING]))))
+				.multiply(Matrix.fromRotationX(Angle.fromDegrees(instances[b + PITCH])))
+				.multiply(Matrix.fromScale(instances[b + SCALE]));
+
+		m.toArray(transforms, s * 16, true);
+		if(stale[s])
+		{
+			stale[s] = false;
+			staleCount--;
+		}
+	}
+
+	public void render(DrawContext dc)
+	{
+		SymbolMesh mesh = this.mesh;
+		if(mesh == null || count == 0 || dc.isPickingMode())
+			return;
+
+		// only the instances in view are worked out, an opened session may have far more than that
+		setGlobe(dc.getGlobe(), dc.getVerticalExaggeration());
+		refresh();
+
+		// the eye space transforms of the instances in view, in double so they hold up far from the origin
+		double[] view = new double[16];
+		dc.getView().getModelviewMatrix().toArray(view, 0, true);
+		Sector visible = dc.getVisibleSector();
+		if(eye.length < 16 * count)
+			eye = new double[16 * Math.max(count, eye.length / 8)];
+
+		int drawn = 0;
+		for(int s = 0; s < count; s++)
+		{
+			if(visible != null && !visible.containsDegrees(instances[s * STRIDE + LATITUDE], instances[s * STRIDE + LONGITUDE]))
+				continue;
+			if(stale[s])
+				computeTransform(s);
+			multiplyToColumnMajor(view, transforms, s * 16, eye, drawn * 16);
+			drawn++;
+		}
+		if(drawn == 0)
+			return;
+
+		GL2 gl = dc.getGL().getGL2();
+		OGLStackHandler ogsh = new OGLStackHandler();
+		ogsh.pushAttrib(gl, GL2.GL_CURRENT_BIT | GL2.GL_ENABLE_BIT | GL2.GL_LIGHTING_BIT | GL2.GL_TEXTURE_BIT
+				| GL2.GL_TRANSFORM_BIT | GL2.GL_DEPTH_BUFFER_BIT | GL2.GL_POLYGON_BIT);
+		ogsh.pushClientAttrib(gl, GL2.GL_CLIENT_VERTEX_ARRAY_BIT);
+		ogsh.pushModelview(gl);
+		ogsh.pushTexture(gl);
+
+		try {
+			gl.glEnable(GL.GL_DEPTH_TEST);
+			gl.glDisable(GL.GL_CULL_FACE);
+			gl.glEnable(GL.GL_BLEND);
+			gl.glBlendFunc(GL.GL_SRC_ALPHA, GL.GL_ONE_MINUS_SRC_ALPHA);
+
+			// a light from the eye, set with the identity so it stays there for every instance
+			gl.glMatrixMode(GLMatrixFunc.GL_MODELVIEW);
+			gl.glLoadIdentity();
+			gl.glEnable(GLLightingFunc.GL_LIGHTING);
+			gl.glEnable(GLLightingFunc.GL_LIGHT1);
+			gl.glLightfv(GLLightingFunc.GL_LIGHT1, GLLightingFunc.GL_POSITION, new float[] { 0, 0, 1, 0 }, 0);
+			gl.glLightfv(GLLightingFunc.GL_LIGHT1, GLLightingFunc.GL_DIFFUSE, new float[] { 0.8f, 0.8f, 0.8f, 1 }, 0);
+			gl.glLightfv(GLLightingFunc.GL_LIGHT1, GLLightingFunc.GL_AMBIENT, new float[] { 0.4f, 0.4f, 0.4f, 1 }, 0);
+			gl.glLightModeli(GL2.GL_LIGHT_MODEL_TWO_SIDE, GL.GL_TRUE);
+			gl.glEnable(GLLightingFunc.GL_NORMALIZE);
+			gl.glEnable(GLLightingFunc.GL_COLOR_MATERIAL);
+			gl.glColorMaterial(GL.GL_FRONT_AND_BACK, GLLightingFunc.GL_AMBIENT_AND_DIFFUSE);
+
+			gl.glEnableClientState(GLPointerFunc.GL_VERTEX_ARRAY);
+			gl.glEnableClientState(GLPointerFunc.GL_NORMAL_ARRAY);
+
+			for(SymbolMesh.Part part : mesh.getParts())
+			{
+				FloatBuffer[] b = buffers(part);
+				gl.glVertexPointer(3, GL.GL_FLOAT, 0, b[0]);
+				gl.glNormalPointer(GL.GL_FLOAT, 0, b[1]);
+
+				boolean textured = bindTexture(dc, gl, part, b[2]);
+				float[] c = part.getColor();
+				if(textured)
+					gl.glColor4f(1, 1, 1, c[3]);
+				else
+					gl.glColor4f(c[0], c[1], c[2], c[3]);
+
+				// the mesh is set up once per part, each instance is only its matrix and the draw
+				gl.glMatrixMode(GLMatrixFunc.GL_MODELVIEW);
+				for(int i = 0; i < drawn; i++)
+				{
+					gl.glLoadMatrixd(eye, i * 16);
+					gl.glDrawArrays(GL.GL_TRIANGLES, 0, part.getVertexCount());
+				}
+
+				if(textured)
+				{
+					gl.glDisableClientState(GLPointerFunc.GL_TEXTURE_COORD_ARRAY);
+					gl.glDisable(GL.GL_TEXTURE_2D);
+				}
+			}
+		}
+		finally {
+			ogsh.pop(gl);
+		}
+	}
+
+	private FloatBuffer[] buffers(SymbolMesh.Part part)
+	{
+		FloatBuffer[] b = buffers.get(part);
+		if(b == null)
+		{
+			b = new FloatBuffer[] {
+				Buffers.newDirectFloatBuffer(part.positions),
+				Buffers.newDirectFloatBuffer(part.normals),
+				part.texCoords == null ? null : Buffers.newDirectFloatBuffer(part.texCoords) };
+			buffers.put(part, b);
+		}
+		return b;
+	}
+
+	private boolean bindTexture(DrawContext dc, GL2 gl, SymbolMesh.Part part, FloatBuffer texCoords)
+	{
+		if(part.getTexture() == null || texCoords == null)
+			return false;
+
+		WWTexture texture = textures.get(part);
+		if(texture == null)
+		{
+			texture = new BasicWWTexture(part.getTexture(), true);
+			textures.put(part, texture);
+		}
+		if(!texture.bind(dc))
+			return false;
+
+		gl.glEnable(GL.GL_TEXTURE_2D);
+		texture.applyInternalTransform(dc);
+		gl.glEnableClientState(GLPointerFunc.GL_TEXTURE_COORD_ARRAY);
+		gl.glTexCoordPointer(2, GL.GL_FLOAT, 0, texCoords);
+		return true;
+	}
+
+	// view times one row major transform, written column major the way glLoadMatrixd takes it
+	private static void multiplyToColumnMajor(double[] a, double[] b, int bo, double[] out, int oo)
+	{
+		for(int r = 0; r < 4; r++)
+		{
+			for(int c = 0; c < 4; c++)
+			{
+				out[oo + c * 4 + r] = a[r * 4] * b[bo + c] + a[r * 4 + 1] * b[bo + 4 + c]
+						+ a[r * 4 + 2] * b[bo + 8 + c] + a[r * 4 + 3] * b[bo + 12 + c];
+			}
+		}
+	}
+
+}
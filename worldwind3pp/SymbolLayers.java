@@ -0,0 +1,197 @@
+package worldwind3pp;
+
+import gov.nasa.worldwind.WorldWindow;
+import gov.nasa.worldwind.layers.RenderableLayer;
+import gov.nasa.worldwind.render.Renderable;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Holds every plotted point and symbol in two layers, one for the COLLADA models and one for the
+ * placemarks on top of them, instead of a new layer per point. The layer list stays the same length
+ * no matter how many solutions are plotted so drawing and picking do not slow down as it grows.
+ *
+ * Renderables are added in groups (a pick, or a solution's labels, or its model) and taken back off
+ * the end a group at a time like the old per-point layers were. The symbols themselves are drawn by one
+ * SymbolBatch per kind of symbol, which stay in the model layer and are not part of any group.
+ *
+ */
+public class SymbolLayers {
+
+	// taking more groups than this off at once rebuilds the layers instead of removing one by one
+	private static final int REBUILD = 16;
+
+	private final WorldWindow wwd;
+	private final RenderableLayer modelLayer = new RenderableLayer();
+	private final RenderableLayer pointLayer = new RenderableLayer();
+
+	private final ArrayList<Group> groups = new ArrayList<Group>();
+	private final ArrayList<SymbolBatch> batches = new ArrayList<SymbolBatch>();
+
+	public SymbolLayers(WorldWindow wwd)
+	{
+		this.wwd = wwd;
+
+		modelLayer.setName("3PP Symbols");
+		pointLayer.setName("3PP Points");
+
+		// models first so the labels draw over them
+		ApplicationTemplate.insertBeforeCompass(wwd, modelLayer);
+		ApplicationTemplate.insertBeforeCompass(wwd, pointLayer);
+	}
+
+	//Adds placemarks as one group, returns the group index
+	public int addPoints(Renderable... points)
+	{
+		return add(pointLayer, Arrays.asList(points));
+	}
+
+	public int addModels(Renderable... models)
+	{
+		return add(modelLayer, Arrays.asList(models));
+	}
+
+	//Bulk versions, the whole list goes into the layer in one call and is one group
+	public int addAllPoints(List<? extends Renderable> points)
+	{
+		return add(pointLayer, points);
+	}
+
+	public int addAllModels(List<? extends Renderable> models)
+	{
+		return add(modelLayer, models);
+	}
+
+	//Puts a batch in the model layer for good, clear() only empties it
+	public void addBatch(SymbolBatch batch)
+	{
+		batches.add(batch);
+		modelLayer.addRenderable(batch);
+	}
+
+	private int add(RenderableLayer layer, List<? extends Renderable> items)
+	{
+		layer.addRenderables(items);
+		groups.add(new Group(layer, items.toArray(new Renderable[items.size()])));
+		return groups.size() - 1;
+	}
+
+	//Takes the last group back off
+	public void removeLast()
+	{
+		removeLast(1);
+	}
+
+	public void removeLast(int count)
+	{
+		count = Math.min(count, groups.size());
+		if(count <= 0)
+			return;
+
+		int keep = groups.size() - count;
+
+		if(count > REBUILD)
+		{
+			// the groups are in the same order as the layers so the survivors are just the first ones
+			groups.subList(keep, groups.size()).clear();
+			rebuild();
+			return;
+		}
+
+		for(int g = groups.size() - 1; g >= keep; g--)
+		{
+			Group group = groups.remove(g);
+			for(Renderable r : group.items)
+			{
+				group.layer.removeRenderable(r);
+			}
+		}
+	}
+
+	public void clear()
+	{
+		groups.clear();
+		modelLayer.removeAllRenderables();
+		pointLayer.removeAllRenderables();
+
+		for(SymbolBatch batch : batches)
+		{
+			batch.clear();
+			modelLayer.addRenderable(batch);
+		}
+	}
+
+	// refills both layers from the groups with one addRenderables call each
+	private void rebuild()
+	{
+		ArrayList<Renderable> models = new ArrayList<Renderable>(batches);
+		ArrayList<Renderable> points = new ArrayList<Renderable>();
+		for(Group group : groups)
+		{
+			List<Renderable> items = Arrays.asList(group.items);
+			if(group.layer == modelLayer)
+				models.addAll(items);
+			else
+				points.addAll(items);
+		}
+
+		modelLayer.removeAllRenderables();
+		pointLayer.removeAllRenderables();
+		modelLayer.addRenderables(models);
+		pointLayer.addRenderables(points);
+	}
+
+	//Takes both layers off the globe
+	public void dispose()
+	{
+		clear();
+		batches.clear();
+		wwd.getModel().getLayers().remove(modelLayer);
+		wwd.getModel().getLayers().remove(pointLayer);
+	}
+
+	//Above this eye altitude the symbols and their labels are not drawn, see ClusterLayer
+	public void setMaxActiveAltitude(double altitude)
+	{
+		modelLayer.setMaxActiveAltitude(altitude);
+		pointLayer.setMaxActiveAltitude(altitude);
+	}
+
+	//Number of groups, one per old per-point layer
+	public int size()
+	{
+		return groups.size();
+	}
+
+	public int getRenderableCount()
+	{
+		return modelLayer.getNumRenderables() + pointLayer.getNumRenderables();
+	}
+
+	public RenderableLayer getModelLayer() {
+		return modelLayer;
+	}
+
+	public RenderableLayer getPointLayer() {
+		return pointLayer;
+	}
+
+	public List<SymbolBatch> getBatches() {
+		return batches;
+	}
+
+	private static class Group {
+
+		final RenderableLayer layer;
+		final Renderable[] items;
+
+		Group(RenderableLayer layer, Renderable[] items)
+		{
+			this.layer = layer;
+			this.items = items;
+		}
+	}
+
+}
@@ -0,0 +1,189 @@
+package worldwind3pp;
+
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.net.URL;
+import java.util.EnumMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.function.Consumer;
+
+/**
+ * The geologic symbols, loaded from local files instead of the network on every solve.
+ *
+ * Each symbol's .dae is looked for in order:
+ *  1. bundled with the program under worldwind3pp/symbols/ on the class path, where all of them are,
+ *  2. the folder given by the worldwind3pp.symbols system property, or ~/.worldwind3pp/symbols/,
+ *     for a build that leaves them out.
+ * Nothing is fetched over the network, KML exports copy the models next to them and KMZ exports bundle them.
+ *
+ * The bundled models are placeholders drawn for this program, not the original Google Earth symbols, see
+ * symbols/README. A symbol's look is only in its .dae, putting the originals in that folder replaces them.
+ *
+ * Each symbol is read once into a SymbolMesh in the background and that one copy is drawn for every
+ * solution plotted with it, see SymbolBatch.
+ *
+ */
+public class SymbolLibrary {
+
+	public enum Symbol {
+		WHITE_CIRCLE(0, "White Circle (3D)", "5-m-Wcircle.dae", true),
+		BLUE_CIRCLE(1, "Blue Circle (3D)", "5-m-Bcircle.dae", true),
+		PINK_CIRCLE(2, "Pink Circle (3D)", "5-m-Pcircle.dae", true),
+		ORANGE_CIRCLE(3, "Orange Circle (3D)", "5-m-Ocircle.dae", true),
+		LIGHT_BLUE_CIRCLE(4, "Light Blue Circle (3D)", "5-m-LBcircle.dae", true),
+		GREEN_CIRCLE(5, "Green Circle (3D)", "5-m-Gcircle.dae", true),
+		BLACK_CIRCLE(6, "Black Circle (3D)", "5-m-BLcircle.dae", true),
+		ARROW(7, "Arrow", "arrow.dae", false),
+		BED(8, "Bed", "bed.dae", false),
+		CLEAVAGE(9, "Cleavage", "cleavage.dae", false),
+		JOINT(10, "Joint", "joint.dae", false),
+		LAYER(11, "Layer", "layer.dae", false),
+		SLIP(12, "Slip", "slip.dae", false),
+		FAULT(13, "Fault", "fault.dae", false),
+		STRIKE_DIP(14, "Strike-Dip", "Strike-dip.dae", false),
+		BED_WHITE(15, "Bed White", "bed-white.dae", false),
+		CLEAVAGE_WHITE(16, "Cleavage White", "cleavage-white.dae", false),
+		JOINT_WHITE(17, "Joint White", "joint-white.dae", false),
+		LAYER_WHITE(18, "Layer White", "layer-white.dae", false),
+		FAULT_WHITE(19, "Fault White", "fault-white.dae", false);
+
+		private final int code;
+		private final String displayName;
+		private final String file;
+		private final boolean is3D;
+
+		Symbol(int code, String displayName, String file, boolean is3D)
+		{
+			this.code = code;
+			this.displayName = displayName;
+			this.file = file;
+			this.is3D = is3D;
+		}
+
+		//What session files store the symbol as, a new symbol takes a new code and none is ever reused
+		public int getCode() {
+			return code;
+		}
+
+		public String getDisplayName() {
+			return displayName;
+		}
+
+		public String getFile() {
+			return file;
+		}
+
+		public boolean is3D() {
+			return is3D;
+		}
+
+		//The symbol stored under a code, or null
+		public static Symbol forCode(int code)
+		{
+			for(Symbol s : values())
+			{
+				if(s.code == code)
+					return s;
+			}
+			return null;
+		}
+
+		//The symbol with the name shown in the drop down, or null
+		public static Symbol forName(String displayName)
+		{
+			for(Symbol s : values())
+			{
+				if(s.displayName.equals(displayName))
+					return s;
+			}
+			return null;
+		}
+	}
+
+	private final File folder;
+	private final EnumMap<Symbol, SymbolMesh> meshes = new EnumMap<Symbol, SymbolMesh>(Symbol.class);
+
+	// one background thread reads the meshes so the mouse thread never waits on it
+	private final ExecutorService loader = Executors.newSingleThreadExecutor(new ThreadFactory() {
+		public Thread newThread(Runnable r) {
+			Thread t = new Thread(r, "Symbol loader");
+			t.setDaemon(true);
+			return t;
+		}
+	});
+
+	public SymbolLibrary()
+	{
+		this(new File(System.getProperty("worldwind3pp.symbols",
+				System.getProperty("user.home") + File.separator + ".worldwind3pp" + File.separator + "symbols")));
+	}
+
+	public SymbolLibrary(File folder)
+	{
+		this.folder = folder;
+	}
+
+	//Loads every symbol in the background, call once at start up
+	public void preload()
+	{
+		for(final Symbol s : Symbol.values())
+		{
+			getMeshLater(s, null);
+		}
+	}
+
+	/**
+	 * The symbol's triangles, read the first time and shared after that. Normally already loaded by
+	 * preload so this does no I/O or parsing.
+	 */
+	public SymbolMesh getMesh(Symbol symbol) throws IOException
+	{
+		synchronized(meshes)
+		{
+			SymbolMesh mesh = meshes.get(symbol);
+			if(mesh == null)
+			{
+				mesh = SymbolMesh.load(getUrl(symbol));// from its URL so any textures next to it resolve relative to it
+				meshes.put(symbol, mesh);
+			}
+			return mesh;
+		}
+	}
+
+	/**
+	 * Hands the symbol's mesh to the callback on the loader thread, for symbols that are only
+	 * drawn once they come into view. The callback may be null to just load it.
+	 */
+	public void getMeshLater(final Symbol symbol, final Consumer<SymbolMesh> callback)
+	{
+		loader.execute(new Runnable() {
+			public void run() {
+				try {
+					SymbolMesh mesh = getMesh(symbol);
+					if(callback != null)
+						callback.accept(mesh);
+				}
+				catch(IOException e) {
+					System.err.println("Could not load symbol " + symbol.getDisplayName() + ": " + e);
+				}
+			}
+		});
+	}
+
+	//Where the symbol's .dae is read from, bundled on the class path or else in the symbols folder
+	public URL getUrl(Symbol symbol) throws IOException
+	{
+		URL url = SymbolLibrary.class.getResource("symbols/" + symbol.getFile());
+		if(url != null)
+			return url;
+
+		File file = new File(folder, symbol.getFile());
+		if(!file.isFile())
+			throw new FileNotFoundException(symbol.getFile() + " is not bundled or in " + folder);
+		return file.toURI().toURL();
+	}
+
+}
@@ -0,0 +1,554 @@
+package worldwind3pp;
+
+import gov.nasa.worldwind.geom.Angle;
+import gov.nasa.worldwind.geom.Matrix;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import javax.xml.parsers.DocumentBuilderFactory;
+import javax.xml.parsers.ParserConfigurationException;
+
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.Node;
+import org.xml.sax.SAXException;
+
+/**
+ * A symbol's .dae flattened to plain triangles so it can be drawn many times over from one copy.
+ * The node transforms and the file's unit are baked into the vertices, which leaves the model in the same
+ * frame World Wind puts a ColladaRoot's model in before its heading, pitch and scale. The triangles are
+ * grouped into parts by material, each with its diffuse colour or texture.
+ *
+ * Only what the symbol files use is read: triangles, polylists and polygons from the visual scene's nodes
+ * and instanced nodes, with matrix, translate, rotate and scale transforms, and lambert/phong/blinn/constant
+ * materials. Lines and anything else are skipped.
+ *
+ */
+public class SymbolMesh {
+
+	/**
+	 * The triangles of one material, three vertices each.
+	 */
+	public static class Part {
+
+		final float[] positions;
+		final float[] normals;
+		final float[] texCoords;// null without a texture
+		final float[] color;
+		final URL texture;
+
+		Part(float[] positions, float[] normals, float[] texCoords, float[] color, URL texture)
+		{
+			this.positions = positions;
+			this.normals = normals;
+			this.texCoords = texCoords;
+			this.color = color;
+			this.texture = texture;
+		}
+
+		public int getVertexCount() {
+			return positions.length / 3;
+		}
+
+		public float[] getPositions() {
+			return positions;
+		}
+
+		public float[] getColor() {
+			return color;
+		}
+
+		public URL getTexture() {
+			return texture;
+		}
+	}
+
+	private final List<Part> parts;
+
+	SymbolMesh(List<Part> parts)
+	{
+		this.parts = parts;
+	}
+
+	public List<Part> getParts() {
+		return parts;
+	}
+
+	public int getTriangleCount()
+	{
+		int count = 0;
+		for(Part p : parts)
+			count += p.getVertexCount() / 3;
+		return count;
+	}
+
+	//Reads a .dae from a file or the class path, textures are looked for relative to it
+	public static SymbolMesh load(URL dae) throws IOException
+	{
+		Document doc;
+		try (InputStream in = dae.openStream()) {
+			DocumentBuilderFactory factory = DocumentBuilderFactory.newInstance();
+			factory.setNamespaceAware(false);
+			doc = factory.newDocumentBuilder().parse(in, dae.toString());
+		}
+		catch(ParserConfigurationException | SAXException e) {
+			throw new IOException("Could not read " + dae + ": " + e.getMessage(), e);
+		}
+
+		return new Loader(doc, dae).load();
+	}
+
+	/*
+	 * Walks one document, the ids are looked up as they are referenced.
+	 */
+	private static class Loader {
+
+		private final URL base;
+		private final Map<String, Element> ids = new HashMap<String, Element>();
+		private final Map<String, Builder> builders = new LinkedHashMap<String, Builder>();
+		private final Element root;
+
+		Loader(Document doc, URL base)
+		{
+			this.base = base;
+			this.root = doc.getDocumentElement();
+			index(root);
+		}
+
+		private void index(Element e)
+		{
+			if(e.hasAttribute("id"))
+				ids.put(e.getAttribute("id"), e);
+			for(Element c : children(e, null))
+				index(c);
+		}
+
+		SymbolMesh load() throws IOException
+		{
+			double unit = 1;
+			Element asset = child(root, "asset");
+			Element unitElement = asset == null ? null : child(asset, "unit");
+			if(unitElement != null && unitElement.hasAttribute("meter"))
+				unit = Double.parseDouble(unitElement.getAttribute("meter"));
+
+			Element scene = child(root, "scene");
+			Element instance = scene == null ? null : child(scene, "instance_visual_scene");
+			Element visualScene = instance == null ? null : lookup(instance.getAttribute("url"));
+			if(visualScene == null)
+				throw new IOException("No visual scene");
+
+			for(Element node : children(visualScene, "node"))
+				node(node, Matrix.fromScale(unit));
+
+			List<Part> parts = new ArrayList<Part>();
+			for(Builder b : builders.values())
+			{
+				if(b.positions.size() > 0)
+					parts.add(b.build());
+			}
+			return new SymbolMesh(parts);
+		}
+
+		private void node(Element node, Matrix parent)
+		{
+			Matrix m = parent;
+			for(Element t : children(node, null))
+			{
+				double[] v;
+				switch(t.getTagName())
+				{
+				case "matrix":
+					v = doubles(t.getTextContent());
+					m = m.multiply(new Matrix(v[0], v[1], v[2], v[3], v[4], v[5], v[6], v[7], v[8], v[9], v[10], v[11], v[12], v[13], v[14], v[15]));
+					break;
+				case "translate":
+					v = doubles(t.getTextContent());
+					m = m.multiply(Matrix.fromTranslation(v[0], v[1], v[2]));
+					break;
+				case "rotate":
+					v = doubles(t.getTextContent());
+					m = m.multiply(Matrix.fromAxisAngle(Angle.fromDegrees(v[3]), v[0], v[1], v[2]));
+					break;
+				case "scale":
+					v = doubles(t.getTextContent());
+					m = m.multiply(Matrix.fromScale(v[0], v[1], v[2]));
+					break;
+				default:
+					break;
+				}
+			}
+
+			for(Element c : children(node, null))
+			{
+				switch(c.getTagName())
+				{
+				case "instance_geometry":
+					geometry(c, m);
+					break;
+				case "instance_node":
+					Element instanced = lookup(c.getAttribute("url"));
+					if(instanced != null)
+						node(instanced, m);
+					break;
+				case "node":
+					node(c, m);
+					break;
+				default:
+					break;
+				}
+			}
+		}
+
+		private void geometry(Element instance, Matrix m)
+		{
+			Element geometry = lookup(instance.getAttribute("url"));
+			Element mesh = geometry == null ? null : child(geometry, "mesh");
+			if(mesh == null)
+				return;
+
+			// the material symbols used in the mesh to the materials bound to them here
+			Map<String, String> bound = new HashMap<String, String>();
+			Element bind = child(instance, "bind_material");
+			Element common = bind == null ? null : child(bind, "technique_common");
+			if(common != null)
+			{
+				for(Element im : children(common, "instance_material"))
+					bound.put(im.getAttribute("symbol"), im.getAttribute("target"));
+			}
+
+			for(Element prims : children(mesh, null))
+			{
+				String tag = prims.getTagName();
+				if(!tag.equals("triangles") && !tag.equals("polylist") && !tag.equals("polygons"))
+					continue;
+
+				String symbol = prims.getAttribute("material");
+				String target = bound.containsKey(symbol) ? bound.get(symbol) : "#" + symbol;
+				Builder builder = builder(target);
+
+				primitives(prims, tag, m, builder);
+			}
+		}
+
+		private void primitives(Element prims, String tag, Matrix m, Builder builder)
+		{
+			int stride = 0, vertexOffset = -1, texOffset = -1;
+			float[][] positions = null;
+			float[][] texCoords = null;
+
+			for(Element input : children(prims, "input"))
+			{
+				int offset = Integer.parseInt(input.getAttribute("offset"));
+				stride = Math.max(stride, offset + 1);
+				String semantic = input.getAttribute("semantic");
+
+				if(semantic.equals("VERTEX"))
+				{
+					vertexOffset = offset;
+					Element vertices = lookup(input.getAttribute("source"));
+					for(Element vi : children(vertices, "input"))
+					{
+						if(vi.getAttribute("semantic").equals("POSITION"))
+							positions = source(lookup(vi.getAttribute("source")));
+					}
+				}
+				else if(semantic.equals("TEXCOORD") && texOffset < 0)
+				{
+					texOffset = offset;
+					texCoords = source(lookup(input.getAttribute("source")));
+				}
+			}
+			if(positions == null || vertexOffset < 0)
+				return;
+
+			// every polygon as a list of its corners, triangles are just polygons of three
+			List<int[]> polygons = new ArrayList<int[]>();
+			if(tag.equals("triangles"))
+			{
+				Element p = child(prims, "p");
+				int[] idx = p == null ? new int[0] : ints(p.getTextContent());
+				for(int i = 0; i + 3 * stride <= idx.length; i += 3 * stride)
+					polygons.add(Arrays.copyOfRange(idx, i, i + 3 * stride));
+			}
+			else if(tag.equals("polylist"))
+			{
+				Element p = child(prims, "p"), vc = child(prims, "vcount");
+				int[] idx = p == null ? new int[0] : ints(p.getTextContent());
+				int[] counts = vc == null ? new int[0] : ints(vc.getTextContent());
+				int i = 0;
+				for(int n : counts)
+				{
+					if(i + n * stride > idx.length)
+						break;
+					polygons.add(Arrays.copyOfRange(idx, i, i + n * stride));
+					i += n * stride;
+				}
+			}
+			else
+			{
+				for(Element p : children(prims, "p"))
+					polygons.add(ints(p.getTextContent()));
+			}
+
+			for(int[] poly : polygons)
+			{
+				int corners = poly.length / stride;
+				// fans out from the first corner
+				for(int k = 1; k + 1 < corners; k++)
+				{
+					builder.triangle(m,
+							positions[poly[vertexOffset]], positions[poly[k * stride + vertexOffset]], positions[poly[(k + 1) * stride + vertexOffset]],
+							texCoords == null ? null : texCoords[poly[texOffset]],
+							texCoords == null ? null : texCoords[poly[k * stride + texOffset]],
+							texCoords == null ? null : texCoords[poly[(k + 1) * stride + texOffset]]);
+				}
+			}
+		}
+
+		// a source's values split by its accessor's stride
+		private float[][] source(Element source)
+		{
+			if(source == null)
+				return null;
+
+			Element array = child(source, "float_array");
+			double[] values = array == null ? new double[0] : doubles(array.getTextContent());
+			int stride = 3;
+			Element common = child(source, "technique_common");
+			Element accessor = common == null ? null : child(common, "accessor");
+			if(accessor != null && accessor.hasAttribute("stride"))
+				stride = Integer.parseInt(accessor.getAttribute("stride"));
+
+			float[][] out = new float[values.length / stride][stride];
+			for(int i = 0; i < out.length; i++)
+			{
+				for(int j = 0; j < stride; j++)
+					out[i][j] = (float) values[i * stride + j];
+			}
+			return out;
+		}
+
+		private Builder builder(String materialUrl)
+		{
+			Builder b = builders.get(materialUrl);
+			if(b == null)
+			{
+				b = new Builder();
+				material(lookup(materialUrl), b);
+				builders.put(materialUrl, b);
+			}
+			return b;
+		}
+
+		// the colour or texture of the material's diffuse, or emission for constant shading
+		private void material(Element material, Builder b)
+		{
+			Element ie = material == null ? null : child(material, "instance_effect");
+			Element effect = ie == null ? null : lookup(ie.getAttribute("url"));
+			Element profile = effect == null ? null : child(effect, "profile_COMMON");
+			Element technique = profile == null ? null : child(profile, "technique");
+			if(technique == null)
+				return;
+
+			for(Element shader : children(technique, null))
+			{
+				Element diffuse = child(shader, "diffuse");
+				if(diffuse == null)
+					diffuse = child(shader, "emission");
+				if(diffuse == null)
+					continue;
+
+				Element color = child(diffuse, "color");
+				if(color != null)
+				{
+					double[] c = doubles(color.getTextContent());
+					for(int i = 0; i < 4 && i < c.length; i++)
+						b.color[i] = (float) c[i];
+				}
+
+				Element texture = child(diffuse, "texture");
+				if(texture != null)
+					b.texture = texture(profile, texture.getAttribute("texture"));
+				return;
+			}
+		}
+
+		// sampler to surface to image, or straight to an image in files that skip the params
+		private URL texture(Element profile, String sampler)
+		{
+			String image = sampler;
+			Element samplerParam = param(profile, sampler);
+			Element sampler2D = samplerParam == null ? null : child(samplerParam, "sampler2D");
+			Element source = sampler2D == null ? null : child(sampler2D, "source");
+			if(source != null)
+			{
+				Element surfaceParam = param(profile, source.getTextContent().trim());
+				Element surface = surfaceParam == null ? null : child(surfaceParam, "surface");
+				Element init = surface == null ? null : child(surface, "init_from");
+				if(init != null)
+					image = init.getTextContent().trim();
+			}
+
+			Element imageElement = ids.get(image);
+			Element init = imageElement == null ? null : child(imageElement, "init_from");
+			if(init == null)
+				return null;
+
+			String path = init.getTextContent().trim();
+			if(path.startsWith("file://"))
+				path = path.substring("file://".length());
+			try {
+				File file = new File(path);
+				return file.isAbsolute() ? file.toURI().toURL() : new URL(base, path.replace('\\', '/'));
+			}
+			catch(MalformedURLException e) {
+				return null;
+			}
+		}
+
+		private Element param(Element profile, String sid)
+		{
+			for(Element p : children(profile, "newparam"))
+			{
+				if(p.getAttribute("sid").equals(sid))
+					return p;
+			}
+			return null;
+		}
+
+		private Element lookup(String url)
+		{
+			if(url == null)
+				return null;
+			return ids.get(url.startsWith("#") ? url.substring(1) : url);
+		}
+	}
+
+	/*
+	 * Collects one material's triangles.
+	 */
+	private static class Builder {
+
+		final FloatList positions = new FloatList(), normals = new FloatList(), texCoords = new FloatList();
+		final float[] color = { 0.8f, 0.8f, 0.8f, 1 };
+		URL texture;
+
+		void triangle(Matrix m, float[] a, float[] b, float[] c, float[] ta, float[] tb, float[] tc)
+		{
+			double[] pa = transform(m, a), pb = transform(m, b), pc = transform(m, c);
+
+			// flat normal from the transformed corners so mirrored nodes still face out
+			double ux = pb[0] - pa[0], uy = pb[1] - pa[1], uz = pb[2] - pa[2];
+			double vx = pc[0] - pa[0], vy = pc[1] - pa[1], vz = pc[2] - pa[2];
+			double nx = uy * vz - uz * vy, ny = uz * vx - ux * vz, nz = ux * vy - uy * vx;
+			double len = Math.sqrt(nx * nx + ny * ny + nz * nz);
+			if(len == 0)
+				return;
+
+			for(double[] p : new double[][] { pa, pb, pc })
+			{
+				positions.add((float) p[0], (float) p[1], (float) p[2]);
+				normals.add((float) (nx / len), (float) (ny / len), (float) (nz / len));
+			}
+			if(ta != null)
+			{
+				texCoords.add(ta[0], ta[1]);
+				texCoords.add(tb[0], tb[1]);
+				texCoords.add(tc[0], tc[1]);
+			}
+		}
+
+		private static double[] transform(Matrix m, float[] p)
+		{
+			return new double[] {
+				m.m11 * p[0] + m.m12 * p[1] + m.m13 * p[2] + m.m14,
+				m.m21 * p[0] + m.m22 * p[1] + m.m23 * p[2] + m.m24,
+				m.m31 * p[0] + m.m32 * p[1] + m.m33 * p[2] + m.m34 };
+		}
+
+		Part build()
+		{
+			boolean textured = texture != null && texCoords.size() / 2 == positions.size() / 3;
+			return new Part(positions.toArray(), normals.toArray(), textured ? texCoords.toArray() : null, color, textured ? texture : null);
+		}
+	}
+
+	private static class FloatList {
+
+		private float[] values = new float[96];
+		private int size;
+
+		void add(float... v)
+		{
+			if(size + v.length > values.length)
+				values = Arrays.copyOf(values, Math.max(values.length * 2, size + v.length));
+			System.arraycopy(v, 0, values, size, v.length);
+			size += v.length;
+		}
+
+		int size() {
+			return size;
+		}
+
+		float[] toArray() {
+			return Arrays.copyOf(values, size);
+		}
+	}
+
+	private static Element child(Element e, String name)
+	{
+		for(Node n = e.getFirstChild(); n != null; n = n.getNextSibling())
+		{
+			if(n instanceof Element && ((Element) n).getTagName().equals(name))
+				return (Element) n;
+		}
+		return null;
+	}
+
+	// the child elements, all of them when name is null
+	private static List<Element> children(Element e, String name)
+	{
+		List<Element> out = new ArrayList<Element>();
+		for(Node n = e.getFirstChild(); n != null; n = n.getNextSibling())
+		{
+			if(n instanceof Element && (name == null || ((Element) n).getTagName().equals(name)))
+				out.add((Element) n);
+		}
+		return out;
+	}
+
+	private static double[] doubles(String text)
+	{
+		String t = text.trim();
+		if(t.isEmpty())
+			return new double[0];
+		String[] parts = t.split("\\s+");
+		double[] out = new double[parts.length];
+		for(int i = 0; i < parts.length; i++)
+			out[i] = Double.parseDouble(parts[i]);
+		return out;
+	}
+
+	private static int[] ints(String text)
+	{
+		String t = text.trim();
+		if(t.isEmpty())
+			return new int[0];
+		String[] parts = t.split("\\s+");
+		int[] out = new int[parts.length];
+		for(int i = 0; i < parts.length; i++)
+			out[i] = Integer.parseInt(parts[i]);
+		return out;
+	}
+
+}
@@ -0,0 +1,114 @@
+package worldwind3pp;
+
+/**
+ * Unlimited undo and redo of plotted points and solutions.
+ * The history is two persistent stacks, the steps done and the steps undone. A stack is an immutable
+ * linked list so pushing, popping and moving a step from one to the other is one node and constant time,
+ * and every earlier state of the history shares all of its nodes with the current one. A state can be
+ * kept with mark() and walked later for nothing more than holding on to the reference.
+ *
+ * Each step knows how to take itself off the map and put itself back, so undo and redo only touch the
+ * renderables of that step.
+ *
+ */
+public class UndoHistory {
+
+	/**
+	 * Something that was done and can be undone, both called on the event thread.
+	 */
+	public interface Step {
+		void undo();
+		void redo();
+	}
+
+	/**
+	 * One node of a persistent stack, never changed once made.
+	 */
+	public static final class Node {
+
+		private final Step step;
+		private final Node next;
+		private final int depth;
+
+		private Node(Step step, Node next)
+		{
+			this.step = step;
+			this.next = next;
+			this.depth = next == null ? 1 : next.depth + 1;
+		}
+
+		public Step getStep() {
+			return step;
+		}
+
+		//The state before this step, null at the start
+		public Node getPrevious() {
+			return next;
+		}
+
+		public int getDepth() {
+			return depth;
+		}
+	}
+
+	private Node done, undone;
+
+	//Records a step that has just been done, anything undone before it can no longer be redone
+	public void push(Step step)
+	{
+		done = new Node(step, done);
+		undone = null;
+	}
+
+	public boolean undo()
+	{
+		if(done == null)
+			return false;
+
+		Step step = done.step;
+		done = done.next;
+		undone = new Node(step, undone);
+		step.undo();
+		return true;
+	}
+
+	public boolean redo()
+	{
+		if(undone == null)
+			return false;
+
+		Step step = undone.step;
+		undone = undone.next;
+		done = new Node(step, done);
+		step.redo();
+		return true;
+	}
+
+	//Forgets every step, whatever they did stays done
+	public void clear()
+	{
+		done = undone = null;
+	}
+
+	public boolean canUndo() {
+		return done != null;
+	}
+
+	public boolean canRedo() {
+		return undone != null;
+	}
+
+	public int getUndoDepth() {
+		return done == null ? 0 : done.depth;
+	}
+
+	public int getRedoDepth() {
+		return undone == null ? 0 : undone.depth;
+	}
+
+	//The steps done so far, newest first. Later changes to the history do not change it.
+	public Node mark() {
+		return done;
+	}
+
+}
@@ -0,0 +1,31 @@
+package worldwind3pp;
+
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.results.format.ResultFormatType;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.ChainedOptionsBuilder;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Runs every benchmark in this folder with the GC profiler so the report has the allocation rate
+ * (gc.alloc.rate.norm) next to ops/s. Pass a file name to also save the results as JSON.
+ *
+ */
+public class BenchmarkRunner {
+
+	public static void main(String[] args) throws RunnerException
+	{
+		ChainedOptionsBuilder options = new OptionsBuilder()
+				.include("worldwind3pp\\..*Benchmark")
+				.addProfiler(GCProfiler.class);
+
+		if(args.length > 0)
+		{
+			options.resultFormat(ResultFormatType.JSON).result(args[0]);
+		}
+
+		new Runner(options.build()).run();
+	}
+
+}
@@ -0,0 +1,78 @@
+package worldwind3pp;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Solving every triangle of a triangulated point cloud from raw lat/lon/elev against prepared points.
+ * Scores are per triangle. prepareAndSolve counts the cost of preparing the points as well.
+ *
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "-Djava.awt.headless=true")
+@State(Scope.Thread)
+public class PreparedPointsBenchmark {
+
+	static final int SIDE = 101;
+	static final int TRIANGLES = 2 * (SIDE - 1) * (SIDE - 1);
+
+	private SyntheticGrid grid;
+	private PreparedPoints prepared;
+	private final Calculations calc = new Calculations();
+
+	private double[] strike, dip, dipAz;
+	private byte[] quad;
+
+	@Setup
+	public void setup()
+	{
+		grid = new SyntheticGrid(SIDE);
+		prepared = new PreparedPoints(grid.lat, grid.lon, grid.elev);
+
+		strike = new double[TRIANGLES];
+		dip = new double[TRIANGLES];
+		dipAz = new double[TRIANGLES];
+		quad = new byte[TRIANGLES];
+	}
+
+	@Benchmark
+	@OperationsPerInvocation(TRIANGLES)
+	public void solveRaw(Blackhole bh)
+	{
+		calc.solveBatch(grid.lat, grid.lon, grid.elev, grid.p1, grid.p2, grid.p3, strike, dip, dipAz, quad);
+		bh.consume(strike);
+	}
+
+	@Benchmark
+	@OperationsPerInvocation(TRIANGLES)
+	public void solvePrepared(Blackhole bh)
+	{
+		calc.solveBatch(prepared, grid.p1, grid.p2, grid.p3, strike, dip, dipAz, quad);
+		bh.consume(strike);
+	}
+
+	@Benchmark
+	@OperationsPerInvocation(TRIANGLES)
+	public void prepareAndSolve(Blackhole bh)
+	{
+		PreparedPoints p = new PreparedPoints(grid.lat, grid.lon, grid.elev);
+		calc.solveBatch(p, grid.p1, grid.p2, grid.p3, strike, dip, dipAz, quad);
+		bh.consume(strike);
+	}
+
+}
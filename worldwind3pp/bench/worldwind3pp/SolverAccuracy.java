@@ -0,0 +1,72 @@
+package worldwind3pp;
+
+/**
+ * Compares the PLANE_NORMAL solver against the HAVERSINE solver on the fixed seed synthetic triplets
+ * and prints the worst and mean difference in strike, dip and dip azimuth (in degrees) and how many
+ * quads disagree. Run with the number of triplets as the only argument.
+ * The worst cases are always nearly collinear triplets, where both solvers are ill conditioned,
+ * so the number of triplets off by more than a tenth of a degree is printed as well.
+ *
+ */
+public class SolverAccuracy {
+
+	public static void main(String[] args)
+	{
+		int triplets = args.length > 0 ? Integer.parseInt(args[0]) : 1000000;
+
+		SyntheticTriplets data = new SyntheticTriplets(triplets);
+
+		double[] strike = new double[triplets], dip = new double[triplets], dipAz = new double[triplets];
+		double[] strikeV = new double[triplets], dipV = new double[triplets], dipAzV = new double[triplets];
+		byte[] quad = new byte[triplets], quadV = new byte[triplets];
+
+		long start = System.nanoTime();
+		new Calculations(Calculations.Mode.HAVERSINE).solveBatch(data.lat, data.lon, data.elev,
+				data.p1, data.p2, data.p3, strike, dip, dipAz, quad);
+		long haversineNanos = System.nanoTime() - start;
+
+		start = System.nanoTime();
+		new Calculations(Calculations.Mode.PLANE_NORMAL).solveBatch(data.lat, data.lon, data.elev,
+				data.p1, data.p2, data.p3, strikeV, dipV, dipAzV, quadV);
+		long planeNormalNanos = System.nanoTime() - start;
+
+		double maxStrike = 0, maxDip = 0, maxDipAz = 0, sumStrike = 0, sumDip = 0, sumDipAz = 0;
+		int quadMismatches = 0, offByMore = 0;
+
+		for(int k = 0; k < triplets; k++)
+		{
+			double dStrike = angleDifference(strike[k], strikeV[k]);
+			double dDip = Math.abs(dip[k] - dipV[k]);
+			double dDipAz = angleDifference(dipAz[k], dipAzV[k]);
+
+			maxStrike = Math.max(maxStrike, dStrike);
+			maxDip = Math.max(maxDip, dDip);
+			maxDipAz = Math.max(maxDipAz, dDipAz);
+			sumStrike += dStrike;
+			sumDip += dDip;
+			sumDipAz += dDipAz;
+
+			if(quad[k] != quadV[k])
+				quadMismatches++;
+
+			if(dDip > 0.1 || (dip[k] > 1 && dDipAz > 0.1))
+				offByMore++;
+		}
+
+		System.out.println(triplets + " triplets");
+		System.out.println("Strike      max " + maxStrike + " mean " + sumStrike / triplets);
+		System.out.println("Dip         max " + maxDip + " mean " + sumDip / triplets);
+		System.out.println("Dip-Azimuth max " + maxDipAz + " mean " + sumDipAz / triplets);
+		System.out.println("Quad mismatches " + quadMismatches);
+		System.out.println("Off by more than 0.1 degree " + offByMore);
+		System.out.println("Haversine " + haversineNanos / 1e6 + " ms, plane normal " + planeNormalNanos / 1e6 + " ms");
+	}
+
+	// smallest difference between two angles in degrees, so 359.9 and 0.1 are 0.2 apart
+	private static double angleDifference(double a, double b)
+	{
+		double d = Math.abs(a - b) % 360;
+		return d > 180 ? 360 - d : d;
+	}
+
+}
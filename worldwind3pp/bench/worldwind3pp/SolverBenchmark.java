@@ -0,0 +1,169 @@
+package worldwind3pp;
+
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * JMH benchmarks for the solver kernel in Calculations and the high/medium/low ordering.
+ * Every single call benchmark walks through a fixed set of synthetic triplets so the JIT cannot
+ * fold the inputs into constants.
+ *
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "-Djava.awt.headless=true")
+@State(Scope.Thread)
+public class SolverBenchmark {
+
+	static final int TRIPLETS = 1024;
+
+	private SyntheticTriplets data;
+	private double[][] points;
+	private final Calculations calc = new Calculations();
+	private final Calculations planeNormal = new Calculations(Calculations.Mode.PLANE_NORMAL);
+
+	private double[] strike, dip, dipAz;
+	private byte[] quad;
+
+	private int k;
+
+	@Setup
+	public void setup()
+	{
+		data = new SyntheticTriplets(TRIPLETS);
+
+		points = new double[data.lat.length][];
+		for(int i = 0; i < points.length; i++)
+			points[i] = data.point(i);
+
+		strike = new double[TRIPLETS];
+		dip = new double[TRIPLETS];
+		dipAz = new double[TRIPLETS];
+		quad = new byte[TRIPLETS];
+	}
+
+	private int next()
+	{
+		k = (k + 1) & (TRIPLETS - 1);
+		return k;
+	}
+
+	@Benchmark
+	public double calcDistance()
+	{
+		int t = next();
+		return calc.calcDistance(points[data.p1[t]], points[data.p2[t]]);
+	}
+
+	@Benchmark
+	public double calcBearing()
+	{
+		int t = next();
+		return calc.calcBearing(points[data.p1[t]], points[data.p2[t]]);
+	}
+
+	@Benchmark
+	public double calcPlunge()
+	{
+		int t = next();
+		return calc.calcPlunge(points[data.p1[t]], points[data.p2[t]], 250.0 + t);
+	}
+
+	@Benchmark
+	public StrikeDipQuad calcStrikeDip()
+	{
+		int t = next();
+		return calc.calcStrikeDip(t * 0.35, 90 + t * 0.1, t * 0.01, t * 0.02);
+	}
+
+	@Benchmark
+	public void calcStrikeDipIntoArrays()
+	{
+		int t = next();
+		calc.calcStrikeDip(t * 0.35, 90 + t * 0.1, t * 0.01, t * 0.02, strike, dip, dipAz, quad, t);
+	}
+
+	// the ordering as it is done now
+	@Benchmark
+	public int orderHighMediumLow()
+	{
+		int t = next();
+		return calc.orderHighMediumLow(data.elev[data.p1[t]], data.elev[data.p2[t]], data.elev[data.p3[t]]);
+	}
+
+	// the ordering as Globe.addPosition used to do it, sorting pySort then checking the six cases, kept as a reference
+	@Benchmark
+	public int orderWithPySort()
+	{
+		int t = next();
+		double[] point1 = points[data.p1[t]], point2 = points[data.p2[t]], point3 = points[data.p3[t]];
+
+		double pySort[] = new double[3];
+		pySort[0] = point1[2];
+		pySort[1] = point2[2];
+		pySort[2] = point3[2];
+
+		Arrays.sort(pySort);
+
+		double l = pySort[0];
+		double m = pySort[1];
+		double h = pySort[2];
+
+		if(point1[2] == h && point2[2] == m && point3[2] == l) return 0;
+		else if(point1[2] == h && point2[2] == l && point3[2] == m) return 1;
+		else if(point1[2] == m && point2[2] == h && point3[2] == l) return 2;
+		else if(point1[2] == l && point2[2] == h && point3[2] == m) return 3;
+		else if(point1[2] == m && point2[2] == l && point3[2] == h) return 4;
+		else if(point1[2] == l && point2[2] == m && point3[2] == h) return 5;
+		return -1;
+	}
+
+	// one complete solve the way the picker does it on the third click
+	@Benchmark
+	public double solveTriplet()
+	{
+		int t = next();
+		return calc.solveTriplet(data.lat, data.lon, data.elev, data.p1[t], data.p2[t], data.p3[t],
+				strike, dip, dipAz, quad, t);
+	}
+
+	@Benchmark
+	@OperationsPerInvocation(TRIPLETS)
+	public void solveBatch(Blackhole bh)
+	{
+		calc.solveBatch(data.lat, data.lon, data.elev, data.p1, data.p2, data.p3, strike, dip, dipAz, quad);
+		bh.consume(strike);
+	}
+
+	@Benchmark
+	public double solveTripletPlaneNormal()
+	{
+		int t = next();
+		return planeNormal.solveTriplet(data.lat, data.lon, data.elev, data.p1[t], data.p2[t], data.p3[t],
+				strike, dip, dipAz, quad, t);
+	}
+
+	@Benchmark
+	@OperationsPerInvocation(TRIPLETS)
+	public void solveBatchPlaneNormal(Blackhole bh)
+	{
+		planeNormal.solveBatch(data.lat, data.lon, data.elev, data.p1, data.p2, data.p3, strike, dip, dipAz, quad);
+		bh.consume(strike);
+	}
+
+}
@@ -0,0 +1,228 @@
+package worldwind3pp;
+
+import gov.nasa.worldwind.geom.Angle;
+import gov.nasa.worldwind.geom.Vec4;
+import gov.nasa.worldwind.globes.Earth;
+import gov.nasa.worldwind.globes.EllipsoidalGlobe;
+import gov.nasa.worldwind.globes.Globe;
+import gov.nasa.worldwind.ogc.collada.ColladaGeometry;
+import gov.nasa.worldwind.ogc.collada.ColladaRoot;
+import gov.nasa.worldwind.ogc.collada.ColladaTriangles;
+import gov.nasa.worldwind.terrain.ZeroElevationModel;
+
+import java.io.InputStream;
+import java.net.URL;
+import java.nio.FloatBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamReader;
+
+/**
+ * Checks SymbolBatch and SymbolMesh without a window and exits with 1 if anything is off.
+ * The batch: adding, the swap on remove and the id to slot mapping in the packed instance buffer, then
+ * that the transform puts a symbol's dip tick down the dip azimuth, tipped down by the pitch and as long
+ * as the scale. The ground and its east, north and up are worked out from the globe here, not through
+ * the surface orientation matrix the batch uses.
+ * The meshes: each bundled .dae has the same triangle count and bounds read by SymbolMesh as by
+ * ColladaRoot. Needs the symbols on the class path, see copy.symbols.
+ *
+ */
+public class SymbolBatchCheck {
+
+	private static int failures;
+
+	public static void main(String[] args) throws Exception
+	{
+		checkSlots();
+		checkTransform(45.5, -75.25, 120, 30, 10);
+		checkTransform(-12, 150, 305, 70, 2.5);
+		checkTransform(60, 10, 0, 0, 1);
+
+		for(SymbolLibrary.Symbol symbol : SymbolLibrary.Symbol.values())
+			checkMesh(symbol);
+
+		System.out.println(failures == 0 ? "All checks passed" : failures + " checks failed");
+		if(failures > 0)
+			System.exit(1);
+	}
+
+	private static void check(boolean ok, String what)
+	{
+		if(!ok)
+		{
+			System.out.println("FAILED " + what);
+			failures++;
+		}
+	}
+
+	private static void checkSlots()
+	{
+		SymbolBatch batch = new SymbolBatch(SymbolLibrary.Symbol.BED);
+		int[] ids = new int[5];
+		for(int i = 0; i < ids.length; i++)
+			ids[i] = batch.add(i, 10 + i, 0, 20 * i, 0, 1 + i);
+
+		check(batch.size() == 5, "size after adding 5");
+		for(int i = 0; i < ids.length; i++)
+		{
+			check(ids[i] == i, "id " + i + " given in order");
+			check(batch.getInstances()[i * SymbolBatch.STRIDE + SymbolBatch.LATITUDE] == i, "slot " + i + " packed in order");
+		}
+
+		// the last one moves into the removed slot and its id follows it
+		batch.remove(ids[1]);
+		double[] instances = batch.getInstances();
+		check(batch.size() == 4, "size after a remove");
+		check(!batch.contains(ids[1]), "removed id is gone");
+		check(batch.contains(ids[4]), "moved id is still there");
+		check(instances[SymbolBatch.STRIDE + SymbolBatch.LATITUDE] == 4, "last instance swapped into slot 1");
+		check(instances[SymbolBatch.STRIDE + SymbolBatch.HEADING] == 80, "whole instance swapped, not just its latitude");
+		check(batch.get(ids[4], SymbolBatch.SCALE) == 5, "moved id maps to its new slot");
+		check(batch.get(ids[3], SymbolBatch.LONGITUDE) == 13, "unmoved id still maps to its slot");
+
+		// removing the last slot moves nothing, removing twice does nothing
+		batch.remove(ids[3]);
+		batch.remove(ids[3]);
+		check(batch.size() == 3, "size after removing the last slot and removing it again");
+		check(batch.get(ids[4], SymbolBatch.LATITUDE) == 4 && batch.get(ids[2], SymbolBatch.LATITUDE) == 2, "others left where they were");
+
+		int id = batch.add(7, 17, 0, 0, 0, 1);
+		check(id == 5, "ids are not reused");
+		check(batch.get(id, SymbolBatch.LATITUDE) == 7 && instances[3 * SymbolBatch.STRIDE] == 7, "new instance packed after the live ones");
+
+		// grows past the first capacity and keeps the mapping
+		for(int i = 0; i < 200; i++)
+			batch.add(100 + i * 0.1, 0, 0, 0, 0, 1);
+		check(batch.size() == 204 && batch.get(ids[4], SymbolBatch.LATITUDE) == 4
+				&& batch.get(7, SymbolBatch.LATITUDE) == 100.1, "mapping kept when the buffers grow");
+
+		batch.clear();
+		check(batch.size() == 0 && !batch.contains(ids[0]) && !batch.contains(id), "clear empties the batch");
+	}
+
+	/*
+	 * A 2D symbol's tick points along -y and its strike bar along x, so with the heading the picker gives it,
+	 * dip azimuth - 180, the tick has to end up down the dip azimuth and the bar along the strike.
+	 */
+	private static void checkTransform(double lat, double lon, double dipAz, double pitch, double scale)
+	{
+		// flat ground and no elevation model to fetch
+		Globe globe = new EllipsoidalGlobe(Earth.WGS84_EQUATORIAL_RADIUS, Earth.WGS84_POLAR_RADIUS, Earth.WGS84_ES,
+				new ZeroElevationModel());
+
+		SymbolBatch batch = new SymbolBatch(SymbolLibrary.Symbol.BED);
+		batch.add(lat, lon, 0, dipAz - 180, pitch, scale);
+		check(batch.updateTransforms(globe, 1) > 0, "transform worked out");
+		double[] m = batch.getTransforms();
+
+		String at = " at " + lat + ", " + lon + " dip azimuth " + dipAz + " pitch " + pitch + " scale " + scale;
+
+		Vec4 origin = globe.computePointFromPosition(Angle.fromDegrees(lat), Angle.fromDegrees(lon), 0);
+		check(apply(m, 0, 0, 0, 1).distanceTo3(origin) < 1e-6, "model origin on the ground" + at);
+
+		// the local frame from points a little way east and north
+		double d = 1e-6;
+		Vec4 east = globe.computePointFromPosition(Angle.fromDegrees(lat), Angle.fromDegrees(lon + d), 0).subtract3(origin).normalize3();
+		Vec4 north = globe.computePointFromPosition(Angle.fromDegrees(lat + d), Angle.fromDegrees(lon), 0).subtract3(origin).normalize3();
+		Vec4 up = east.cross3(north).normalize3();
+
+		Vec4 tick = apply(m, 0, -1, 0, 0);
+		check(Math.abs(tick.getLength3() - scale) < 1e-9 * scale, "tick as long as the scale" + at);
+		check(Math.abs(tick.dot3(up) + scale * Math.sin(Math.toRadians(pitch))) < 1e-4 * scale, "tick tipped down by the pitch" + at);
+		if(pitch < 90)
+			check(angleDifference(azimuth(tick, east, north), dipAz) < 1e-3, "tick down the dip azimuth" + at);
+
+		Vec4 strike = apply(m, 1, 0, 0, 0);
+		check(Math.abs(strike.dot3(up)) < 1e-4 * scale, "strike bar level" + at);
+		check(angleDifference(azimuth(strike, east, north), dipAz - 90) < 1e-3, "strike bar along the strike" + at);
+	}
+
+	// one row major transform times x, y, z, w
+	private static Vec4 apply(double[] m, double x, double y, double z, double w)
+	{
+		return new Vec4(m[0] * x + m[1] * y + m[2] * z + m[3] * w,
+				m[4] * x + m[5] * y + m[6] * z + m[7] * w,
+				m[8] * x + m[9] * y + m[10] * z + m[11] * w);
+	}
+
+	private static double azimuth(Vec4 v, Vec4 east, Vec4 north)
+	{
+		return Math.toDegrees(Math.atan2(v.dot3(east), v.dot3(north)));
+	}
+
+	// smallest difference between two angles in degrees, so 359.9 and 0.1 are 0.2 apart
+	private static double angleDifference(double a, double b)
+	{
+		double d = Math.abs(a - b) % 360;
+		if(d < 0)
+			d += 360;
+		return d > 180 ? 360 - d : d;
+	}
+
+	private static void checkMesh(SymbolLibrary.Symbol symbol) throws Exception
+	{
+		URL url = new SymbolLibrary().getUrl(symbol);
+		SymbolMesh mesh = SymbolMesh.load(url);
+
+		double[] bounds = emptyBounds();
+		for(SymbolMesh.Part part : mesh.getParts())
+			extend(bounds, part.getPositions(), part.getPositions().length);
+
+		ColladaRoot root = ColladaRoot.createAndParse(url);
+		int colladaTriangles = 0;
+		double[] colladaBounds = emptyBounds();
+		for(String id : geometryIds(url))
+		{
+			for(ColladaTriangles triangles : ((ColladaGeometry) root.getItemByID(id)).getMesh().getTriangles())
+			{
+				FloatBuffer vertices = FloatBuffer.allocate(triangles.getCount() * 9);
+				triangles.getVertices(vertices);
+				colladaTriangles += triangles.getCount();
+				extend(colladaBounds, vertices.array(), vertices.position());
+			}
+		}
+
+		String file = " in " + symbol.getFile();
+		check(mesh.getTriangleCount() > 0, "triangles read" + file);
+		check(mesh.getTriangleCount() == colladaTriangles,
+				"triangle count " + mesh.getTriangleCount() + " against " + colladaTriangles + file);
+		for(int i = 0; i < 6; i++)
+			check(Math.abs(bounds[i] - colladaBounds[i]) < 1e-6, "bounds " + bounds[i] + " against " + colladaBounds[i] + file);
+	}
+
+	// ColladaLibrary never fills in its elements, so the geometries are looked up by id like the nodes do
+	private static List<String> geometryIds(URL url) throws Exception
+	{
+		List<String> ids = new ArrayList<String>();
+		try (InputStream in = url.openStream()) {
+			XMLStreamReader xml = XMLInputFactory.newInstance().createXMLStreamReader(in);
+			while(xml.hasNext())
+			{
+				if(xml.next() == XMLStreamConstants.START_ELEMENT && xml.getLocalName().equals("geometry"))
+					ids.add(xml.getAttributeValue(null, "id"));
+			}
+			xml.close();
+		}
+		return ids;
+	}
+
+	// min x, y, z then max x, y, z
+	private static double[] emptyBounds()
+	{
+		double inf = Double.POSITIVE_INFINITY;
+		return new double[] { inf, inf, inf, -inf, -inf, -inf };
+	}
+
+	private static void extend(double[] bounds, float[] xyz, int length)
+	{
+		for(int i = 0; i < length; i++)
+		{
+			bounds[i % 3] = Math.min(bounds[i % 3], xyz[i]);
+			bounds[3 + i % 3] = Math.max(bounds[3 + i % 3], xyz[i]);
+		}
+	}
+
+}
@@ -0,0 +1,67 @@
+package worldwind3pp;
+
+import java.util.Random;
+
+/**
+ * Fixed seed triangulated point cloud for the benchmarks. The points are a jittered grid on a dipping
+ * surface and every grid cell is split into two triangles, so each inside vertex is shared by six
+ * triangles like in a Delaunay triangulation of contact points.
+ *
+ */
+public class SyntheticGrid {
+
+	public final double[] lat, lon, elev;
+	public final int[] p1, p2, p3;
+
+	public SyntheticGrid(int side)
+	{
+		Random random = new Random(SyntheticTriplets.SEED);
+
+		lat = new double[side * side];
+		lon = new double[side * side];
+		elev = new double[side * side];
+
+		// about 20 m between points
+		double step = 0.0002;
+		for(int row = 0; row < side; row++)
+		{
+			for(int col = 0; col < side; col++)
+			{
+				int i = row * side + col;
+				lat[i] = 40.95 + row * step + random.nextDouble() * step * 0.3;
+				lon[i] = -75.13 + col * step + random.nextDouble() * step * 0.3;
+				elev[i] = 200 + col * 3.5 - row * 1.2 + random.nextGaussian() * 0.5;
+			}
+		}
+
+		int cells = (side - 1) * (side - 1);
+		p1 = new int[cells * 2];
+		p2 = new int[cells * 2];
+		p3 = new int[cells * 2];
+
+		int k = 0;
+		for(int row = 0; row < side - 1; row++)
+		{
+			for(int col = 0; col < side - 1; col++)
+			{
+				int i = row * side + col;
+
+				p1[k] = i;
+				p2[k] = i + 1;
+				p3[k] = i + side;
+				k++;
+
+				p1[k] = i + 1;
+				p2[k] = i + side + 1;
+				p3[k] = i + side;
+				k++;
+			}
+		}
+	}
+
+	public int triangles()
+	{
+		return p1.length;
+	}
+
+}
@@ -0,0 +1,51 @@
+package worldwind3pp;
+
+import java.util.Random;
+
+/**
+ * Fixed seed synthetic picks for the benchmarks. The points sit on a gently dipping plane over a
+ * couple of kilometres with some elevation noise, which is what real contact triplets look like.
+ *
+ */
+public class SyntheticTriplets {
+
+	public static final long SEED = 42L;
+
+	public final double[] lat, lon, elev;
+	public final int[] p1, p2, p3;
+
+	public SyntheticTriplets(int triplets)
+	{
+		Random random = new Random(SEED);
+
+		int n = triplets * 3;
+		lat = new double[n];
+		lon = new double[n];
+		elev = new double[n];
+		p1 = new int[triplets];
+		p2 = new int[triplets];
+		p3 = new int[triplets];
+
+		for(int i = 0; i < n; i++)
+		{
+			lat[i] = 40.95 + random.nextDouble() * 0.02;
+			lon[i] = -75.13 + random.nextDouble() * 0.02;
+			// ~10 degree plane dipping east plus noise
+			elev[i] = 200 + (lon[i] + 75.13) * 15000 + random.nextGaussian() * 5;
+		}
+
+		for(int k = 0; k < triplets; k++)
+		{
+			p1[k] = 3 * k;
+			p2[k] = 3 * k + 1;
+			p3[k] = 3 * k + 2;
+		}
+	}
+
+	// point i as the {lat, lon, elev} array the picker uses
+	public double[] point(int i)
+	{
+		return new double[] { lat[i], lon[i], elev[i] };
+	}
+
+}